@@ -0,0 +1,93 @@
+package com.dk.csvdiff.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.dk.csvdiff.RowDiffer;
+import com.dk.csvdiff.csv.Row;
+import com.dk.csvdiff.csv.Sheet;
+
+/**
+ * RowDiffer.getDiff over the matched rows of two parsed Sheets
+ * at different shares of changed rows.
+ *
+ * @author darrenkennedy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GetDiffBenchmark {
+    private static final int ROWS = 10000;
+
+    @Param({"20"})
+    public int columns;
+
+    @Param({"8"})
+    public int cellWidth;
+
+    @Param({"0.0", "0.01", "0.5"})
+    public double changeRatio;
+
+    @Param({"true", "false"})
+    public boolean zeroMatchesNull;
+
+    @Param({"false", "true"})
+    public boolean showIdentical;
+
+    private RowDiffer differ;
+    private Row[] rowsA;
+    private Row[] rowsB;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticCsv data = new SyntheticCsv(42, ROWS, columns, cellWidth);
+        data.setUpdateRate(changeRatio);
+        Sheet a = parse(data.getA());
+        Sheet b = parse(data.getB());
+        differ = new RowDiffer(SyntheticCsv.ID_COLUMN, a.getHeaders(), b.getHeaders(), zeroMatchesNull);
+
+        List<Row> matchedA = new ArrayList<>();
+        List<Row> matchedB = new ArrayList<>();
+        for (Row r: a.getRows()) {
+            matchedA.add(r);
+            matchedB.add(b.getRow(r.getId()));
+        }
+        rowsA = matchedA.toArray(new Row[0]);
+        rowsB = matchedB.toArray(new Row[0]);
+    }
+
+    private Sheet parse(String csv) throws IOException {
+        Sheet sheet = new Sheet(SyntheticCsv.ID_COLUMN);
+        sheet.setZeroMatchesNull(zeroMatchesNull);
+        sheet.parse(new StringReader(csv));
+        return sheet;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void getDiff(Blackhole bh) {
+        for (int i = 0; i < rowsA.length; i++)
+            bh.consume(differ.getDiff(rowsA[i], rowsB[i], showIdentical));
+    }
+}
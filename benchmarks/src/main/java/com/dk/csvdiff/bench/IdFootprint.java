@@ -0,0 +1,96 @@
+package com.dk.csvdiff.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.dk.csvdiff.csv.OffHeapArena;
+import com.dk.csvdiff.csv.Row;
+import com.dk.csvdiff.csv.Sheet;
+
+/**
+ * Compares the heap held by a Sheet with a hash id index, with compacted ids
+ * and with its data and id index off the heap.
+ * A CSV file of synthetic rows is parsed into a Sheet each way and the heap
+ * retained after a full GC, the parse time and the time to look up every id
+ * are printed. The rows themselves take the same heap with and without compacted
+ * ids, so that difference is the difference between the indexes.
+ *
+ * Usage: IdFootprint [rows [idPrefix]], by default 1000000 rows with ids like CUST-EU-000000012345
+ *
+ * @author darrenkennedy
+ */
+public class IdFootprint {
+    /**
+     * Main entry point
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        long rows = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        String idPrefix = args.length > 1 ? args[1] : "CUST-EU-";
+
+        SyntheticCsv data = new SyntheticCsv(42, rows, 2, 8);
+        data.setIdPrefix(idPrefix);
+        File csv = File.createTempFile("idfootprint", ".csv");
+        csv.deleteOnExit();
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csv), StandardCharsets.UTF_8), 1 << 16)) {
+            data.writeA(out);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            System.out.println(String.format("%,d rows, ids like %s", rows, data.getRow(rows / 2)[0]));
+            measure(csv, false, false, pool);
+            measure(csv, true, false, pool);
+            measure(csv, false, true, pool);
+        } finally {
+            pool.shutdown();
+            csv.delete();
+        }
+    }
+
+    private static void measure(File csv, boolean compactIds, boolean offHeap, ExecutorService pool) throws IOException {
+        try (OffHeapArena arena = new OffHeapArena(offHeap ? Long.MAX_VALUE : 0)) {
+            measure(csv, compactIds, offHeap ? arena : null, pool);
+        }
+    }
+
+    private static void measure(File csv, boolean compactIds, OffHeapArena arena, ExecutorService pool) throws IOException {
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Sheet sheet = new Sheet(SyntheticCsv.ID_COLUMN);
+        sheet.setCompactIds(compactIds);
+        sheet.setOffHeap(arena);
+        sheet.parse(csv, pool);
+        long parseMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long retained = usedHeap() - before;
+
+        start = System.nanoTime();
+        long found = 0;
+        for (Row r: sheet.getRows()) {
+            if (sheet.contains(r.getKey()))
+                found++;
+        }
+        long lookupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        System.out.println(String.format("%-10s: %,d bytes retained (%.1f per row), %,d off heap, parse %,d ms, %,d lookups %,d ms",
+                arena != null ? "offHeap" : compactIds ? "compactIds" : "hash",
+                retained, retained / (double) sheet.size(), arena != null ? arena.used() : 0,
+                parseMillis, found, lookupMillis));
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,104 @@
+package com.dk.csvdiff.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.dk.csvdiff.Diff;
+import com.dk.csvdiff.cmdline.ParsedCommandLine;
+
+/**
+ * Diff.makeDiff end to end, from Readers and from files.
+ *
+ * @author darrenkennedy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MakeDiffBenchmark {
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"20"})
+    public int columns;
+
+    @Param({"8"})
+    public int cellWidth;
+
+    @Param({"0.0", "0.01", "0.5"})
+    public double changeRatio;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private String csvA;
+    private String csvB;
+    private File fileA;
+    private File fileB;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticCsv data = new SyntheticCsv(42, rows, columns, cellWidth);
+        data.setUpdateRate(changeRatio);
+        data.setInsertRate(changeRatio / 10);
+        data.setDeleteRate(changeRatio / 10);
+        csvA = data.getA();
+        csvB = data.getB();
+        fileA = File.createTempFile("diffA", ".csv");
+        fileB = File.createTempFile("diffB", ".csv");
+        output = File.createTempFile("diff", ".csv");
+        try (Writer out = new FileWriter(fileA)) {
+            out.write(csvA);
+        }
+        try (Writer out = new FileWriter(fileB)) {
+            out.write(csvB);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileA.delete();
+        fileB.delete();
+        output.delete();
+    }
+
+    @Benchmark
+    public void makeDiffReaders(Blackhole bh) throws IOException {
+        Diff diff = new Diff(SyntheticCsv.ID_COLUMN, "A", "B",
+                new StringReader(csvA), new StringReader(csvB),
+                "out", new WriteBenchmark.NullWriter(bh), true, true, true, bh::consume, bh::consume);
+        diff.setThreads(threads);
+        diff.makeDiff();
+    }
+
+    @Benchmark
+    public void makeDiffFiles() throws IOException {
+        ParsedCommandLine cmd = new ParsedCommandLine(fileA.getPath(), fileB.getPath(), output.getPath(),
+                SyntheticCsv.ID_COLUMN, true, true, true);
+        cmd.setThreads(threads);
+        Diff diff = new Diff(cmd);
+        diff.makeDiff();
+    }
+}
@@ -0,0 +1,59 @@
+package com.dk.csvdiff.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import com.dk.csvdiff.Diff;
+
+/**
+ * Runs the Diff command line in the JVM the ScaleHarness starts for each
+ * point and then writes what the JVM measured of itself to a stats file:
+ * the peak resident set size in bytes (-1 where /proc is not available),
+ * the total GC time in milliseconds and the number of collections.
+ *
+ * @author darrenkennedy
+ */
+public class MeasuredDiff {
+    /**
+     * @param args The stats file followed by the Diff arguments
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        Diff.main(Arrays.copyOfRange(args, 1, args.length));
+
+        long gcMillis = 0;
+        long gcCount = 0;
+        for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcMillis += Math.max(0, gc.getCollectionTime());
+            gcCount += Math.max(0, gc.getCollectionCount());
+        }
+        try (Writer out = new FileWriter(args[0])) {
+            out.write(peakRss() + " " + gcMillis + " " + gcCount + "\n");
+        }
+    }
+
+    /*
+     * The high water mark of the resident set from /proc/self/status
+     */
+    private static long peakRss() {
+        File status = new File("/proc/self/status");
+        if (!status.isFile())
+            return -1;
+        try (BufferedReader in = new BufferedReader(new FileReader(status))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (line.startsWith("VmHWM:"))
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not known
+        }
+        return -1;
+    }
+}
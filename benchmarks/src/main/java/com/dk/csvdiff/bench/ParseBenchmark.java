@@ -0,0 +1,86 @@
+package com.dk.csvdiff.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dk.csvdiff.csv.Sheet;
+
+/**
+ * Sheet.parse from a Reader and from a memory mapped file.
+ *
+ * @author darrenkennedy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"10", "100"})
+    public int columns;
+
+    @Param({"8"})
+    public int cellWidth;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    private String csv;
+    private File file;
+    private ExecutorService pool;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticCsv data = new SyntheticCsv(42, rows, columns, cellWidth);
+        csv = data.getA();
+        file = File.createTempFile("parse", ".csv");
+        try (Writer out = new FileWriter(file)) {
+            data.writeA(out);
+        }
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+        file.delete();
+    }
+
+    @Benchmark
+    public Sheet parseReader() throws IOException {
+        Sheet sheet = new Sheet(SyntheticCsv.ID_COLUMN);
+        sheet.parse(new StringReader(csv));
+        return sheet;
+    }
+
+    @Benchmark
+    public Sheet parseFile() throws IOException {
+        Sheet sheet = new Sheet(SyntheticCsv.ID_COLUMN);
+        sheet.parse(file, pool);
+        return sheet;
+    }
+}
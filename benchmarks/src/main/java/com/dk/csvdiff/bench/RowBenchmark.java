@@ -0,0 +1,60 @@
+package com.dk.csvdiff.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.dk.csvdiff.csv.Row;
+
+/**
+ * Construction of detached Rows from their values and headers.
+ *
+ * @author darrenkennedy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowBenchmark {
+    private static final int ROWS = 1024;
+
+    @Param({"10", "100"})
+    public int columns;
+
+    @Param({"8"})
+    public int cellWidth;
+
+    private String[] headers;
+    private String[][] values;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticCsv data = new SyntheticCsv(42, ROWS, columns, cellWidth);
+        headers = data.getHeaders();
+        values = new String[ROWS][];
+        for (int i = 0; i < ROWS; i++)
+            values[i] = data.getRow(i);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void construct(Blackhole bh) {
+        for (String[] v: values)
+            bh.consume(new Row(v, headers, SyntheticCsv.ID_COLUMN));
+    }
+}
@@ -0,0 +1,290 @@
+package com.dk.csvdiff.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Measures how the Diff command line scales with the size of its inputs.
+ * For every combination of row and column counts a pair of CSV files is
+ * generated with SyntheticCsv and diffed in a new JVM, recording the wall
+ * time, rows per second, peak resident set size and GC time of the run.
+ * Points whose files would be larger than the size limit are recorded as
+ * skipped. The results are written as a JSON report.
+ *
+ * @author darrenkennedy
+ */
+public class ScaleHarness {
+    private long[] rows = {10_000, 100_000, 1_000_000, 10_000_000, 100_000_000};
+    private int[] columns = {5, 50, 500, 5000};
+    private int cellWidth = 8;
+    private double updateRate = 0.01;
+    private double insertRate = 0.001;
+    private double deleteRate = 0.001;
+    private long seed = 42;
+    private long maxBytes = 16L << 30;
+    private File dir = new File(System.getProperty("java.io.tmpdir"));
+    private File report = new File("scale-report.json");
+    private boolean keepFiles = false;
+    private List<String> jvmArgs = new ArrayList<>();
+    private List<String> diffArgs = new ArrayList<>();
+
+    /**
+     * Main entry point
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        ScaleHarness harness = new ScaleHarness();
+        if (harness.parseCommandLine(args))
+            harness.run();
+    }
+
+    /**
+     * Generate and diff every point, writing the report
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        List<String> points = new ArrayList<>();
+        for (long r: rows) {
+            for (int c: columns) {
+                points.add(measure(r, c));
+                writeReport(points);
+            }
+        }
+    }
+
+    /*
+     * Generate, diff and remove one pair of files
+     * @return The JSON object for the point
+     */
+    private String measure(long rowCount, int columnCount) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"rows\": ").append(rowCount)
+            .append(", \"columns\": ").append(columnCount)
+            .append(", \"cellWidth\": ").append(cellWidth)
+            .append(", \"updateRate\": ").append(updateRate)
+            .append(", \"insertRate\": ").append(insertRate)
+            .append(", \"deleteRate\": ").append(deleteRate);
+
+        long estimate = estimateBytes(rowCount, columnCount);
+        if (estimate > maxBytes) {
+            System.out.println(String.format("%,d rows x %,d columns: skipped, about %,d bytes", rowCount, columnCount, estimate));
+            return json.append(", \"skipped\": true, \"estimatedBytes\": ").append(estimate).append("}").toString();
+        }
+
+        String name = String.format("scale-%d-%d-%d-%d", seed, rowCount, columnCount, cellWidth);
+        File fileA = new File(dir, name + "-a.csv");
+        File fileB = new File(dir, name + "-b.csv");
+        File output = new File(dir, name + "-diff.csv");
+        File stats = new File(dir, name + ".stats");
+        File log = new File(dir, name + ".log");
+        try {
+            SyntheticCsv data = new SyntheticCsv(seed, rowCount, columnCount, cellWidth);
+            data.setUpdateRate(updateRate);
+            data.setInsertRate(insertRate);
+            data.setDeleteRate(deleteRate);
+            long generateStart = System.nanoTime();
+            long rowsB;
+            try (Writer out = open(fileA)) {
+                data.writeA(out);
+            }
+            try (Writer out = open(fileB)) {
+                rowsB = data.writeB(out);
+            }
+            long generateMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - generateStart);
+
+            List<String> command = new ArrayList<>();
+            command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+            command.addAll(jvmArgs);
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(MeasuredDiff.class.getName());
+            command.add(stats.getPath());
+            command.addAll(diffArgs);
+            command.addAll(Arrays.asList(SyntheticCsv.ID_COLUMN, fileA.getPath(), fileB.getPath(), output.getPath()));
+
+            long start = System.nanoTime();
+            Process process = new ProcessBuilder(command)
+                            .redirectErrorStream(true)
+                            .redirectOutput(log)
+                            .start();
+            int exitCode;
+            try {
+                exitCode = process.waitFor();
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            long wallMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            long[] measured = {-1, -1, -1};
+            if (stats.isFile()) {
+                String[] values = new String(Files.readAllBytes(stats.toPath()), StandardCharsets.UTF_8).trim().split(" ");
+                for (int i = 0; i < values.length && i < measured.length; i++)
+                    measured[i] = Long.parseLong(values[i]);
+            }
+            double rowsPerSecond = (rowCount + rowsB) * 1000.0 / Math.max(1, wallMillis);
+
+            System.out.println(String.format("%,d rows x %,d columns: %,d ms, %,.0f rows/s, peak RSS %,d bytes, GC %,d ms%s",
+                    rowCount, columnCount, wallMillis, rowsPerSecond, measured[0], measured[1],
+                    exitCode == 0 ? "" : ", exit code " + exitCode));
+            return json.append(", \"skipped\": false")
+                .append(", \"rowsB\": ").append(rowsB)
+                .append(", \"bytesA\": ").append(fileA.length())
+                .append(", \"bytesB\": ").append(fileB.length())
+                .append(", \"generateMillis\": ").append(generateMillis)
+                .append(", \"exitCode\": ").append(exitCode)
+                .append(", \"wallMillis\": ").append(wallMillis)
+                .append(", \"rowsPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", rowsPerSecond))
+                .append(", \"peakRssBytes\": ").append(measured[0])
+                .append(", \"gcMillis\": ").append(measured[1])
+                .append(", \"gcCount\": ").append(measured[2])
+                .append("}").toString();
+        } finally {
+            stats.delete();
+            if (!keepFiles) {
+                fileA.delete();
+                fileB.delete();
+                output.delete();
+                log.delete();
+            }
+        }
+    }
+
+    /*
+     * Approximate size of data set A: a 12 character id and cells of
+     * average width, one in sixteen of them empty, each with a separator
+     */
+    private long estimateBytes(long rowCount, int columnCount) {
+        double cell = (cellWidth + 1) / 2.0 * 15 / 16 + 1;
+        return (long) (rowCount * (13 + (columnCount - 1) * cell));
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /*
+     * Rewritten after every point so a long run leaves a usable report if it is stopped
+     */
+    private void writeReport(List<String> points) throws IOException {
+        try (Writer out = open(report)) {
+            out.write("{\n");
+            out.write("  \"timestamp\": " + quote(String.format(Locale.ROOT, "%tFT%<tT%<tz", new Date())) + ",\n");
+            out.write("  \"java\": " + quote(System.getProperty("java.version")) + ",\n");
+            out.write("  \"os\": " + quote(System.getProperty("os.name") + " " + System.getProperty("os.arch")) + ",\n");
+            out.write("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+            out.write("  \"seed\": " + seed + ",\n");
+            out.write("  \"jvmArgs\": " + quote(jvmArgs) + ",\n");
+            out.write("  \"diffArgs\": " + quote(diffArgs) + ",\n");
+            out.write("  \"points\": [");
+            for (int i = 0; i < points.size(); i++)
+                out.write((i == 0 ? "\n    " : ",\n    ") + points.get(i));
+            out.write("\n  ]\n}\n");
+        }
+    }
+
+    private static String quote(List<String> values) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < values.size(); i++)
+            json.append(i == 0 ? "" : ", ").append(quote(values.get(i)));
+        return json.append("]").toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder json = new StringBuilder("\"");
+        for (char ch: value.toCharArray()) {
+            if (ch == '"' || ch == '\\')
+                json.append('\\').append(ch);
+            else if (ch < ' ')
+                json.append(String.format("\\u%04x", (int) ch));
+            else
+                json.append(ch);
+        }
+        return json.append('"').toString();
+    }
+
+    /*
+     * Parse the options, leaving the defaults for any not given
+     * @return true if the harness should run
+     */
+    private boolean parseCommandLine(String[] args) {
+        Options options = new Options();
+        options.addOption("h", "help", false, "Show this help message");
+        options.addOption(option("rows", "<n,...>", "Row counts of data set A (default 10000,100000,1000000,10000000,100000000)"));
+        options.addOption(option("columns", "<n,...>", "Column counts including the id column (default 5,50,500,5000)"));
+        options.addOption(option("cellWidth", "<n>", "Maximum characters in a cell (default 8)"));
+        options.addOption(option("update", "<rate>", "Share of rows with a changed cell (default 0.01)"));
+        options.addOption(option("insert", "<rate>", "Share of rows followed by an inserted row (default 0.001)"));
+        options.addOption(option("delete", "<rate>", "Share of rows deleted (default 0.001)"));
+        options.addOption(option("seed", "<n>", "Seed for the generated data (default 42)"));
+        options.addOption(option("maxSize", "<MB>", "Skip points with files larger than this (default 16384)"));
+        options.addOption(option("dir", "<dir>", "Directory for the generated files (default the system temp directory)"));
+        options.addOption(option("report", "<file>", "The JSON report (default scale-report.json)"));
+        options.addOption(option("jvmArgs", "<args>", "Space separated arguments for the JVM running each diff"));
+        options.addOption(option("diffArgs", "<args>", "Space separated Diff options, for example \"-p 4\""));
+        options.addOption(Option.builder().longOpt("keep").desc("Keep the generated files, output and log").build());
+
+        try {
+            CommandLine cmd = new DefaultParser().parse(options, args);
+            if (cmd.hasOption("help")) {
+                new HelpFormatter().printHelp("ScaleHarness [options]", options);
+                return false;
+            }
+            if (cmd.hasOption("rows"))
+                rows = Arrays.stream(cmd.getOptionValue("rows").split(",")).mapToLong(s -> Long.parseLong(s.trim())).toArray();
+            if (cmd.hasOption("columns"))
+                columns = Arrays.stream(cmd.getOptionValue("columns").split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+            cellWidth = Integer.parseInt(cmd.getOptionValue("cellWidth", String.valueOf(cellWidth)));
+            updateRate = Double.parseDouble(cmd.getOptionValue("update", String.valueOf(updateRate)));
+            insertRate = Double.parseDouble(cmd.getOptionValue("insert", String.valueOf(insertRate)));
+            deleteRate = Double.parseDouble(cmd.getOptionValue("delete", String.valueOf(deleteRate)));
+            seed = Long.parseLong(cmd.getOptionValue("seed", String.valueOf(seed)));
+            if (cmd.hasOption("maxSize"))
+                maxBytes = Long.parseLong(cmd.getOptionValue("maxSize")) << 20;
+            if (cmd.hasOption("dir"))
+                dir = new File(cmd.getOptionValue("dir"));
+            if (cmd.hasOption("report"))
+                report = new File(cmd.getOptionValue("report"));
+            if (cmd.hasOption("jvmArgs"))
+                jvmArgs = Arrays.asList(cmd.getOptionValue("jvmArgs").trim().split("\\s+"));
+            if (cmd.hasOption("diffArgs"))
+                diffArgs = Arrays.asList(cmd.getOptionValue("diffArgs").trim().split("\\s+"));
+            keepFiles = cmd.hasOption("keep");
+            return true;
+        } catch (ParseException | NumberFormatException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("ScaleHarness [options]", options);
+            return false;
+        }
+    }
+
+    private static Option option(String name, String argName, String desc) {
+        return Option
+                .builder()
+                .longOpt(name)
+                .hasArg()
+                .argName(argName)
+                .desc(desc)
+                .build();
+    }
+}
@@ -0,0 +1,230 @@
+package com.dk.csvdiff.bench;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.SplittableRandom;
+
+/**
+ * Generates a pair of CSV data sets A and B from a seed.
+ * A has the given number of rows, B is A with a share of its rows
+ * updated, deleted or followed by inserted rows. The same seed and
+ * parameters always give the same data, and rows are written one at a
+ * time so data sets larger than memory can be written to files.
+ * Ids are zero padded so both data sets are sorted by id.
+ * About one cell in sixteen is empty; an update of an empty cell writes
+ * '0', which is only a difference when zero does not match null.
+ *
+ * @author darrenkennedy
+ */
+public class SyntheticCsv {
+    public static final String ID_COLUMN = "id";
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789 ".toCharArray();
+
+    private long seed;
+    private long rows;
+    private int columns;
+    private int cellWidth;
+    private double updateRate;
+    private double insertRate;
+    private double deleteRate;
+    private String idPrefix = "";
+
+    /**
+     * @param seed Seed for all generated values
+     * @param rows Number of rows in data set A
+     * @param columns Number of columns including the id column
+     * @param cellWidth Maximum number of characters in a cell
+     */
+    public SyntheticCsv(long seed, long rows, int columns, int cellWidth) {
+        if (columns < 1 || cellWidth < 1 || rows < 0)
+            throw new IllegalArgumentException("rows " + rows + ", columns " + columns + ", cell width " + cellWidth);
+        this.seed = seed;
+        this.rows = rows;
+        this.columns = columns;
+        this.cellWidth = cellWidth;
+    }
+
+    /**
+     * @param updateRate Share of the rows of A that have one changed cell in B
+     */
+    public void setUpdateRate(double updateRate) {
+        this.updateRate = updateRate;
+    }
+
+    /**
+     * @param insertRate Share of the rows of A that are followed by a new row in B
+     */
+    public void setInsertRate(double insertRate) {
+        this.insertRate = insertRate;
+    }
+
+    /**
+     * @param deleteRate Share of the rows of A that are missing from B
+     */
+    public void setDeleteRate(double deleteRate) {
+        this.deleteRate = deleteRate;
+    }
+
+    /**
+     * @param idPrefix Text before the digits of every id, such as "CUST-EU-"
+     */
+    public void setIdPrefix(String idPrefix) {
+        this.idPrefix = idPrefix;
+    }
+
+    /**
+     * Write data set A
+     * @param out Where the CSV data is written
+     * @return The number of rows written
+     * @throws IOException
+     */
+    public long writeA(Writer out) throws IOException {
+        return write(out, false);
+    }
+
+    /**
+     * Write data set B
+     * @param out Where the CSV data is written
+     * @return The number of rows written
+     * @throws IOException
+     */
+    public long writeB(Writer out) throws IOException {
+        return write(out, true);
+    }
+
+    /**
+     * @return Data set A
+     */
+    public String getA() {
+        return toString(false);
+    }
+
+    /**
+     * @return Data set B
+     */
+    public String getB() {
+        return toString(true);
+    }
+
+    /**
+     * @return The column names, the id column first
+     */
+    public String[] getHeaders() {
+        String[] headers = new String[columns];
+        headers[0] = ID_COLUMN;
+        for (int c = 1; c < columns; c++)
+            headers[c] = "col" + c;
+        return headers;
+    }
+
+    /**
+     * The values of a row of data set A
+     * @param row Row index
+     * @return The cell values, the id first
+     */
+    public String[] getRow(long row) {
+        String[] values = new String[columns];
+        StringBuilder line = new StringBuilder();
+        values[0] = id(row * 2);
+        SplittableRandom random = random(row);
+        for (int c = 1; c < columns; c++) {
+            line.setLength(0);
+            cell(random, line);
+            values[c] = line.toString();
+        }
+        return values;
+    }
+
+    private String toString(boolean b) {
+        StringWriter out = new StringWriter();
+        try {
+            write(out, b);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toString();
+    }
+
+    private long write(Writer out, boolean b) throws IOException {
+        long written = 0;
+        StringBuilder line = new StringBuilder(columns * (cellWidth + 1));
+        String[] headers = getHeaders();
+        for (int c = 0; c < columns; c++)
+            line.append(c == 0 ? "" : ",").append(headers[c]);
+        out.append(line).append('\n');
+
+        for (long row = 0; row < rows; row++) {
+            // The fate of a row in B is drawn apart from its values so A does not depend on the rates
+            SplittableRandom fate = random(~row);
+            double p = fate.nextDouble();
+            boolean deleted = p < deleteRate;
+            boolean updated = !deleted && p < deleteRate + updateRate;
+            boolean inserted = fate.nextDouble() < insertRate;
+            int updatedColumn = columns > 1 ? 1 + fate.nextInt(columns - 1) : -1;
+
+            if (!b || !deleted) {
+                line.setLength(0);
+                line.append(id(row * 2));
+                SplittableRandom random = random(row);
+                for (int c = 1; c < columns; c++) {
+                    line.append(',');
+                    int start = line.length();
+                    cell(random, line);
+                    if (b && updated && c == updatedColumn) {
+                        boolean empty = line.length() == start;
+                        line.setLength(start);
+                        if (empty)
+                            line.append('0');
+                        else
+                            value(fate, line);
+                    }
+                }
+                out.append(line).append('\n');
+                written++;
+            }
+
+            if (b && inserted) {
+                line.setLength(0);
+                line.append(id(row * 2 + 1));
+                for (int c = 1; c < columns; c++) {
+                    line.append(',');
+                    cell(fate, line);
+                }
+                out.append(line).append('\n');
+                written++;
+            }
+        }
+        return written;
+    }
+
+    private SplittableRandom random(long row) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + row);
+    }
+
+    private String id(long n) {
+        String digits = Long.toString(n);
+        StringBuilder id = new StringBuilder(idPrefix.length() + 12).append(idPrefix);
+        for (int i = digits.length(); i < 12; i++)
+            id.append('0');
+        return id.append(digits).toString();
+    }
+
+    /*
+     * Append a cell, empty one time in sixteen
+     */
+    private void cell(SplittableRandom random, StringBuilder line) {
+        if (random.nextInt(16) != 0)
+            value(random, line);
+    }
+
+    /*
+     * Append a value that never needs quoting
+     */
+    private void value(SplittableRandom random, StringBuilder line) {
+        int width = 1 + random.nextInt(cellWidth);
+        for (int i = 0; i < width; i++)
+            line.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+    }
+}
@@ -0,0 +1,100 @@
+package com.dk.csvdiff.bench;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.dk.csvdiff.csv.Row;
+import com.dk.csvdiff.csv.Sheet;
+
+/**
+ * Sheet.write of a parsed Sheet and of a Sheet of detached Rows,
+ * as diff Sheets are built.
+ *
+ * @author darrenkennedy
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+    @Param({"100000"})
+    public int rows;
+
+    @Param({"10", "100"})
+    public int columns;
+
+    @Param({"8"})
+    public int cellWidth;
+
+    private Sheet parsed;
+    private Sheet built;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        SyntheticCsv data = new SyntheticCsv(42, rows, columns, cellWidth);
+        parsed = new Sheet(SyntheticCsv.ID_COLUMN);
+        parsed.parse(new StringReader(data.getA()));
+
+        built = new Sheet(SyntheticCsv.ID_COLUMN);
+        String[] headers = data.getHeaders();
+        for (int i = 0; i < rows; i++)
+            built.addRow(new Row(data.getRow(i), headers, SyntheticCsv.ID_COLUMN));
+    }
+
+    @Benchmark
+    public void writeParsed(Blackhole bh) throws IOException {
+        parsed.write(new NullWriter(bh));
+    }
+
+    @Benchmark
+    public void writeBuilt(Blackhole bh) throws IOException {
+        built.write(new NullWriter(bh));
+    }
+
+    /*
+     * Discards what is written so only formatting is measured
+     */
+    static class NullWriter extends Writer {
+        private Blackhole bh;
+
+        NullWriter(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            bh.consume(cbuf);
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            bh.consume(str);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
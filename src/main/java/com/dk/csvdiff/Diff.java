@@ -1,21 +1,50 @@
 package com.dk.csvdiff;
 
-import java.io.FileReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileWriter;
+import java.io.FilterReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.stream.Collector;
 import java.util.stream.Collectors;
 
 import com.dk.csvdiff.cmdline.ParsedCommandLine;
+import com.dk.csvdiff.csv.ColumnComparator;
+import com.dk.csvdiff.csv.CsvStreams;
+import com.dk.csvdiff.csv.DiffEstimate;
+import com.dk.csvdiff.csv.ExternalSorter;
+import com.dk.csvdiff.csv.IdenticalCheck;
+import com.dk.csvdiff.csv.OffHeapArena;
 import com.dk.csvdiff.csv.Row;
+import com.dk.csvdiff.csv.RowFilter;
+import com.dk.csvdiff.csv.RowReader;
+import com.dk.csvdiff.csv.RowSource;
 import com.dk.csvdiff.csv.Sheet;
-import com.dk.csvdiff.csv.SheetCollector;
+import com.dk.csvdiff.csv.SnapshotCache;
+import com.dk.csvdiff.csv.TempCsv;
 import com.dk.csvdiff.i18n.Messages;
+import com.opencsv.CSVWriter;
 
 /**
  * @author darrenkennedy
@@ -30,17 +59,40 @@ public class Diff {
     public static final String DIFF_MARKER_B = ">>";
     public static final String RECORD_DIFF_MARKER_A = "<<<<<<";
     public static final String RECORD_DIFF_MARKER_B = ">>>>>>";
+    // Exit status of a check that could not compare the inputs
+    private static final int CHECK_FAILED = 2;
+    // Cells of each input sampled to infer the type of a column
+    private static final int TYPE_SAMPLE = 1000;
 
     // User input stuff
-    private String idColumn;
+    private List<String> keyColumns;
     private boolean zeroMatchesNull;
     private boolean displayMissingRows;
     private boolean displayMatchingData;
+    private boolean sortedInput;
+    private boolean externalSort;
+    private long memoryBudget;
+    private File tempDir;
+    private int threads;
+    private SnapshotCache snapshotCache;
+    private boolean compactIds;
+    private long offHeap;
+    private Map<String, ColumnComparator> columnTypes = new LinkedHashMap<>();
+    private boolean inferTypes;
+    private List<String> includeColumns;
+    private List<String> excludeColumns = Collections.emptyList();
+    private RowFilter rowFilter;
+    private boolean estimate;
+    private boolean check;
+    private IdenticalCheck.Outcome checkOutcome;
+    private Writer statsWriter;
     private String inputA;
     private String inputB;
     private String output;
     private Reader readerA;
     private Reader readerB;
+    private File fileA;
+    private File fileB;
     
     // For IO
     private Writer writer;
@@ -53,7 +105,8 @@ public class Diff {
     private List<String> headers;
     private List<String> headersMissingA;
     private List<String> headersMissingB;
-    private boolean hasDiff;
+    private RowDiffer differ;
+    private DiffStats stats;
 
     // A consumer to write a string and append a newline
     private class LineWriter implements Consumer<String> {
@@ -77,14 +130,51 @@ public class Diff {
      */
     public static void main(String[] args) throws IOException {
         ParsedCommandLine cmd = new ParsedCommandLine();
-        if (cmd.parseCommandLine(args)) {
+        boolean parsed = cmd.parseCommandLine(args);
+        if (cmd.isCheck())
+            System.exit(check(cmd, parsed));
+        else if (parsed)
             new Diff(cmd).makeDiff();
+    }
+
+    /*
+     * Check whether the inputs are identical
+     * @param parsed false if the command line could not be parsed
+     * @return The exit status: 0 if they are, 1 if they are not and 2 if they could not be compared
+     */
+    static int check(ParsedCommandLine cmd, boolean parsed) {
+        if (!parsed)
+            return CHECK_FAILED;
+        Diff diff;
+        try {
+            diff = new Diff(cmd);
+        } catch (IOException | RuntimeException e) {
+            Messages.write(System.err::println, "CheckFailed", cmd.getFilenameA(), cmd.getFilenameB(), e.getMessage());
+            return CHECK_FAILED;
+        }
+        return diff.checkStatus();
+    }
+
+    /*
+     * @return The exit status of a check
+     */
+    private int checkStatus() {
+        try {
+            makeDiff();
+            return checkOutcome.isIdentical() ? 0 : 1;
+        } catch (IOException | RuntimeException e) {
+            Messages.write(stdErr, "CheckFailed", inputA, inputB, e.getMessage());
+            return CHECK_FAILED;
         }
     }
     
     // Default constructor
     private Diff() {
-    	this.hasDiff = false;
+    	this.sortedInput = false;
+    	this.externalSort = false;
+    	this.memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    	this.tempDir = null;
+    	this.threads = 1;
     }
 
     /**
@@ -96,15 +186,46 @@ public class Diff {
         this(cmd.getIdColumn(),
              cmd.getFilenameA(),
              cmd.getFilenameB(),
-             new FileReader(cmd.getFilenameA()),
-             new FileReader(cmd.getFilenameB()),
+             null,
+             null,
              cmd.getFilenameOut(),
-             new FileWriter(cmd.getFilenameOut()),
+             // A check writes no output
+             cmd.isCheck() ? null : CsvStreams.openWriter(cmd.getFilenameOut(), cmd.isGzipOutput()),
              cmd.isZeroMatchesNull(),
              cmd.isDisplayMatchingData(),
              cmd.isDisplayMissingRows(),
-             System.out::println,
+             // Messages must not be mixed into diffs written to standard output
+             CsvStreams.STANDARD.equals(cmd.getFilenameOut()) ? System.err::println : System.out::println,
              System.err::println);
+        if (CsvStreams.isStream(cmd.getFilenameA()) || CsvStreams.isStream(cmd.getFilenameB())) {
+            // Only plain files can be memory mapped, so both inputs are read as text
+            this.readerA = CsvStreams.openReader(cmd.getFilenameA());
+            this.readerB = CsvStreams.openReader(cmd.getFilenameB());
+        } else {
+            this.fileA = new File(cmd.getFilenameA());
+            this.fileB = new File(cmd.getFilenameB());
+        }
+        setKeyColumns(cmd.getKeyColumns());
+        setSortedInput(cmd.isSortedInput());
+        setExternalSort(cmd.isExternalSort());
+        if (cmd.getMemoryBudget() > 0)
+            setMemoryBudget(cmd.getMemoryBudget());
+        setTempDir(cmd.getTempDir());
+        setThreads(cmd.getThreads());
+        setCompactIds(cmd.isCompactIds());
+        setOffHeap(cmd.getOffHeap());
+        cmd.getColumnTypes().forEach(this::setColumnType);
+        setInferTypes(cmd.isInferTypes());
+        setIncludeColumns(cmd.getIncludeColumns());
+        setExcludeColumns(cmd.getExcludeColumns());
+        setEstimate(cmd.isEstimate());
+        setCheck(cmd.isCheck());
+        if (!cmd.getFilters().isEmpty())
+            setRowFilter(new RowFilter(cmd.getFilters()));
+        if (cmd.isCache())
+            setSnapshotCache(new SnapshotCache(cmd.getCacheDir()));
+        if (cmd.getStatsFile() != null)
+            setStatsWriter(new FileWriter(cmd.getStatsFile()));
     }
 
     /**
@@ -137,7 +258,7 @@ public class Diff {
                 Consumer<String> stdOut,
                 Consumer<String> stdErr) throws IOException {
     	this();
-        this.idColumn = idColumn;
+        this.keyColumns = Collections.singletonList(idColumn);
         this.inputA = inputA;
         this.inputB = inputB;
         this.readerA = readerA;
@@ -151,6 +272,170 @@ public class Diff {
         this.stdErr = new LineWriter(stdErr);
     }
 
+    /**
+     * Match rows by the values of several columns instead of a single id column
+     * @param keyColumns The key column names in key order
+     */
+    public void setKeyColumns(List<String> keyColumns) {
+        this.keyColumns = Collections.unmodifiableList(new ArrayList<>(keyColumns));
+    }
+
+    /**
+     * Diff inputs that are already sorted by id in a single streaming pass
+     * instead of reading them into memory
+     * @param sortedInput true if both inputs are sorted by id
+     */
+    public void setSortedInput(boolean sortedInput) {
+        this.sortedInput = sortedInput;
+    }
+
+    /**
+     * Sort the inputs by id in bounded memory, spilling sorted runs to disk,
+     * and diff them in a single streaming pass
+     * @param externalSort true to sort the inputs on disk
+     */
+    public void setExternalSort(boolean externalSort) {
+        this.externalSort = externalSort;
+    }
+
+    /**
+     * @param memoryBudget Approximate heap in bytes for each sorted run
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @param tempDir Directory for temporary files or null for the system temp directory
+     */
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Match and compare the rows of in-memory diffs on a pool of threads
+     * @param threads Number of threads, 1 to diff on the calling thread
+     * or 0 for one thread per available processor
+     */
+    public void setThreads(int threads) {
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Load input files from binary snapshots when they have not changed since they were last parsed,
+     * saving new snapshots for files that are parsed.
+     * Only applies to in-memory diffs of input files.
+     * @param snapshotCache Where snapshots are kept or null to always parse
+     */
+    public void setSnapshotCache(SnapshotCache snapshotCache) {
+        this.snapshotCache = snapshotCache;
+    }
+
+    /**
+     * Hold the ids of in-memory diffs in front coded sorted indexes, which take far less memory
+     * for ids with long shared prefixes at the cost of a binary search per lookup
+     * @param compactIds true to compact the ids
+     */
+    public void setCompactIds(boolean compactIds) {
+        this.compactIds = compactIds;
+    }
+
+    /**
+     * Keep the parsed data and id indexes of in-memory diffs outside the heap, so that large data sets
+     * do not lengthen garbage collections. The memory is allocated as it is needed, up to the given size,
+     * and freed when the diff finishes; data that does not fit stays on the heap.
+     * The JVM must allow that much direct memory (-XX:MaxDirectMemorySize).
+     * @param offHeap Bytes of memory outside the heap or 0 to keep everything on the heap
+     */
+    public void setOffHeap(long offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Compare the cells of a column with a comparator instead of as text.
+     * The cells of in-memory diffs are parsed once after the inputs are read.
+     * @param column The column name
+     * @param comparator The comparator of the column
+     */
+    public void setColumnType(String column, ColumnComparator comparator) {
+        columnTypes.put(column, comparator);
+    }
+
+    /**
+     * Pick the comparator of each compared column not given one with setColumnType
+     * from a sample of its cells in both inputs. Only applies to in-memory diffs.
+     * @param inferTypes true to compare columns of numbers or dates as numbers or dates
+     */
+    public void setInferTypes(boolean inferTypes) {
+        this.inferTypes = inferTypes;
+    }
+
+    /**
+     * Compare only some of the columns. The other columns are skipped as the inputs are parsed,
+     * so they take no memory. The key columns are always compared.
+     * @param includeColumns The columns to compare or null to compare every column
+     */
+    public void setIncludeColumns(List<String> includeColumns) {
+        this.includeColumns = includeColumns;
+    }
+
+    /**
+     * Leave columns out of the comparison. They are skipped as the inputs are parsed,
+     * so they take no memory. Key columns cannot be left out.
+     * @param excludeColumns The columns not to compare
+     */
+    public void setExcludeColumns(List<String> excludeColumns) {
+        this.excludeColumns = excludeColumns;
+    }
+
+    /**
+     * Compare only the rows of both inputs that meet some conditions, such as one region or a range of ids.
+     * The conditions are tested as the inputs are parsed, so the other rows take no memory
+     * and are not reported as missing.
+     * @param rowFilter The conditions or null to compare every row
+     */
+    public void setRowFilter(RowFilter rowFilter) {
+        this.rowFilter = rowFilter;
+    }
+
+    /**
+     * Estimate the rows missing from each input and the rows changed in a single pass over both inputs,
+     * holding only fixed size sketches of them, instead of diffing them. The estimate is written to
+     * the output as CSV and reported with its 95% error bounds. Inputs of up to about 65,000 rows are
+     * compared exactly. Cells are compared as text.
+     * @param estimate true to estimate the differences
+     */
+    public void setEstimate(boolean estimate) {
+        this.estimate = estimate;
+    }
+
+    /**
+     * Only find out whether the inputs have the same rows, stopping at the first difference,
+     * instead of diffing them. Input files with the same bytes are not parsed. Nothing is written
+     * to the output; a one line summary is written and the outcome is found with getCheckOutcome.
+     * Cells are compared as text.
+     * @param check true to check whether the inputs are identical
+     */
+    public void setCheck(boolean check) {
+        this.check = check;
+    }
+
+    /**
+     * @return The outcome of a check, null until a check is made
+     */
+    public IdenticalCheck.Outcome getCheckOutcome() {
+        return checkOutcome;
+    }
+
+    /**
+     * Write the time taken and the data handled by each phase of the diff as JSON
+     * once the diff is complete
+     * @param statsWriter Writer for the statistics, closed when they are written, or null
+     */
+    public void setStatsWriter(Writer statsWriter) {
+        this.statsWriter = statsWriter;
+    }
+
     /**
      * Reads the input files,
      * finds the differences and
@@ -158,97 +443,531 @@ public class Diff {
      * @throws IOException
      */
     public void makeDiff() throws IOException {
-        sheetA = new Sheet(idColumn);
-        sheetB = new Sheet(idColumn);
+        stats = new DiffStats();
+        try {
+            if (check)
+                makeCheck();
+            else if (estimate)
+                makeEstimate();
+            else if (sortedInput || externalSort)
+                makeSortedDiff();
+            else
+                makeInMemoryDiff();
 
+            if (differ != null) {
+                stats.count("rowsMatched", differ.getRowsMatched());
+                stats.count("rowsSameFingerprint", differ.getRowsSameFingerprint());
+                stats.count("cellsCompared", differ.getCellsCompared());
+                stats.count("cellsDiffering", differ.getCellsDiffering());
+            }
+            if (statsWriter != null)
+                stats.write(statsWriter);
+        } finally {
+            if (statsWriter != null)
+                statsWriter.close();
+        }
+    }
+
+    /**
+     * Reads both inputs into memory and diffs them,
+     * freeing any memory outside the heap once the Sheets are done with
+     * @throws IOException
+     */
+    private void makeInMemoryDiff() throws IOException {
+        OffHeapArena arena = offHeap > 0 ? new OffHeapArena(offHeap) : null;
         try {
-            sheetA.parse(readerA);
-        } catch (Exception e) {
-        	Messages.write(stdErr, "ParseCSVFail", inputA);
-            throw e;
+            diffInMemory(arena);
+        } finally {
+            sheetA = null;
+            sheetB = null;
+            if (arena != null) {
+                stats.count("offHeapBytes", arena.used());
+                arena.close();
+            }
         }
+    }
+
+    private void diffInMemory(OffHeapArena arena) throws IOException {
+        sheetA = new Sheet(keyColumns);
+        sheetB = new Sheet(keyColumns);
+        sheetA.setZeroMatchesNull(zeroMatchesNull);
+        sheetB.setZeroMatchesNull(zeroMatchesNull);
+        sheetA.setCompactIds(compactIds);
+        sheetB.setCompactIds(compactIds);
+        sheetA.setOffHeap(arena);
+        sheetB.setOffHeap(arena);
+        sheetB.shareDictionaries(sheetA);
+        sheetA.setColumns(includeColumns, excludeColumns);
+        sheetB.setColumns(includeColumns, excludeColumns);
+        sheetA.setFilter(rowFilter);
+        sheetB.setFilter(rowFilter);
+
+        DiffStats.Phase parsePhase = stats.start("parse");
         try {
-            sheetB.parse(readerB);
-        } catch (Exception e) {
-        	Messages.write(stdErr, "ParseCSVFail", inputB);
-            throw e;
+            if (fileA != null && fileB != null) {
+                parseFiles();
+                stats.count("bytesReadA", fileA.length());
+                stats.count("bytesReadB", fileB.length());
+            } else {
+                long[] charsRead = parseStreams();
+                stats.count("charsReadA", charsRead[0]);
+                stats.count("charsReadB", charsRead[1]);
+            }
+            stats.count("rowsReadA", sheetA.size());
+            stats.count("rowsReadB", sheetB.size());
+        } finally {
+            parsePhase.close();
         }
 
-        if (!getHeaders()) { // No common headers
-            return;
+        DiffStats.Phase headersPhase = stats.start("headers");
+        try {
+            Map<String, ColumnComparator> comparators = inferTypes ? inferTypes() : columnTypes;
+            if (!getHeaders(sheetA.getHeaders(), sheetB.getHeaders(), comparators)) { // No common headers
+                return;
+            }
+
+            printMissingColumns(inputA, headersMissingA);
+            printMissingColumns(inputB, headersMissingB);
+
+            // Parse typed cells once rather than at every comparison
+            for (Map.Entry<String, ColumnComparator> type: comparators.entrySet()) {
+                if (!keyColumns.contains(type.getKey())) {
+                    sheetA.typeColumn(type.getKey(), type.getValue());
+                    sheetB.typeColumn(type.getKey(), type.getValue());
+                }
+            }
+        } finally {
+            headersPhase.close();
         }
-        
-        printMissingColumns(inputA, headersMissingA);
-        printMissingColumns(inputB, headersMissingB);
 
         // Find all records from A that have records (by key) in B
         // Map the CSVRecord to get the diff string if cells in the record don't match,
         // or an empty string if we are not displaying matching values,
         // or the matching values if we are displaying them.
-        // Add rows to a new sheet
-        final Collector<Row, Sheet, Sheet> c = new SheetCollector(idColumn);
-        Sheet sheetDiff = sheetA
-                        .getRows()
-                        .stream()
-                        .filter(r -> sheetB.contains(r.getId()))
-                        .map(r -> getDiff(r, sheetB.getRow(r.getId()), displayMatchingData))
-                        .filter(r -> displayMatchingData || !r.isEmpty())
-                        .collect(c);
-
-        if (sheetDiff.getRows().size() == 0) {
-        	Messages.write(stdOut, "NoMatchingRecords");
-            return;
-        }
+        // Write each diff row as it is found
+        try (DiffWriter diffWriter = new DiffWriter(writer, headers, tempDir)) {
+            // Missing columns mean the output is always written
+            if (!headersMissingA.isEmpty() || !headersMissingB.isEmpty())
+                diffWriter.commit();
 
-        List<Row> recordsMissingA = getMissingRecords(sheetA, sheetB);
-        List<Row> recordsMissingB = getMissingRecords(sheetB, sheetA);
+            ParallelDiff.Listener diffs = r -> {
+                if (differ.hasDiff())
+                    diffWriter.commit();
+                diffWriter.write(r);
+            };
+            List<Row> recordsMissingA;
+            List<Row> recordsMissingB;
+            DiffStats.Phase diffPhase = stats.start("diff");
+            try {
+                if (threads > 1) {
+                    ParallelDiff parallel = new ParallelDiff(sheetA, sheetB, differ, threads, stats.threadFactory());
+                    runParallel(parallel, diffs);
+                    recordsMissingA = parallel.getRecordsMissingA();
+                    recordsMissingB = parallel.getRecordsMissingB();
+                } else {
+                    for (Row r: sheetA.getRows()) {
+                        Row other = sheetB.getRow(r.getKey());
+                        if (other != null) {
+                            Row diff = differ.getDiff(r, other, displayMatchingData);
+                            if (displayMatchingData || !diff.isEmpty())
+                                diffs.diff(diff);
+                        }
+                    }
+                    recordsMissingA = null;
+                    recordsMissingB = null;
+                }
+            } finally {
+                diffPhase.close();
+            }
 
-        printMissingRecords(inputA, recordsMissingA);
-        printMissingRecords(inputB, recordsMissingB);
+            if (differ.getRowsMatched() == 0) {
+                Messages.write(stdOut, "NoMatchingRecords");
+                return;
+            }
 
-        if (!hasDiff) {
-        	Messages.write(stdOut, "CommonRecordsIdentical");
-            if (recordsMissingA.isEmpty() && recordsMissingB.isEmpty()) {
-            	Messages.write(stdOut, "SameRecords");
-                if (headersMissingA.isEmpty() && headersMissingB.isEmpty()) {
-                	Messages.write(stdOut, "SameHeaders");
-                	Messages.write(stdOut, "IdenticalFile");
+            DiffStats.Phase missingPhase = stats.start("missing");
+            try {
+                if (recordsMissingA == null) {
+                    recordsMissingA = getMissingRecords(sheetA, sheetB);
+                    recordsMissingB = getMissingRecords(sheetB, sheetA);
+                }
+                sortById(recordsMissingA);
+                sortById(recordsMissingB);
+
+                printMissingRecords(inputA, recordsMissingA);
+                printMissingRecords(inputB, recordsMissingB);
+                stats.count("rowsMissingA", recordsMissingA.size());
+                stats.count("rowsMissingB", recordsMissingB.size());
+
+                if (isIdentical(recordsMissingA.isEmpty() && recordsMissingB.isEmpty())) {
                     return;
                 }
+            } finally {
+                missingPhase.close();
+            }
+
+            DiffStats.Phase writePhase = stats.start("write");
+            try {
+                diffWriter.commit();
+                if (displayMissingRows) {
+                    writeMissingRecords(diffWriter, RECORD_DIFF_MARKER_A, DIFF_MARKER_A, recordsMissingA);
+                    writeMissingRecords(diffWriter, RECORD_DIFF_MARKER_B, DIFF_MARKER_B, recordsMissingB);
+                }
+                stats.count("rowsWritten", diffWriter.getRowCount());
+            } finally {
+                writePhase.close();
+            }
+        }
+        Messages.write(stdOut, "WroteDiffs", output);
+    }
+
+    /*
+     * @return The number of characters read
+     */
+    private long parse(Sheet sheet, Reader reader, String input, ExecutorService pool) throws IOException {
+        try {
+            CountingReader counted = new CountingReader(reader);
+            sheet.parse(counted, pool);
+            return counted.count;
+        } catch (Exception e) {
+            if (!isStopped(e))
+            	Messages.write(stdErr, "ParseCSVFail", input);
+            throw e;
+        }
+    }
+
+    private void parse(Sheet sheet, File file, String input, ExecutorService pool) throws IOException {
+        try {
+            if (snapshotCache != null)
+                snapshotCache.parse(sheet, file, pool);
+            else
+                sheet.parse(file, pool);
+        } catch (Exception e) {
+            if (!isStopped(e))
+            	Messages.write(stdErr, "ParseCSVFail", input);
+            throw e;
+        }
+    }
+
+    /*
+     * Whether a parse failed only because it was stopped when the other input failed to parse,
+     * so that only the input that did fail is reported
+     */
+    private static boolean isStopped(Exception e) {
+        return e instanceof InterruptedIOException || e instanceof ClosedByInterruptException
+                || e instanceof CancellationException || e instanceof RejectedExecutionException
+                || e.getCause() instanceof InterruptedException || Thread.currentThread().isInterrupted();
+    }
+
+    /*
+     * Stop a parse still running after the other input failed and wait for it,
+     * so it neither reports itself nor goes on using the pool
+     */
+    private static void stop(ExecutorService parses, ExecutorService pool) {
+        parses.shutdownNow();
+        pool.shutdownNow();
+        try {
+            parses.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /*
+     * Memory map both input files and parse them at the same time,
+     * tokenizing chunks of each file on a shared pool of threads
+     */
+    private void parseFiles() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, stats.threadFactory());
+        ExecutorService files = Executors.newFixedThreadPool(2, stats.threadFactory());
+        try {
+            Future<Void> parseA = files.submit(() -> {
+                parse(sheetA, fileA, inputA, pool);
+                return null;
+            });
+            Future<Void> parseB = files.submit(() -> {
+                parse(sheetB, fileB, inputB, pool);
+                return null;
+            });
+            await(parseA);
+            await(parseB);
+        } finally {
+            stop(files, pool);
+        }
+    }
+
+    /*
+     * Read both inputs as streams and parse them at the same time,
+     * tokenizing chunks of each on a shared pool of threads as they are read
+     * @return The number of characters read from each input
+     */
+    private long[] parseStreams() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, stats.threadFactory());
+        ExecutorService streams = Executors.newFixedThreadPool(2, stats.threadFactory());
+        try {
+            Future<Long> parseA = streams.submit(() -> parse(sheetA, readerA, inputA, pool));
+            Future<Long> parseB = streams.submit(() -> parse(sheetB, readerB, inputB, pool));
+            return new long[] {await(parseA), await(parseB)};
+        } finally {
+            stop(streams, pool);
+        }
+    }
+
+    /*
+     * Wait for a task, rethrowing its failure
+     */
+    private static <T> T await(Future<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Compares the bytes of input files and then the rows of the inputs,
+     * stopping at the first difference, and writes a one line summary
+     * @throws IOException
+     */
+    private void makeCheck() throws IOException {
+        DiffStats.Phase checkPhase = stats.start("check");
+        try {
+            if (fileA != null && fileB != null && IdenticalCheck.sameBytes(fileA, fileB)) {
+                checkOutcome = IdenticalCheck.Outcome.SAME_BYTES;
+            } else {
+                try (Reader textA = open(readerA, fileA);
+                     Reader textB = open(readerB, fileB);
+                     RowSource sourceA = openStream(textA, inputA);
+                     RowSource sourceB = openStream(textB, inputB)) {
+                    checkOutcome = IdenticalCheck.sameRows(sourceA, sourceB, keyColumns, zeroMatchesNull);
+                }
             }
+        } finally {
+            checkPhase.close();
+        }
+        switch (checkOutcome) {
+            case SAME_BYTES:
+                Messages.write(stdOut, "CheckSameBytes", inputA, inputB);
+                break;
+            case SAME_ROWS:
+                Messages.write(stdOut, "CheckSameRows", inputA, inputB);
+                break;
+            case DIFFERENT_COLUMNS:
+                Messages.write(stdOut, "CheckDifferentColumns", inputA, inputB);
+                break;
+            default:
+                Messages.write(stdOut, "CheckDifferentRows", inputA, inputB);
+                break;
         }
+    }
 
-        if (displayMissingRows) {
-            addMissingRecords(sheetDiff, recordsMissingA, recordsMissingB);
+    /**
+     * Streams both inputs once into sketches and reports the estimated differences
+     * @throws IOException
+     */
+    private void makeEstimate() throws IOException {
+        DiffEstimate result;
+        DiffStats.Phase estimatePhase = stats.start("estimate");
+        try (CountingReader countedA = new CountingReader(open(readerA, fileA));
+             CountingReader countedB = new CountingReader(open(readerB, fileB));
+             RowSource sourceA = openStream(countedA, inputA);
+             RowSource sourceB = openStream(countedB, inputB)) {
+            result = DiffEstimate.estimate(sourceA, sourceB, keyColumns, zeroMatchesNull);
+            countRead(countedA, countedB, new long[] {result.getRowsReadA(), result.getRowsReadB()});
+        } finally {
+            estimatePhase.close();
         }
+        stats.count("rowsEstimatedA", result.getRowsA().getValue());
+        stats.count("rowsEstimatedB", result.getRowsB().getValue());
 
-        sheetDiff.write(writer);
+        Messages.write(stdOut, "EstimateRows", inputA, result.getRowsA());
+        Messages.write(stdOut, "EstimateRows", inputB, result.getRowsB());
+        Messages.write(stdOut, "EstimateMissing", inputA, result.getMissingA());
+        Messages.write(stdOut, "EstimateMissing", inputB, result.getMissingB());
+        Messages.write(stdOut, "EstimateChanged", result.getChanged());
+        try (CSVWriter csv = new CSVWriter(writer, ',')) {
+            csv.writeNext(new String[] {"estimate", "value", "error"}, false);
+            write(csv, "rowsA", result.getRowsA());
+            write(csv, "rowsB", result.getRowsB());
+            write(csv, "missingA", result.getMissingA());
+            write(csv, "missingB", result.getMissingB());
+            write(csv, "changed", result.getChanged());
+        }
         Messages.write(stdOut, "WroteDiffs", output);
     }
 
+    private static void write(CSVWriter csv, String name, DiffEstimate.Count count) {
+        csv.writeNext(new String[] {name, Long.toString(count.getValue()), Long.toString(count.getError())}, false);
+    }
+
+    /*
+     * The reader of an input, or else its file decoded as UTF-8 as the in-memory diff decodes it
+     */
+    private static Reader open(Reader reader, File file) throws IOException {
+        return reader != null ? reader : new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Open an input for a single pass in file order
+     */
+    private RowSource openStream(Reader reader, String input) throws IOException {
+        try {
+            return new RowReader(reader, null, keyColumns, includeColumns, excludeColumns, rowFilter);
+        } catch (Exception e) {
+            Messages.write(stdErr, "ParseCSVFail", input);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads both inputs in id order, writing each diff row as it is found.
+     * Inputs that are not already sorted are first sorted on disk.
+     * Records missing from either input are held in temporary files
+     * until the common records have been written.
+     * @throws IOException
+     */
+    private void makeSortedDiff() throws IOException {
+        // Sorting on disk reads the whole of both inputs before the first row is returned
+        DiffStats.Phase openPhase = stats.start(externalSort ? "sort" : "open");
+        try (CountingReader countedA = new CountingReader(open(readerA, fileA));
+             CountingReader countedB = new CountingReader(open(readerB, fileB));
+             RowSource sourceA = openSorted(countedA, inputA);
+             RowSource sourceB = openSorted(countedB, inputB)) {
+            openPhase.close();
+            DiffStats.Phase headersPhase = stats.start("headers");
+            try {
+                if (!getHeaders(sourceA.getHeaders(), sourceB.getHeaders(), columnTypes)) { // No common headers
+                    return;
+                }
+
+                printMissingColumns(inputA, headersMissingA);
+                printMissingColumns(inputB, headersMissingB);
+            } finally {
+                headersPhase.close();
+            }
+
+            try (DiffWriter diffWriter = new DiffWriter(writer, headers, tempDir);
+                 TempCsv recordsMissingA = new TempCsv(tempDir, headers);
+                 TempCsv recordsMissingB = new TempCsv(tempDir, headers)) {
+                // Missing columns mean the output is always written
+                if (!headersMissingA.isEmpty() || !headersMissingB.isEmpty())
+                    diffWriter.commit();
+
+                final long[] rowsRead = new long[2];
+                DiffStats.Phase diffPhase = stats.start("diff");
+                try {
+                    new MergeJoin(inputA, inputB).join(sourceA, sourceB, new MergeJoin.Listener() {
+                        @Override
+                        public void matched(Row a, Row b) throws IOException {
+                            rowsRead[0]++;
+                            rowsRead[1]++;
+                            Row r = differ.getDiff(a, b, displayMatchingData);
+                            if (displayMatchingData || !r.isEmpty()) {
+                                if (differ.hasDiff())
+                                    diffWriter.commit();
+                                diffWriter.write(r);
+                            }
+                        }
+
+                        @Override
+                        public void onlyInA(Row a) {
+                            rowsRead[0]++;
+                            recordsMissingB.write(differ.getDiff(a, a, true));
+                        }
+
+                        @Override
+                        public void onlyInB(Row b) {
+                            rowsRead[1]++;
+                            recordsMissingA.write(differ.getDiff(b, b, true));
+                        }
+                    });
+                } catch (IllegalArgumentException e) {
+                    stdErr.accept(e.getMessage());
+                    throw e;
+                } finally {
+                    diffPhase.close();
+                }
+                countRead(countedA, countedB, rowsRead);
+
+                if (differ.getRowsMatched() == 0) {
+                    Messages.write(stdOut, "NoMatchingRecords");
+                    return;
+                }
+
+                DiffStats.Phase missingPhase = stats.start("missing");
+                try {
+                    printMissingRecords(inputA, recordsMissingA);
+                    printMissingRecords(inputB, recordsMissingB);
+                    stats.count("rowsMissingA", recordsMissingA.getRowCount());
+                    stats.count("rowsMissingB", recordsMissingB.getRowCount());
+
+                    if (isIdentical(recordsMissingA.getRowCount() == 0 && recordsMissingB.getRowCount() == 0)) {
+                        return;
+                    }
+                } finally {
+                    missingPhase.close();
+                }
+
+                DiffStats.Phase writePhase = stats.start("write");
+                try {
+                    diffWriter.commit();
+                    if (displayMissingRows) {
+                        writeMissingRecords(diffWriter, RECORD_DIFF_MARKER_A, DIFF_MARKER_A, recordsMissingA);
+                        writeMissingRecords(diffWriter, RECORD_DIFF_MARKER_B, DIFF_MARKER_B, recordsMissingB);
+                    }
+                    stats.count("rowsWritten", diffWriter.getRowCount());
+                } finally {
+                    writePhase.close();
+                }
+            }
+            Messages.write(stdOut, "WroteDiffs", output);
+        } finally {
+            // Ends the phase if an input could not be opened
+            openPhase.close();
+        }
+    }
+
+    private void countRead(CountingReader countedA, CountingReader countedB, long[] rowsRead) {
+        stats.count("rowsReadA", rowsRead[0]);
+        stats.count("rowsReadB", rowsRead[1]);
+        if (fileA != null && readerA == null)
+            stats.count("bytesReadA", fileA.length());
+        else
+            stats.count("charsReadA", countedA.count);
+        if (fileB != null && readerB == null)
+            stats.count("bytesReadB", fileB.length());
+        else
+            stats.count("charsReadB", countedB.count);
+    }
+
+    private RowSource openSorted(Reader reader, String input) throws IOException {
+        try {
+            RowSource source = new RowReader(reader, null, keyColumns, includeColumns, excludeColumns, rowFilter);
+            if (externalSort)
+                source = new ExternalSorter(keyColumns, memoryBudget, tempDir).sort(source);
+            return source;
+        } catch (Exception e) {
+            Messages.write(stdErr, "ParseCSVFail", input);
+            throw e;
+        }
+    }
+
     /*
      * Gets headers common to both input sets and
      * the headers missing between each set.
      */
-    private boolean getHeaders() {
-        headers = sheetA
-                        .getHeaders()
-                        .stream()
-                        .filter(h -> sheetB.getHeaders().contains(h))
-                        .sorted((h1, h2) -> h1.compareTo(h2))
-                        .collect(Collectors.toList());
-
-        headersMissingB = sheetA
-                        .getHeaders()
-                        .stream()
-                        .filter(h -> !headers.contains(h))
-                        .collect(Collectors.toList());
-
-        headersMissingA = sheetB
-                        .getHeaders()
-                        .stream()
-                        .filter(h -> !headers.contains(h))
-                        .collect(Collectors.toList());
+    private boolean getHeaders(Collection<String> headersA, Collection<String> headersB, Map<String, ColumnComparator> comparators) {
+        differ = new RowDiffer(keyColumns, headersA, headersB, comparators, zeroMatchesNull);
+        headers = differ.getHeaders();
+        headersMissingA = differ.getHeadersMissingA();
+        headersMissingB = differ.getHeadersMissingB();
 
         if (headers.isEmpty()) {
         	Messages.write(stdOut, "NoMatchingCols");
@@ -258,6 +977,43 @@ public class Diff {
         return true;
     }
 
+    /*
+     * The comparators of the columns of both Sheets, given or picked from a sample of their cells
+     */
+    private Map<String, ColumnComparator> inferTypes() {
+        Map<String, ColumnComparator> comparators = new LinkedHashMap<>(columnTypes);
+        Set<String> headersB = new HashSet<>(sheetB.getHeaders());
+        for (String column: sheetA.getHeaders()) {
+            if (!headersB.contains(column) || keyColumns.contains(column) || comparators.containsKey(column))
+                continue;
+            List<String> sample = new ArrayList<>(sheetA.sample(column, TYPE_SAMPLE));
+            sample.addAll(sheetB.sample(column, TYPE_SAMPLE));
+            ColumnComparator comparator = ColumnComparator.infer(sample);
+            if (comparator != ColumnComparator.TEXT)
+                comparators.put(column, comparator);
+        }
+        return comparators;
+    }
+
+    /*
+     * Report whether the files are identical
+     * @return true if the files are identical and there is nothing to write
+     */
+    private boolean isIdentical(boolean sameRecords) {
+        if (!differ.hasDiff()) {
+        	Messages.write(stdOut, "CommonRecordsIdentical");
+            if (sameRecords) {
+            	Messages.write(stdOut, "SameRecords");
+                if (headersMissingA.isEmpty() && headersMissingB.isEmpty()) {
+                	Messages.write(stdOut, "SameHeader");
+                	Messages.write(stdOut, "IdenticalFiles");
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /*
      * Get a list of the headers missing between A and B with markers in the text
      */
@@ -283,13 +1039,32 @@ public class Diff {
         stdOut.accept("<end>");
     }
 
+    private void runParallel(ParallelDiff parallel, ParallelDiff.Listener diffs) throws IOException {
+        try {
+            parallel.run(displayMatchingData, diffs);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private List<Row> sortById(List<Row> rows) {
+        rows.sort((r1, r2) -> r1.getKey().compareTo(r2.getKey()));
+        return rows;
+    }
+
+    /*
+     * The rows of checkAgainst whose ids are missing from missingFrom
+     */
     private List<Row> getMissingRecords(final Sheet missingFrom, Sheet checkAgainst) {
         return checkAgainst
             .getRows()
             .stream()
-            .filter(r -> !missingFrom.contains(r.getId()))
-            .sorted((r1, r2) -> r1.getId().compareTo(r2.getId()))
-            .map(r -> getDiff(r, r, true))
+            .filter(r -> !missingFrom.contains(r.getKey()))
             .collect(Collectors.toList());
     }
 
@@ -303,54 +1078,69 @@ public class Diff {
         stdOut.accept("<end>");
     }
 
-    private void addMissingRecords(final Sheet sheetDiff, List<Row> recordsMissingA, List<Row> recordsMissingB) {
-        if (!recordsMissingA.isEmpty()) {
-            sheetDiff.addRow(new Row(new String[]{RECORD_DIFF_MARKER_A}, new String[]{idColumn}, idColumn));
-            recordsMissingA
-                     .stream()
-                     .forEach(r -> sheetDiff.addRow(new Row(r, DIFF_MARKER_A + r.getId())));
+    private void printMissingRecords(String input, TempCsv recordsMissing) throws IOException {
+        stdOut.accept(Messages.getMessage("RecordsNotFound", input));
+        // Records are held in id order
+        try (RowReader reader = recordsMissing.read(keyColumns)) {
+            Row r;
+            while ((r = reader.next()) != null)
+                stdOut.accept(r.getId());
         }
+        stdOut.accept("<end>");
+    }
 
-        if (!recordsMissingB.isEmpty()) {
-            sheetDiff.addRow(new Row(new String[]{RECORD_DIFF_MARKER_B}, new String[]{idColumn}, idColumn));
-            recordsMissingB
-                     .stream()
-                     .forEach(r -> sheetDiff.addRow(new Row(r, DIFF_MARKER_B + r.getId())));
+    private void writeMissingRecords(DiffWriter diffWriter, String recordMarker, String marker, TempCsv recordsMissing) throws IOException {
+        if (recordsMissing.getRowCount() == 0)
+            return;
+
+        diffWriter.write(markerRow(recordMarker));
+        try (RowReader reader = recordsMissing.read(keyColumns)) {
+            Row r;
+            while ((r = reader.next()) != null)
+                diffWriter.write(new Row(r, marker + r.getValue(keyColumns.get(0))));
         }
     }
 
-    private Row getDiff(final Row r1, final Row r2, final boolean showIdentical) {
-    	// Create a new Row with the diff values, headers and idColumn
-        return new Row(headers
-                .stream()
-                .map(h -> {
-                    if (h.equals(idColumn)) // Id column must match
-                        return r1.getId();
-
-                    String h1 = r1.getValue(h);
-                    String h2 = r2.getValue(h);
-                    
-                    // Handle identical case
-                    if (h1.equals(h2))
-                        return showIdentical ? h1 : "";
-                    else if (zeroMatchesNull && "0".equals(h1 + h2))
-                        return showIdentical ? "0" : "";
-
-                    // Cells differ
-                    String diff = "";
-                    if (!h1.isEmpty())
-                        diff = r1.getValue(h) + DIFF_MARKER_A;
-                    if (!h2.isEmpty())
-                        diff = diff.concat(DIFF_MARKER_B + r2.getValue(h));
-                    if (!diff.isEmpty())
-                        hasDiff = true;
-                    return diff;
-                })
-                // To correlate with headers we must 
-                // collect all cells, including empty "" ones
-                .collect(Collectors.toList()),
-            headers,
-            idColumn);
+    private void writeMissingRecords(DiffWriter diffWriter, String recordMarker, String marker, List<Row> recordsMissing) throws IOException {
+        if (recordsMissing.isEmpty())
+            return;
+
+        diffWriter.write(markerRow(recordMarker));
+        for (Row r: recordsMissing)
+            diffWriter.write(new Row(differ.getDiff(r, r, true), marker + r.getValue(keyColumns.get(0))));
+    }
+
+    /*
+     * The Row heading the missing records, with the marker in the first key column
+     */
+    private Row markerRow(String recordMarker) {
+        return new Row(Collections.singletonList(recordMarker), keyColumns, keyColumns);
     }
 
+    /*
+     * Counts the characters read through it
+     */
+    private static class CountingReader extends FilterReader {
+        private long count;
+
+        CountingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0)
+                count++;
+            return c;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = super.read(cbuf, off, len);
+            if (n > 0)
+                count += n;
+            return n;
+        }
+    }
 }
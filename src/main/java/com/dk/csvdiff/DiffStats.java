@@ -0,0 +1,178 @@
+package com.dk.csvdiff;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Times the phases of a diff and counts the data passing through them.
+ * Each phase records its wall time and an estimate of the bytes allocated
+ * by all threads while it ran, and is committed as a JFR event where
+ * flight recording is available so phases can be lined up with GC activity.
+ * The allocation estimate covers the threads made by threadFactory()
+ * after they end, and every other thread while it is alive.
+ *
+ * @author darrenkennedy
+ */
+class DiffStats {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATION = allocationSupported();
+
+    private final long created = System.nanoTime();
+    private final List<Phase> phases = new ArrayList<>();
+    private final Map<String, AtomicLong> counters = new LinkedHashMap<>();
+    // Allocated by threads from threadFactory() that have ended
+    private final LongAdder retired = new LongAdder();
+
+    /**
+     * A phase of the diff, ended by close(). Closing it again does nothing.
+     */
+    class Phase implements AutoCloseable {
+        private final String name;
+        private final long start;
+        private final Map<Long, Long> allocatedAtStart;
+        private final long retiredAtStart;
+        private final Object event;
+        private long nanos = -1;
+        private long allocated = -1;
+
+        private Phase(String name) {
+            this.name = name;
+            this.allocatedAtStart = ALLOCATION ? allocatedByThread() : null;
+            this.retiredAtStart = retired.sum();
+            this.event = PhaseEvents.begin(name);
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (nanos >= 0)
+                return;
+            nanos = System.nanoTime() - start;
+            if (allocatedAtStart != null) {
+                allocated = retired.sum() - retiredAtStart;
+                for (Map.Entry<Long, Long> e: allocatedByThread().entrySet())
+                    allocated += e.getValue() - allocatedAtStart.getOrDefault(e.getKey(), 0L);
+            }
+            PhaseEvents.commit(event, allocated);
+        }
+    }
+
+    /**
+     * Start timing a phase
+     * @param name The phase name
+     * @return The phase, to be closed when it ends
+     */
+    synchronized Phase start(String name) {
+        Phase phase = new Phase(name);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * Add to a counter, creating it at zero
+     * @param name The counter name
+     * @param n The amount to add
+     */
+    void count(String name, long n) {
+        AtomicLong counter;
+        synchronized (counters) {
+            counter = counters.computeIfAbsent(name, k -> new AtomicLong());
+        }
+        counter.addAndGet(n);
+    }
+
+    /**
+     * @param name The counter name
+     * @return The value of the counter, 0 if nothing has been counted
+     */
+    long get(String name) {
+        synchronized (counters) {
+            AtomicLong counter = counters.get(name);
+            return counter == null ? 0 : counter.get();
+        }
+    }
+
+    /**
+     * Threads that add what they allocated to the estimate when they end
+     * @return A factory for pool threads
+     */
+    ThreadFactory threadFactory() {
+        ThreadFactory threads = Executors.defaultThreadFactory();
+        return r -> threads.newThread(() -> {
+            try {
+                r.run();
+            } finally {
+                if (ALLOCATION)
+                    retired.add(allocated(Thread.currentThread().getId()));
+            }
+        });
+    }
+
+    /**
+     * Write the phases and counters as a JSON object
+     * @param out Where the JSON is written
+     * @throws IOException
+     */
+    synchronized void write(Writer out) throws IOException {
+        StringBuilder json = new StringBuilder("{\n  \"phases\": [");
+        long allocated = ALLOCATION ? 0 : -1;
+        for (int i = 0; i < phases.size(); i++) {
+            Phase p = phases.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                .append("    {\"name\": \"").append(p.name)
+                .append("\", \"millis\": ").append(TimeUnit.NANOSECONDS.toMillis(p.nanos))
+                .append(", \"allocatedBytes\": ").append(p.allocated).append("}");
+            if (allocated >= 0 && p.allocated >= 0)
+                allocated += p.allocated;
+        }
+        json.append("\n  ],\n  \"totalMillis\": ").append(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - created))
+            .append(",\n  \"allocatedBytes\": ").append(allocated)
+            .append(",\n  \"counters\": {");
+        synchronized (counters) {
+            String sep = "\n";
+            for (Map.Entry<String, AtomicLong> e: counters.entrySet()) {
+                json.append(sep).append("    \"").append(e.getKey()).append("\": ").append(e.getValue().get());
+                sep = ",\n";
+            }
+        }
+        json.append("\n  }\n}\n");
+        out.write(json.toString());
+        out.flush();
+    }
+
+    private static Map<Long, Long> allocatedByThread() {
+        long[] ids = THREADS.getAllThreadIds();
+        long[] bytes = ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0)
+                allocated.put(ids[i], bytes[i]);
+        }
+        return allocated;
+    }
+
+    private static long allocated(long threadId) {
+        return Math.max(0, ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(threadId));
+    }
+
+    private static boolean allocationSupported() {
+        try {
+            return THREADS instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREADS).isThreadAllocatedMemoryEnabled();
+        } catch (LinkageError | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+}
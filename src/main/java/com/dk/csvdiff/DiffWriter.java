@@ -0,0 +1,103 @@
+package com.dk.csvdiff;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+import com.dk.csvdiff.csv.Row;
+import com.dk.csvdiff.csv.TempCsv;
+import com.opencsv.CSVWriter;
+
+/**
+ * Streams diff Rows to the output CSV as they are produced.
+ * Until commit() is called the Rows are held in a temporary file
+ * so that they can still be discarded if the output is not needed.
+ *
+ * @author darrenkennedy
+ */
+class DiffWriter implements Closeable {
+    private Writer out;
+    private List<String> headers;
+    private File tempDir;
+    private CSVWriter writer;   // Writes straight to the output once committed
+    private TempCsv pending;    // Rows written before commit
+    private long rowCount;
+
+    /**
+     * @param out The output writer
+     * @param headers The output headers
+     * @param tempDir Directory for held Rows or null for the system temp directory
+     */
+    DiffWriter(Writer out, List<String> headers, File tempDir) {
+        this.out = out;
+        this.headers = headers;
+        this.tempDir = tempDir;
+        this.rowCount = 0;
+    }
+
+    /**
+     * Write a diff Row
+     * @param row The Row to write
+     * @throws IOException
+     */
+    void write(Row row) throws IOException {
+        if (writer != null) {
+            writer.writeNext(row.toArray(new String[0]), false);
+        } else {
+            if (pending == null)
+                pending = new TempCsv(tempDir, headers);
+            pending.write(row);
+        }
+        rowCount++;
+    }
+
+    /**
+     * Write the header line and any held Rows to the output
+     * and write all further Rows straight through a buffer
+     * @throws IOException
+     */
+    void commit() throws IOException {
+        if (writer != null)
+            return;
+
+        writer = new CSVWriter(new BufferedWriter(out, 1 << 16), ',');
+        writer.writeNext(headers.toArray(new String[0]), false);
+        if (pending != null) {
+            writer.flush();
+            pending.copyTo(out);
+            pending.close();
+            pending = null;
+        }
+    }
+
+    /**
+     * @return true once Rows are written straight to the output
+     */
+    boolean isCommitted() {
+        return writer != null;
+    }
+
+    /**
+     * @return The number of Rows written
+     */
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Close the output if it was committed and discard any held Rows
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (pending != null)
+                pending.close();
+        } finally {
+            if (writer != null)
+                writer.close();
+        }
+    }
+}
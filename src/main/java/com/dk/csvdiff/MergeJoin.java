@@ -0,0 +1,101 @@
+package com.dk.csvdiff;
+
+import java.io.IOException;
+
+import com.dk.csvdiff.csv.Key;
+import com.dk.csvdiff.csv.Row;
+import com.dk.csvdiff.csv.RowSource;
+import com.dk.csvdiff.i18n.Messages;
+
+/**
+ * Joins two sources of Rows that are sorted by id in a single pass,
+ * holding only the current Row from each source in memory.
+ * Where a source repeats an id the last Row for it is used, as for a Sheet.
+ *
+ * @author darrenkennedy
+ */
+class MergeJoin {
+    /**
+     * Receives the result of the join in id order
+     */
+    interface Listener {
+        void matched(Row a, Row b) throws IOException;
+        void onlyInA(Row a) throws IOException;
+        void onlyInB(Row b) throws IOException;
+    }
+
+    /*
+     * Reads distinct ids in order from a source
+     */
+    private static class SortedInput {
+        private RowSource source;
+        private String name;
+        private Row pending;
+        private Key previousKey;
+
+        SortedInput(RowSource source, String name) {
+            this.source = source;
+            this.name = name;
+        }
+
+        Row take() throws IOException {
+            Row row = pending != null ? pending : source.next();
+            pending = null;
+            if (row == null)
+                return null;
+
+            Row following;
+            while ((following = source.next()) != null && following.getKey().equals(row.getKey()))
+                row = following;
+            pending = following;
+
+            if (previousKey != null && row.getKey().compareTo(previousKey) <= 0) {
+                throw new IllegalArgumentException(Messages.getMessage("IdsNotSorted", name, row.getId(), previousKey.toString()));
+            }
+            previousKey = row.getKey();
+            return row;
+        }
+    }
+
+    private String nameA;
+    private String nameB;
+
+    /**
+     * @param nameA Name of data set A for error messages
+     * @param nameB Name of data set B for error messages
+     */
+    MergeJoin(String nameA, String nameB) {
+        this.nameA = nameA;
+        this.nameB = nameB;
+    }
+
+    /**
+     * Join the sources
+     * @param sourceA Rows of data set A in id order
+     * @param sourceB Rows of data set B in id order
+     * @param listener Receives matched and unmatched Rows
+     * @throws IOException
+     * @throws IllegalArgumentException if a source is not sorted by id
+     */
+    void join(RowSource sourceA, RowSource sourceB, Listener listener) throws IOException {
+        SortedInput inA = new SortedInput(sourceA, nameA);
+        SortedInput inB = new SortedInput(sourceB, nameB);
+
+        Row a = inA.take();
+        Row b = inB.take();
+        while (a != null || b != null) {
+            int c = a == null ? 1 : b == null ? -1 : a.getKey().compareTo(b.getKey());
+            if (c == 0) {
+                listener.matched(a, b);
+                a = inA.take();
+                b = inB.take();
+            } else if (c < 0) {
+                listener.onlyInA(a);
+                a = inA.take();
+            } else {
+                listener.onlyInB(b);
+                b = inB.take();
+            }
+        }
+    }
+}
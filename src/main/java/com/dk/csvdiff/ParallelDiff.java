@@ -0,0 +1,155 @@
+package com.dk.csvdiff;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.dk.csvdiff.csv.Row;
+import com.dk.csvdiff.csv.Sheet;
+
+/**
+ * Diffs two Sheets on a pool of worker threads.
+ * The rows of data set A are split into ranges that are matched through the
+ * id index of data set B and compared independently, and the diff Rows of each range are handed on in the order
+ * of data set A as soon as the ranges before it are done. Only a few ranges
+ * ahead of the slowest are held at once, so the diff Rows are never all in
+ * memory. The output is the same as a single-threaded diff.
+ *
+ * @author darrenkennedy
+ */
+class ParallelDiff {
+    // Rows in each range
+    private static final int RANGE_SIZE = 1024;
+    // Ranges in flight per thread, so a slow range does not hold up the pool
+    private static final int RANGES_PER_THREAD = 4;
+
+    /**
+     * Receives the diff Rows in the order of data set A
+     */
+    interface Listener {
+        void diff(Row row) throws IOException;
+    }
+
+    /*
+     * The results for one range of rows
+     */
+    private static class Range {
+        final List<Row> diffRows = new ArrayList<>();
+        final List<Row> missing = new ArrayList<>();
+    }
+
+    private Sheet sheetA;
+    private Sheet sheetB;
+    private RowDiffer differ;
+    private int threads;
+    private ThreadFactory threadFactory;
+
+    private List<Row> recordsMissingA;
+    private List<Row> recordsMissingB;
+
+    /**
+     * @param sheetA Data set A
+     * @param sheetB Data set B
+     * @param differ Compares matching Rows, shared by all threads
+     * @param threads Number of worker threads
+     * @param threadFactory Creates the worker threads
+     */
+    ParallelDiff(Sheet sheetA, Sheet sheetB, RowDiffer differ, int threads, ThreadFactory threadFactory) {
+        this.sheetA = sheetA;
+        this.sheetB = sheetB;
+        this.differ = differ;
+        this.threads = threads;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Diff every range of rows, handing on the diff Rows, and find the rows missing from each data set
+     * @param displayMatchingData show data for matching cells
+     * @param listener Receives the diff Rows on the calling thread
+     * @throws IOException if the listener fails
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    void run(final boolean displayMatchingData, Listener listener) throws IOException, InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, threadFactory);
+        try {
+            recordsMissingB = new ArrayList<>();
+            Deque<Future<Range>> inFlight = new ArrayDeque<>();
+            int next = 0;
+            while (next < sheetA.size() || !inFlight.isEmpty()) {
+                while (next < sheetA.size() && inFlight.size() < threads * RANGES_PER_THREAD) {
+                    final int from = next;
+                    final int to = Math.min(sheetA.size(), from + RANGE_SIZE);
+                    inFlight.add(pool.submit(() -> diffRange(from, to, displayMatchingData)));
+                    next = to;
+                }
+                Range range = inFlight.poll().get();
+                for (Row r: range.diffRows)
+                    listener.diff(r);
+                recordsMissingB.addAll(range.missing);
+            }
+
+            List<Future<Range>> missing = new ArrayList<>();
+            for (int start = 0; start < sheetB.size(); start += RANGE_SIZE) {
+                final int from = start;
+                final int to = Math.min(sheetB.size(), from + RANGE_SIZE);
+                missing.add(pool.submit(() -> missingRange(from, to)));
+            }
+            recordsMissingA = new ArrayList<>();
+            for (Future<Range> f: missing)
+                recordsMissingA.addAll(f.get().missing);
+        } finally {
+            // Wait for ranges still running after a failure, as the Sheets may be freed once this returns
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    /**
+     * @return The Rows of data set B that are missing from data set A
+     */
+    List<Row> getRecordsMissingA() {
+        return recordsMissingA;
+    }
+
+    /**
+     * @return The Rows of data set A that are missing from data set B
+     */
+    List<Row> getRecordsMissingB() {
+        return recordsMissingB;
+    }
+
+    private Range diffRange(int from, int to, boolean displayMatchingData) {
+        Range result = new Range();
+        for (int ordinal = from; ordinal < to; ordinal++) {
+            Row r = sheetA.getRowAt(ordinal);
+            Row other = sheetB.getRow(r.getKey());
+            if (other == null) {
+                result.missing.add(r);
+            } else {
+                Row diff = differ.getDiff(r, other, displayMatchingData);
+                if (displayMatchingData || !diff.isEmpty())
+                    result.diffRows.add(diff);
+            }
+        }
+        return result;
+    }
+
+    private Range missingRange(int from, int to) {
+        Range result = new Range();
+        for (int ordinal = from; ordinal < to; ordinal++) {
+            Row r = sheetB.getRowAt(ordinal);
+            if (!sheetA.contains(r.getKey()))
+                result.missing.add(r);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,109 @@
+package com.dk.csvdiff;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Begins and commits JFR events for the phases of a diff, doing nothing on JVMs without flight recording.
+ * The event type is made through jdk.jfr.EventFactory by reflection, so that the code still builds and runs
+ * on Java 8. Each event has the phase name and the estimated bytes allocated by all threads during the phase.
+ *
+ * @author darrenkennedy
+ */
+final class PhaseEvents {
+    private static final Events EVENTS = load();
+
+    private PhaseEvents() {
+    }
+
+    /**
+     * @param phase The phase name
+     * @return The begun event, or null
+     */
+    static Object begin(String phase) {
+        if (EVENTS == null)
+            return null;
+        try {
+            Object event = EVENTS.newEvent.invoke(EVENTS.factory);
+            if (!(Boolean) EVENTS.isEnabled.invoke(event))
+                return null;
+            EVENTS.set.invoke(event, 0, phase);
+            EVENTS.begin.invoke(event);
+            return event;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param event An event from begin()
+     * @param allocated The allocation estimate for the phase
+     */
+    static void commit(Object event, long allocated) {
+        if (event == null)
+            return;
+        try {
+            EVENTS.set.invoke(event, 1, allocated);
+            EVENTS.commit.invoke(event);
+        } catch (ReflectiveOperationException e) {
+            // The phase is still reported in the statistics
+        }
+    }
+
+    /*
+     * The event factory and the methods of its events, or null without flight recording
+     */
+    private static Events load() {
+        try {
+            return new Events();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private static final class Events {
+        final Object factory;
+        final Method newEvent;
+        final Method isEnabled;
+        final Method set;
+        final Method begin;
+        final Method commit;
+
+        Events() throws ReflectiveOperationException {
+            Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+            Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+            List<Object> eventAnnotations = Arrays.asList(
+                    annotation.newInstance(jfr("Name"), "com.dk.csvdiff.Phase"),
+                    annotation.newInstance(jfr("Label"), "CSV Diff Phase"),
+                    annotation.newInstance(jfr("Category"), new String[] {"CSV Diff"}),
+                    annotation.newInstance(jfr("Description"), "A phase of a CSV diff"));
+            List<Object> fields = Arrays.asList(
+                    field.newInstance(String.class, "phase", Arrays.asList(
+                            annotation.newInstance(jfr("Label"), "Phase"))),
+                    field.newInstance(long.class, "allocated", Arrays.asList(
+                            annotation.newInstance(jfr("Label"), "Allocated"),
+                            annotation.newInstance(jfr("DataAmount"), "BYTES"),
+                            annotation.newInstance(jfr("Description"),
+                                    "Estimated bytes allocated by all threads during the phase, -1 if not known"))));
+
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+            newEvent = eventFactory.getMethod("newEvent");
+            isEnabled = event.getMethod("isEnabled");
+            set = event.getMethod("set", int.class, Object.class);
+            begin = event.getMethod("begin");
+            commit = event.getMethod("commit");
+        }
+
+        private static Class<? extends Annotation> jfr(String annotation) throws ClassNotFoundException {
+            return Class.forName("jdk.jfr." + annotation).asSubclass(Annotation.class);
+        }
+    }
+}
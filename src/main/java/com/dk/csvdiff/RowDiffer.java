@@ -0,0 +1,244 @@
+package com.dk.csvdiff;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import com.dk.csvdiff.csv.ColumnAlignment;
+import com.dk.csvdiff.csv.ColumnComparator;
+import com.dk.csvdiff.csv.Row;
+
+/**
+ * Compares Rows from two data sets over the headers they have in common
+ * and builds the diff Row for each pair. The positions of the common headers
+ * in the Rows are worked out once, so cells are compared by position,
+ * each column with its own comparator.
+ * A RowDiffer may be shared by many threads.
+ *
+ * @author darrenkennedy
+ */
+public class RowDiffer {
+    private List<String> keyColumns;
+    private boolean zeroMatchesNull;
+    private List<String> headers;
+    private List<String> headersMissingA;
+    private List<String> headersMissingB;
+    private int comparedCells;     // Common headers other than the key columns
+    private ColumnAlignment alignment;
+    private boolean[] isKey;       // Whether each common header is a key column
+    // Only ever set to true so a volatile flag is enough to share it between threads
+    private volatile boolean hasDiff;
+    // Counted for the diff statistics
+    private final LongAdder rowsMatched = new LongAdder();
+    private final LongAdder rowsSameFingerprint = new LongAdder();
+    private final LongAdder cellsCompared = new LongAdder();
+    private final LongAdder cellsDiffering = new LongAdder();
+
+    /**
+     * Create a RowDiffer for two sets of headers
+     * @param idColumn Column name for the id column
+     * @param headersA Headers of data set A
+     * @param headersB Headers of data set B
+     * @param zeroMatchesNull true if '0' matches an empty cell
+     */
+    public RowDiffer(String idColumn, Collection<String> headersA, Collection<String> headersB, boolean zeroMatchesNull) {
+        this(Collections.singletonList(idColumn), headersA, headersB, zeroMatchesNull);
+    }
+
+    /**
+     * Create a RowDiffer for two sets of headers with a composite key
+     * @param keyColumns Column names of the key columns
+     * @param headersA Headers of data set A
+     * @param headersB Headers of data set B
+     * @param zeroMatchesNull true if '0' matches an empty cell
+     */
+    public RowDiffer(List<String> keyColumns, Collection<String> headersA, Collection<String> headersB, boolean zeroMatchesNull) {
+        this(keyColumns, headersA, headersB, Collections.emptyMap(), zeroMatchesNull);
+    }
+
+    /**
+     * Create a RowDiffer for two sets of headers with a composite key and typed columns
+     * @param keyColumns Column names of the key columns
+     * @param headersA Headers of data set A
+     * @param headersB Headers of data set B
+     * @param comparators Comparators of the columns not compared as text
+     * @param zeroMatchesNull true if zero matches an empty cell
+     */
+    public RowDiffer(List<String> keyColumns, Collection<String> headersA, Collection<String> headersB,
+            Map<String, ColumnComparator> comparators, boolean zeroMatchesNull) {
+        this.keyColumns = keyColumns;
+        this.zeroMatchesNull = zeroMatchesNull;
+        this.hasDiff = false;
+
+        Set<String> setA = new HashSet<>(headersA);
+        Set<String> setB = new HashSet<>(headersB);
+
+        headers = headersA
+                        .stream()
+                        .filter(h -> setB.contains(h))
+                        .sorted((h1, h2) -> h1.compareTo(h2))
+                        .collect(Collectors.toList());
+
+        headersMissingB = headersA
+                        .stream()
+                        .filter(h -> !setB.contains(h))
+                        .collect(Collectors.toList());
+
+        headersMissingA = headersB
+                        .stream()
+                        .filter(h -> !setA.contains(h))
+                        .collect(Collectors.toList());
+
+        // The plan: where each column is in both data sets and how its cells are compared
+        Set<String> keys = new HashSet<>(keyColumns);
+        isKey = new boolean[headers.size()];
+        ColumnComparator[] columnComparators = new ColumnComparator[headers.size()];
+        for (int c = 0; c < isKey.length; c++) {
+            isKey[c] = keys.contains(headers.get(c));
+            if (!isKey[c]) {
+                columnComparators[c] = comparators.get(headers.get(c));
+                comparedCells++;
+            }
+        }
+        alignment = new ColumnAlignment(headers, columnComparators, zeroMatchesNull);
+    }
+
+    /**
+     * @return The headers common to both data sets in sorted order
+     */
+    public List<String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return The headers in data set B that are missing from data set A
+     */
+    public List<String> getHeadersMissingA() {
+        return headersMissingA;
+    }
+
+    /**
+     * @return The headers in data set A that are missing from data set B
+     */
+    public List<String> getHeadersMissingB() {
+        return headersMissingB;
+    }
+
+    /**
+     * @return true if any cell compared so far has differed
+     */
+    public boolean hasDiff() {
+        return hasDiff;
+    }
+
+    /**
+     * @return The number of pairs of different Rows diffed so far
+     */
+    public long getRowsMatched() {
+        return rowsMatched.sum();
+    }
+
+    /**
+     * @return The number of matched pairs found identical by their fingerprints without comparing cells
+     */
+    public long getRowsSameFingerprint() {
+        return rowsSameFingerprint.sum();
+    }
+
+    /**
+     * @return The number of cells compared so far
+     */
+    public long getCellsCompared() {
+        return cellsCompared.sum();
+    }
+
+    /**
+     * @return The number of cells found to differ so far
+     */
+    public long getCellsDiffering() {
+        return cellsDiffering.sum();
+    }
+
+    /**
+     * Create a new Row with the diff values, headers and key columns
+     * @param r1 The Row from data set A
+     * @param r2 The Row from data set B with the same id
+     * @param showIdentical true to output the value of matching cells, false to leave them empty
+     * @return The diff Row
+     */
+    public Row getDiff(final Row r1, final Row r2, final boolean showIdentical) {
+        ColumnAlignment.Positions pos = alignment.positions(r1, r2);
+        // Rows with the same fingerprint over the common headers need no cell comparison
+        if (r1 == r2)
+            return getIdentical(pos, r1, r2, showIdentical);
+        rowsMatched.increment();
+        if (pos.sameContent(r1, r2, zeroMatchesNull)) {
+            rowsSameFingerprint.increment();
+            return getIdentical(pos, r1, r2, showIdentical);
+        }
+
+        cellsCompared.add(comparedCells);
+        int differing = 0;
+        // To correlate with headers we must
+        // collect all cells, including empty "" ones
+        String[] values = new String[isKey.length];
+        for (int c = 0; c < values.length; c++) {
+            if (isKey[c]) { // Key columns must match
+                values[c] = pos.valueA(r1, c);
+                continue;
+            }
+
+            // Handle identical case with the comparator of the column, comparing bytes where the Rows have them
+            if (pos.same(r1, r2, c)) {
+                if (showIdentical) {
+                    // Zero matching an empty cell shows the zero
+                    String v = pos.valueA(r1, c);
+                    values[c] = v == null || v.isEmpty() ? pos.valueB(r2, c) : v;
+                } else {
+                    values[c] = "";
+                }
+                continue;
+            }
+
+            // Cells differ
+            String h1 = pos.valueA(r1, c);
+            String h2 = pos.valueB(r2, c);
+            String diff = "";
+            if (!h1.isEmpty())
+                diff = h1 + Diff.DIFF_MARKER_A;
+            if (!h2.isEmpty())
+                diff = diff.concat(Diff.DIFF_MARKER_B + h2);
+            if (!diff.isEmpty())
+                hasDiff = true;
+            differing++;
+            values[c] = diff;
+        }
+        cellsDiffering.add(differing);
+        return alignment.row(values, keyColumns);
+    }
+
+    /*
+     * The diff Row for two Rows known to match
+     */
+    private Row getIdentical(ColumnAlignment.Positions pos, Row r1, Row r2, boolean showIdentical) {
+        String[] values = new String[isKey.length];
+        for (int c = 0; c < values.length; c++) {
+            if (isKey[c]) {
+                values[c] = pos.valueA(r1, c);
+            } else if (!showIdentical) {
+                values[c] = "";
+            } else {
+                String v = pos.valueA(r1, c);
+                if (zeroMatchesNull && "".equals(v) && "0".equals(pos.valueB(r2, c)))
+                    v = "0";
+                values[c] = v;
+            }
+        }
+        return alignment.row(values, keyColumns);
+    }
+}
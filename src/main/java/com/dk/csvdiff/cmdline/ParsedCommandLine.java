@@ -1,5 +1,12 @@
 package com.dk.csvdiff.cmdline;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -9,6 +16,9 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import com.dk.csvdiff.csv.ColumnComparator;
+import com.dk.csvdiff.csv.CsvStreams;
+import com.dk.csvdiff.csv.RowFilter;
 import com.dk.csvdiff.i18n.Messages;
 
 /**
@@ -26,9 +36,28 @@ public class ParsedCommandLine {
     private String filenameB;       // Input filename
     private String filenameOut;     // Output filename
     private String idColumn;        // Input files' id column name
+    private List<String> keyColumns;         // The id column then any further key columns, null for the id column alone
     private boolean displayMissingRows = false;
     private boolean displayMatchingData = true;
     private boolean zeroMatchesNull = true;  // If true then '0' matches an empty cell (i.e. 0 == "")
+    private boolean sortedInput = false;     // If true then both input files are sorted by id
+    private boolean externalSort = false;    // If true then sort the input files on disk
+    private long memoryBudget = 0;           // Bytes of heap for each sorted run, 0 for the default
+    private File tempDir;                    // Directory for temporary files, null for the system default
+    private int threads = 1;                 // Threads for in-memory diffs, 0 for one per processor
+    private boolean cache = false;           // If true then keep snapshots of parsed input files
+    private File cacheDir;                   // Directory for snapshots, null to keep them beside the input files
+    private File statsFile;                  // File for phase timings and counters, null for none
+    private boolean compactIds = false;      // If true then hold ids in front coded indexes
+    private long offHeap = 0;                // Bytes of memory outside the heap for parsed data, 0 for none
+    private Map<String, ColumnComparator> columnTypes = new LinkedHashMap<>();  // Comparators of columns not compared as text
+    private boolean inferTypes = false;      // If true then pick the comparators of other columns from their cells
+    private List<String> includeColumns;     // The columns compared, null for every column
+    private List<String> excludeColumns = Collections.emptyList();  // Columns not compared
+    private List<String> filters = Collections.emptyList();         // Conditions the rows compared must meet
+    private boolean gzipOutput = false;      // If true then compress the output with gzip
+    private boolean estimate = false;        // If true then estimate the differences from sketches
+    private boolean check = false;           // If true then only find out whether the inputs are identical
 
     /**
      * Default constructor
@@ -65,7 +94,7 @@ public class ParsedCommandLine {
     public final void usage(String errMsg)
     {
         HelpFormatter formatter = new HelpFormatter();
-        formatter.printHelp("Diff [-d | -diffsOnly] [-m | --showMissing] [-z | --zeroNotNull] <idColumnName> <CSV File A> <CSV File B> <Output CSV file>",
+        formatter.printHelp("Diff [-d | -diffsOnly] [-m | --showMissing] [-z | --zeroNotNull] [-s | --sorted] [-x | --externalSort] [--memory <MB>] [-t | --tempDir <dir>] [-p | --threads <n>] [-c | --cache] [--cacheDir <dir>] [--stats <file>] [-k | --key <column>]... [--compactIds] [--offHeap <MB>] [--type <column=type>]... [--inferTypes] [--include <column>]... [--exclude <column>]... [--where <condition>]... [--gzip] [--estimate] [--check] <idColumnName> <CSV File A> <CSV File B> <Output CSV file>",
                             "CSV Diff Tool",
                             options, "\n" + errMsg);
     }
@@ -117,6 +146,188 @@ public class ParsedCommandLine {
                         .longOpt("zeroNotNull")
                         .build();
         options.addOption(optZeroNotNull);
+
+        Option optSorted = Option
+                        .builder("s")
+                        .required(false)
+                        .hasArg(false)
+                        .desc(Messages.getMessage("optS"))
+                        .longOpt("sorted")
+                        .build();
+        options.addOption(optSorted);
+
+        Option optExternalSort = Option
+                        .builder("x")
+                        .required(false)
+                        .hasArg(false)
+                        .desc(Messages.getMessage("optX"))
+                        .longOpt("externalSort")
+                        .build();
+        options.addOption(optExternalSort);
+
+        Option optMemory = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(true)
+                        .argName("MB")
+                        .desc(Messages.getMessage("optMemory"))
+                        .longOpt("memory")
+                        .build();
+        options.addOption(optMemory);
+
+        Option optTempDir = Option
+                        .builder("t")
+                        .required(false)
+                        .hasArg(true)
+                        .argName("dir")
+                        .desc(Messages.getMessage("optTempDir"))
+                        .longOpt("tempDir")
+                        .build();
+        options.addOption(optTempDir);
+
+        Option optThreads = Option
+                        .builder("p")
+                        .required(false)
+                        .hasArg(true)
+                        .argName("n")
+                        .desc(Messages.getMessage("optP"))
+                        .longOpt("threads")
+                        .build();
+        options.addOption(optThreads);
+
+        Option optCache = Option
+                        .builder("c")
+                        .required(false)
+                        .hasArg(false)
+                        .desc(Messages.getMessage("optC"))
+                        .longOpt("cache")
+                        .build();
+        options.addOption(optCache);
+
+        Option optCacheDir = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(true)
+                        .argName("dir")
+                        .desc(Messages.getMessage("optCacheDir"))
+                        .longOpt("cacheDir")
+                        .build();
+        options.addOption(optCacheDir);
+
+        Option optStats = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(true)
+                        .argName("file")
+                        .desc(Messages.getMessage("optStats"))
+                        .longOpt("stats")
+                        .build();
+        options.addOption(optStats);
+
+        Option optKey = Option
+                        .builder("k")
+                        .required(false)
+                        .hasArg(true)
+                        .argName("column")
+                        .desc(Messages.getMessage("optK"))
+                        .longOpt("key")
+                        .build();
+        options.addOption(optKey);
+
+        Option optCompactIds = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(false)
+                        .desc(Messages.getMessage("optCompactIds"))
+                        .longOpt("compactIds")
+                        .build();
+        options.addOption(optCompactIds);
+
+        Option optOffHeap = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(true)
+                        .argName("MB")
+                        .desc(Messages.getMessage("optOffHeap"))
+                        .longOpt("offHeap")
+                        .build();
+        options.addOption(optOffHeap);
+
+        Option optType = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(true)
+                        .argName("column=type")
+                        .desc(Messages.getMessage("optType"))
+                        .longOpt("type")
+                        .build();
+        options.addOption(optType);
+
+        Option optInferTypes = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(false)
+                        .desc(Messages.getMessage("optInferTypes"))
+                        .longOpt("inferTypes")
+                        .build();
+        options.addOption(optInferTypes);
+
+        Option optInclude = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(true)
+                        .argName("column")
+                        .desc(Messages.getMessage("optInclude"))
+                        .longOpt("include")
+                        .build();
+        options.addOption(optInclude);
+
+        Option optExclude = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(true)
+                        .argName("column")
+                        .desc(Messages.getMessage("optExclude"))
+                        .longOpt("exclude")
+                        .build();
+        options.addOption(optExclude);
+
+        Option optWhere = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(true)
+                        .argName("condition")
+                        .desc(Messages.getMessage("optWhere"))
+                        .longOpt("where")
+                        .build();
+        options.addOption(optWhere);
+
+        Option optGzip = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(false)
+                        .desc(Messages.getMessage("optGzip"))
+                        .longOpt("gzip")
+                        .build();
+        options.addOption(optGzip);
+
+        Option optEstimate = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(false)
+                        .desc(Messages.getMessage("optEstimate"))
+                        .longOpt("estimate")
+                        .build();
+        options.addOption(optEstimate);
+
+        Option optCheck = Option
+                        .builder()
+                        .required(false)
+                        .hasArg(false)
+                        .desc(Messages.getMessage("optCheck"))
+                        .longOpt("check")
+                        .build();
+        options.addOption(optCheck);
     }
 
     /*
@@ -134,6 +345,89 @@ public class ParsedCommandLine {
         displayMatchingData = !cmd.hasOption('d');
         displayMissingRows = cmd.hasOption('m');
         zeroMatchesNull = !cmd.hasOption('z');
+        sortedInput = cmd.hasOption('s');
+        externalSort = cmd.hasOption('x');
+
+        if (cmd.hasOption("memory")) {
+            try {
+                memoryBudget = Long.parseLong(cmd.getOptionValue("memory")) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                memoryBudget = -1;
+            }
+            if (memoryBudget <= 0) {
+                usage(Messages.getMessage("BadNumber", "memory", cmd.getOptionValue("memory")));
+                return false;
+            }
+        }
+
+        if (cmd.hasOption('t')) {
+            tempDir = new File(cmd.getOptionValue('t'));
+        }
+
+        if (cmd.hasOption('p')) {
+            try {
+                threads = Integer.parseInt(cmd.getOptionValue('p'));
+            } catch (NumberFormatException e) {
+                threads = -1;
+            }
+            if (threads < 0) {
+                usage(Messages.getMessage("BadNumber", "threads", cmd.getOptionValue('p')));
+                return false;
+            }
+        }
+
+        if (cmd.hasOption("cacheDir")) {
+            cacheDir = new File(cmd.getOptionValue("cacheDir"));
+        }
+        cache = cmd.hasOption('c') || cacheDir != null;
+
+        if (cmd.hasOption("stats")) {
+            statsFile = new File(cmd.getOptionValue("stats"));
+        }
+
+        compactIds = cmd.hasOption("compactIds");
+
+        if (cmd.hasOption("offHeap")) {
+            try {
+                offHeap = Long.parseLong(cmd.getOptionValue("offHeap")) * 1024 * 1024;
+            } catch (NumberFormatException e) {
+                offHeap = -1;
+            }
+            if (offHeap <= 0) {
+                usage(Messages.getMessage("BadNumber", "offHeap", cmd.getOptionValue("offHeap")));
+                return false;
+            }
+        }
+
+        if (cmd.hasOption("type")) {
+            for (String type: cmd.getOptionValues("type")) {
+                int eq = type.lastIndexOf('=');
+                try {
+                    if (eq <= 0)
+                        throw new IllegalArgumentException(Messages.getMessage("BadColumnType", type));
+                    columnTypes.put(type.substring(0, eq), ColumnComparator.forName(type.substring(eq + 1)));
+                } catch (IllegalArgumentException e) {
+                    usage(e.getMessage());
+                    return false;
+                }
+            }
+        }
+        inferTypes = cmd.hasOption("inferTypes");
+        if (cmd.hasOption("include"))
+            includeColumns = Arrays.asList(cmd.getOptionValues("include"));
+        if (cmd.hasOption("exclude"))
+            excludeColumns = Arrays.asList(cmd.getOptionValues("exclude"));
+        gzipOutput = cmd.hasOption("gzip");
+        estimate = cmd.hasOption("estimate");
+        if (cmd.hasOption("where")) {
+            filters = Arrays.asList(cmd.getOptionValues("where"));
+            try {
+                new RowFilter(filters);
+            } catch (IllegalArgumentException e) {
+                usage(e.getMessage());
+                return false;
+            }
+        }
 
         return true;
     }
@@ -148,9 +442,12 @@ public class ParsedCommandLine {
         try {
             cmd = parser.parse(options, args);
         } catch (ParseException e) {
+            // A check must fail with its own exit status even when the options cannot be read
+            check = Arrays.asList(args).contains("--check");
             usage(Messages.getMessage("FailParse", e.getMessage()));
             return false;
         }
+        check = cmd.hasOption("check");
 
         String[] cmdArgs = cmd.getArgs();
         if (cmdArgs.length < 4) {
@@ -162,9 +459,18 @@ public class ParsedCommandLine {
         }
 
         idColumn = cmdArgs[0];
+        if (cmd.hasOption('k')) {
+            keyColumns = new ArrayList<>();
+            keyColumns.add(idColumn);
+            keyColumns.addAll(Arrays.asList(cmd.getOptionValues('k')));
+        }
         filenameA = cmdArgs[1];
         filenameB = cmdArgs[2];
         filenameOut = cmdArgs[3];
+        if (filenameA.equals(CsvStreams.STANDARD) && filenameB.equals(CsvStreams.STANDARD)) {
+            usage(Messages.getMessage("StdinTwice"));
+            return false;
+        }
         return true;
     }
 
@@ -196,6 +502,20 @@ public class ParsedCommandLine {
         return idColumn;
     }
 
+    /**
+     * @return The key column names, the id column first
+     */
+    public List<String> getKeyColumns() {
+        return keyColumns != null ? keyColumns : Collections.singletonList(idColumn);
+    }
+
+    /**
+     * @param keyColumns The key column names, the id column first
+     */
+    public void setKeyColumns(List<String> keyColumns) {
+        this.keyColumns = keyColumns;
+    }
+
     /**
      * @return true if missing rows are to be displayed
      */
@@ -216,4 +536,257 @@ public class ParsedCommandLine {
     public boolean isZeroMatchesNull() {
         return zeroMatchesNull;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return true if both input files are sorted by id
+     */
+    public boolean isSortedInput() {
+        return sortedInput;
+    }
+
+    /**
+     * @param sortedInput true if both input files are sorted by id
+     */
+    public void setSortedInput(boolean sortedInput) {
+        this.sortedInput = sortedInput;
+    }
+
+    /**
+     * @return true if the input files are to be sorted on disk
+     */
+    public boolean isExternalSort() {
+        return externalSort;
+    }
+
+    /**
+     * @param externalSort true if the input files are to be sorted on disk
+     */
+    public void setExternalSort(boolean externalSort) {
+        this.externalSort = externalSort;
+    }
+
+    /**
+     * @return Bytes of heap for each sorted run or 0 for the default
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @param memoryBudget Bytes of heap for each sorted run or 0 for the default
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return Directory for temporary files or null for the system default
+     */
+    public File getTempDir() {
+        return tempDir;
+    }
+
+    /**
+     * @param tempDir Directory for temporary files or null for the system default
+     */
+    public void setTempDir(File tempDir) {
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * @return Threads for in-memory diffs, 0 for one per processor
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param threads Threads for in-memory diffs, 0 for one per processor
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return true to keep snapshots of parsed input files
+     */
+    public boolean isCache() {
+        return cache;
+    }
+
+    /**
+     * @param cache true to keep snapshots of parsed input files
+     */
+    public void setCache(boolean cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return Directory for snapshots or null to keep them beside the input files
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * @param cacheDir Directory for snapshots or null to keep them beside the input files
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @return File for phase timings and counters or null for none
+     */
+    public File getStatsFile() {
+        return statsFile;
+    }
+
+    /**
+     * @param statsFile File for phase timings and counters or null for none
+     */
+    public void setStatsFile(File statsFile) {
+        this.statsFile = statsFile;
+    }
+
+    /**
+     * @return true to hold ids in front coded indexes
+     */
+    public boolean isCompactIds() {
+        return compactIds;
+    }
+
+    /**
+     * @param compactIds true to hold ids in front coded indexes
+     */
+    public void setCompactIds(boolean compactIds) {
+        this.compactIds = compactIds;
+    }
+
+    /**
+     * @return Bytes of memory outside the heap for parsed data or 0 for none
+     */
+    public long getOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @param offHeap Bytes of memory outside the heap for parsed data or 0 for none
+     */
+    public void setOffHeap(long offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return The comparators of the columns not compared as text by column name
+     */
+    public Map<String, ColumnComparator> getColumnTypes() {
+        return columnTypes;
+    }
+
+    /**
+     * @param columnTypes The comparators of the columns not compared as text by column name
+     */
+    public void setColumnTypes(Map<String, ColumnComparator> columnTypes) {
+        this.columnTypes = columnTypes;
+    }
+
+    /**
+     * @return true to pick the comparators of the other columns from their cells
+     */
+    public boolean isInferTypes() {
+        return inferTypes;
+    }
+
+    /**
+     * @param inferTypes true to pick the comparators of the other columns from their cells
+     */
+    public void setInferTypes(boolean inferTypes) {
+        this.inferTypes = inferTypes;
+    }
+
+    /**
+     * @return The columns compared or null to compare every column
+     */
+    public List<String> getIncludeColumns() {
+        return includeColumns;
+    }
+
+    /**
+     * @param includeColumns The columns compared or null to compare every column
+     */
+    public void setIncludeColumns(List<String> includeColumns) {
+        this.includeColumns = includeColumns;
+    }
+
+    /**
+     * @return The columns not compared
+     */
+    public List<String> getExcludeColumns() {
+        return excludeColumns;
+    }
+
+    /**
+     * @param excludeColumns The columns not compared
+     */
+    public void setExcludeColumns(List<String> excludeColumns) {
+        this.excludeColumns = excludeColumns;
+    }
+
+    /**
+     * @return The conditions the rows compared must meet, such as "region=North"
+     */
+    public List<String> getFilters() {
+        return filters;
+    }
+
+    /**
+     * @param filters The conditions the rows compared must meet, such as "region=North"
+     */
+    public void setFilters(List<String> filters) {
+        this.filters = filters;
+    }
+
+    /**
+     * @return true to compress the output with gzip
+     */
+    public boolean isGzipOutput() {
+        return gzipOutput;
+    }
+
+    /**
+     * @param gzipOutput true to compress the output with gzip
+     */
+    public void setGzipOutput(boolean gzipOutput) {
+        this.gzipOutput = gzipOutput;
+    }
+
+    /**
+     * @return true to estimate the differences instead of diffing the inputs
+     */
+    public boolean isEstimate() {
+        return estimate;
+    }
+
+    /**
+     * @param estimate true to estimate the differences instead of diffing the inputs
+     */
+    public void setEstimate(boolean estimate) {
+        this.estimate = estimate;
+    }
+
+    /**
+     * @return true to only find out whether the inputs are identical,
+     *         known even when the rest of the command line could not be parsed
+     */
+    public boolean isCheck() {
+        return check;
+    }
+
+    /**
+     * @param check true to only find out whether the inputs are identical
+     */
+    public void setCheck(boolean check) {
+        this.check = check;
+    }
+}
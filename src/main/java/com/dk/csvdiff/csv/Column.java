@@ -0,0 +1,36 @@
+package com.dk.csvdiff.csv;
+
+import java.util.Arrays;
+
+/**
+ * The values of a single column for every row of a ColumnStore, addressed by row ordinal.
+ *
+ * @author darrenkennedy
+ */
+final class Column {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private String[] values;
+
+    Column() {
+        this.values = new String[INITIAL_CAPACITY];
+    }
+
+    /**
+     * @param row Row ordinal
+     * @return The value for the row or null if the row has never been set
+     */
+    String get(int row) {
+        return row < values.length ? values[row] : null;
+    }
+
+    /**
+     * @param row Row ordinal
+     * @param value The value for the row
+     */
+    void set(int row, String value) {
+        if (row >= values.length)
+            values = Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+        values[row] = value;
+    }
+}
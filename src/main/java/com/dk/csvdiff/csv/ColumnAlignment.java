@@ -0,0 +1,183 @@
+package com.dk.csvdiff.csv;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A list of columns compared between two data sets, with the position of each column
+ * in the Schemas of the Rows of both data sets worked out once per pair of Schemas.
+ * The cells of every pair of Rows can then be read and compared by position
+ * without looking up column names. An alignment may be shared by many threads.
+ *
+ * @author darrenkennedy
+ */
+public final class ColumnAlignment {
+    // Pairs of Schemas remembered, enough for A with B and each data set with itself
+    private static final int CACHED = 4;
+
+    private final List<String> columns;
+    private final Set<String> columnSet;
+    private final Schema output;
+    private final ColumnComparator[] comparators;
+    private final boolean zeroMatchesNull;
+    private volatile Positions[] cached = new Positions[0];
+
+    /**
+     * Align columns compared as text
+     * @param columns The columns in output order
+     */
+    public ColumnAlignment(List<String> columns) {
+        this(columns, null, false);
+    }
+
+    /**
+     * @param columns The columns in output order
+     * @param comparators The comparator of each column, or null to compare every column as text
+     * @param zeroMatchesNull true if zero matches an empty cell
+     */
+    public ColumnAlignment(List<String> columns, ColumnComparator[] comparators, boolean zeroMatchesNull) {
+        this.columns = Collections.unmodifiableList(columns);
+        this.columnSet = new HashSet<>(columns);
+        this.output = new Schema(columns);
+        this.comparators = new ColumnComparator[columns.size()];
+        for (int c = 0; c < this.comparators.length; c++)
+            this.comparators[c] = comparators == null || comparators[c] == null ? ColumnComparator.TEXT : comparators[c];
+        this.zeroMatchesNull = zeroMatchesNull;
+    }
+
+    /**
+     * @return The columns in output order
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return The number of columns
+     */
+    public int size() {
+        return output.size();
+    }
+
+    /**
+     * @param column The column index
+     * @return The comparator of the column
+     */
+    public ColumnComparator getComparator(int column) {
+        return comparators[column];
+    }
+
+    /**
+     * Get the positions of the columns in a pair of Rows
+     * @param a A Row from data set A
+     * @param b A Row from data set B
+     * @return The Positions for the Schemas of the Rows
+     */
+    public Positions positions(Row a, Row b) {
+        Schema schemaA = a.getSchema();
+        Schema schemaB = b.getSchema();
+        Positions[] c = cached;
+        for (Positions p: c) {
+            if (p.matches(schemaA, schemaB))
+                return p;
+        }
+        Positions p = new Positions(schemaA, schemaB);
+        // Another thread may replace the cache at the same time, which only costs a recomputation
+        Positions[] next = new Positions[Math.min(c.length + 1, CACHED)];
+        next[0] = p;
+        System.arraycopy(c, 0, next, 1, next.length - 1);
+        cached = next;
+        return p;
+    }
+
+    /**
+     * Create a Row of values of the columns, all sharing one Schema
+     * @param values The values in output order
+     * @param keyColumns The key column names
+     * @return The Row
+     */
+    public Row row(String[] values, List<String> keyColumns) {
+        return new Row(output, values, keyColumns);
+    }
+
+    /**
+     * The positions of the columns in a pair of Schemas
+     */
+    public final class Positions {
+        private final Schema schemaA;
+        private final Schema schemaB;
+        private final int[] a;          // Position of each column in A, -1 if A does not have it
+        private final int[] b;
+        private final int[] onlyA;      // Positions in A of the columns that are not compared
+        private final int[] onlyB;
+
+        private Positions(Schema schemaA, Schema schemaB) {
+            this.schemaA = schemaA;
+            this.schemaB = schemaB;
+            this.a = schemaA.positions(columns);
+            this.b = schemaB.positions(columns);
+            this.onlyA = others(schemaA);
+            this.onlyB = others(schemaB);
+        }
+
+        private boolean matches(Schema schemaA, Schema schemaB) {
+            return (this.schemaA == schemaA || this.schemaA.equals(schemaA))
+                    && (this.schemaB == schemaB || this.schemaB.equals(schemaB));
+        }
+
+        private int[] others(Schema schema) {
+            int[] others = new int[schema.size()];
+            int n = 0;
+            for (int pos = 0; pos < others.length; pos++) {
+                if (!columnSet.contains(schema.name(pos)))
+                    others[n++] = pos;
+            }
+            return Arrays.copyOf(others, n);
+        }
+
+        /**
+         * @param row A Row of data set A
+         * @param column The column index
+         * @return The value of the column or null if A does not have it
+         */
+        public String valueA(Row row, int column) {
+            return a[column] < 0 ? null : row.getValue(a[column]);
+        }
+
+        /**
+         * @param row A Row of data set B
+         * @param column The column index
+         * @return The value of the column or null if B does not have it
+         */
+        public String valueB(Row row, int column) {
+            return b[column] < 0 ? null : row.getValue(b[column]);
+        }
+
+        /**
+         * Compare a column of a pair of Rows with the comparator of the column,
+         * comparing bytes where the Rows have them
+         * @param rowA The Row of data set A
+         * @param rowB The Row of data set B
+         * @param column The column index
+         * @return true if the values match or the column is in neither Row
+         */
+        public boolean same(Row rowA, Row rowB, int column) {
+            return comparators[column].same(rowA, a[column], rowB, b[column], zeroMatchesNull);
+        }
+
+        /**
+         * Compare the fingerprints of a pair of Rows over the columns
+         * @param rowA The Row of data set A
+         * @param rowB The Row of data set B
+         * @param zeroMatchesNull true if '0' matches an empty cell
+         * @return true if the Rows are known to have the same values in the columns
+         * @see Row#sameContent(Row, java.util.Collection, java.util.Collection, boolean)
+         */
+        public boolean sameContent(Row rowA, Row rowB, boolean zeroMatchesNull) {
+            return rowA.sameContent(rowB, onlyA, onlyB, zeroMatchesNull);
+        }
+    }
+}
@@ -0,0 +1,368 @@
+package com.dk.csvdiff.csv;
+
+import java.math.BigDecimal;
+import java.text.ParsePosition;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Objects;
+
+import com.dk.csvdiff.i18n.Messages;
+
+/**
+ * Decides whether two cells of a column have the same value.
+ * Text is compared as it is, or ignoring case. Numbers and dates are parsed into a long once,
+ * when a Sheet types the column, and the longs are compared afterwards, so '1.0' matches '1.00'
+ * and '2024-01-05' matches '05-Jan-2024'. Cells that do not parse are compared as text.
+ * Whether zero matches an empty cell is decided per type: for text the cell must be '0',
+ * for numbers any zero will do.
+ *
+ * @author darrenkennedy
+ */
+public abstract class ColumnComparator {
+    // Parsed value of an empty cell
+    static final long EMPTY = Long.MIN_VALUE;
+    // Parsed value of a cell that is not of the type and is compared as text
+    static final long UNPARSED = Long.MIN_VALUE + 1;
+
+    /**
+     * Cells match if they have the same text
+     */
+    public static final ColumnComparator TEXT = new ColumnComparator("text") {
+    };
+
+    /**
+     * Cells match if they have the same text ignoring case
+     */
+    public static final ColumnComparator IGNORE_CASE = new ColumnComparator("ignoreCase") {
+        @Override
+        boolean sameText(String v1, String v2) {
+            return v1 != null && v1.equalsIgnoreCase(v2);
+        }
+    };
+
+    private final String name;
+
+    private ColumnComparator(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param tolerance The largest difference between numbers that match
+     * @return A comparator for numbers
+     */
+    public static ColumnComparator number(double tolerance) {
+        if (!(tolerance >= 0))
+            throw new IllegalArgumentException(Messages.getMessage("BadColumnType", "number:" + tolerance));
+        return new NumberComparator(tolerance);
+    }
+
+    /**
+     * @param patterns DateTimeFormatter patterns the dates are in, or none for common ISO and English formats
+     * @return A comparator for dates and times, compared as instants in UTC
+     */
+    public static ColumnComparator date(String... patterns) {
+        DateTimeFormatter[] formats;
+        if (patterns.length == 0) {
+            formats = DateComparator.DEFAULT_FORMATS;
+        } else {
+            formats = new DateTimeFormatter[patterns.length];
+            for (int i = 0; i < patterns.length; i++) {
+                try {
+                    formats[i] = new DateTimeFormatterBuilder().parseCaseInsensitive()
+                            .appendPattern(patterns[i]).toFormatter(Locale.ENGLISH);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException(Messages.getMessage("BadColumnType", "date:" + patterns[i]), e);
+                }
+            }
+        }
+        return new DateComparator(String.join("|", patterns), formats);
+    }
+
+    /**
+     * Get a comparator by name: text, ignoreCase, number, number:&lt;tolerance&gt;,
+     * date or date:&lt;pattern&gt;
+     * @param type The name of the type
+     * @return The comparator
+     * @throws IllegalArgumentException if the type is not known
+     */
+    public static ColumnComparator forName(String type) {
+        int colon = type.indexOf(':');
+        String base = colon < 0 ? type : type.substring(0, colon);
+        String arg = colon < 0 ? null : type.substring(colon + 1);
+        if (arg == null && base.equals(TEXT.name))
+            return TEXT;
+        if (arg == null && base.equals(IGNORE_CASE.name))
+            return IGNORE_CASE;
+        if (base.equals("number")) {
+            try {
+                return number(arg == null ? 0 : Double.parseDouble(arg));
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+        }
+        if (base.equals("date"))
+            return arg == null ? date() : date(arg);
+        throw new IllegalArgumentException(Messages.getMessage("BadColumnType", type));
+    }
+
+    /**
+     * Pick a comparator for a column from a sample of its cells: numbers if every
+     * cell is a number without leading zeros, dates if every cell is a date in a
+     * default format, otherwise text
+     * @param sample Cells of the column
+     * @return The comparator
+     */
+    public static ColumnComparator infer(Collection<String> sample) {
+        ColumnComparator number = number(0);
+        ColumnComparator date = date();
+        // Dates are only tried once the cells are known not to be numbers, as trying every format is slow
+        for (ColumnComparator type: new ColumnComparator[] {number, date}) {
+            int values = 0;
+            for (String v: sample) {
+                if (v == null || v.trim().isEmpty())
+                    continue;
+                // Codes such as '007' are kept as text
+                if (type.parse(v) == UNPARSED || type == number && NumberComparator.hasLeadingZero(v.trim())) {
+                    values = -1;
+                    break;
+                }
+                values++;
+            }
+            if (values == 0)
+                return TEXT;
+            if (values > 0)
+                return type;
+        }
+        return TEXT;
+    }
+
+    /**
+     * @return true if cells are parsed into longs to compare them
+     */
+    boolean isParsed() {
+        return false;
+    }
+
+    /**
+     * @param value The text of a cell
+     * @return The parsed value, EMPTY for an empty cell or UNPARSED if it is not of the type
+     */
+    long parse(String value) {
+        return UNPARSED;
+    }
+
+    /**
+     * @return true if two parsed values, neither EMPTY nor UNPARSED, match
+     */
+    boolean same(long v1, long v2) {
+        return v1 == v2;
+    }
+
+    /**
+     * @return true if a parsed value is zero
+     */
+    boolean isZero(long v) {
+        return false;
+    }
+
+    /**
+     * @return true if the text of two cells that could not be compared as parsed values match
+     */
+    boolean sameText(String v1, String v2) {
+        return Objects.equals(v1, v2);
+    }
+
+    /**
+     * Compare a cell of one Row with a cell of another
+     * @param a The first Row
+     * @param posA The position of the cell in the first Row, -1 if it does not have the column
+     * @param b The other Row
+     * @param posB The position of the cell in the other Row, -1 if it does not have the column
+     * @param zeroMatchesNull true if zero matches an empty cell
+     * @return true if the cells match
+     */
+    final boolean same(Row a, int posA, Row b, int posB, boolean zeroMatchesNull) {
+        // The same text is always the same value, and is found without decoding the cells
+        if (a.sameValue(posA, b, posB))
+            return true;
+        if (isParsed() && posA >= 0 && posB >= 0) {
+            long v1 = a.parsed(posA, this);
+            long v2 = b.parsed(posB, this);
+            if (v1 != UNPARSED && v2 != UNPARSED) {
+                if (v1 == EMPTY || v2 == EMPTY)
+                    return v1 == v2 || zeroMatchesNull && (isZero(v1) || isZero(v2));
+                return same(v1, v2);
+            }
+        }
+        String v1 = posA < 0 ? null : a.getValue(posA);
+        String v2 = posB < 0 ? null : b.getValue(posB);
+        return sameText(v1, v2) || zeroMatchesNull && (zeroAndEmpty(v1, v2) || zeroAndEmpty(v2, v1));
+    }
+
+    private static boolean zeroAndEmpty(String zero, String empty) {
+        return "0".equals(zero) && "".equals(empty);
+    }
+
+    /**
+     * @return The name of the type
+     */
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /*
+     * Numbers parsed as doubles, held as their bits.
+     * Numbers a double cannot tell apart from their neighbours are left to be compared as text.
+     */
+    private static final class NumberComparator extends ColumnComparator {
+        private final double tolerance;
+
+        NumberComparator(double tolerance) {
+            super(tolerance == 0 ? "number" : "number:" + tolerance);
+            this.tolerance = tolerance;
+        }
+
+        @Override
+        boolean isParsed() {
+            return true;
+        }
+
+        @Override
+        long parse(String value) {
+            String v = value.trim();
+            if (v.isEmpty())
+                return EMPTY;
+            // Only plain decimal and scientific notation, not the hex, 'NaN' or '1d' Double.parseDouble takes
+            for (int i = 0; i < v.length(); i++) {
+                char c = v.charAt(i);
+                if ((c < '0' || c > '9') && c != '.' && c != '-' && c != '+' && c != 'e' && c != 'E')
+                    return UNPARSED;
+            }
+            double d;
+            try {
+                d = Double.parseDouble(v);
+                // A double only tells apart numbers of up to 15 significant digits, so longer ones such as
+                // 9007199254740993 are compared as text unless the double holds them exactly
+                if (Double.isInfinite(d) || significantDigits(v) > 15 && new BigDecimal(v).compareTo(new BigDecimal(d)) != 0)
+                    return UNPARSED;
+            } catch (NumberFormatException e) {
+                return UNPARSED;
+            }
+            // -0.0 would be the EMPTY bits
+            long bits = Double.doubleToLongBits(d == 0 ? 0.0 : d);
+            return bits == UNPARSED ? UNPARSED : bits;
+        }
+
+        @Override
+        boolean same(long v1, long v2) {
+            double d1 = Double.longBitsToDouble(v1);
+            double d2 = Double.longBitsToDouble(v2);
+            return d1 == d2 || Math.abs(d1 - d2) <= tolerance;
+        }
+
+        @Override
+        boolean isZero(long v) {
+            return v == Double.doubleToLongBits(0.0);
+        }
+
+        /*
+         * The digits of a number before any exponent, leaving out leading zeros
+         */
+        private static int significantDigits(String v) {
+            int digits = 0;
+            for (int i = 0; i < v.length(); i++) {
+                char c = v.charAt(i);
+                if (c == 'e' || c == 'E')
+                    break;
+                if (c > '0' && c <= '9' || c == '0' && digits > 0)
+                    digits++;
+            }
+            return digits;
+        }
+
+        static boolean hasLeadingZero(String v) {
+            int i = v.startsWith("-") || v.startsWith("+") ? 1 : 0;
+            return v.length() > i + 1 && v.charAt(i) == '0' && Character.isDigit(v.charAt(i + 1));
+        }
+    }
+
+    /*
+     * Dates and times parsed as milliseconds since the epoch in UTC,
+     * dates without a time at the start of the day
+     */
+    private static final class DateComparator extends ColumnComparator {
+        static final DateTimeFormatter[] DEFAULT_FORMATS = {
+            DateTimeFormatter.ISO_LOCAL_DATE,
+            DateTimeFormatter.ISO_LOCAL_DATE_TIME,
+            DateTimeFormatter.ISO_OFFSET_DATE_TIME,
+            new DateTimeFormatterBuilder().append(DateTimeFormatter.ISO_LOCAL_DATE).appendLiteral(' ')
+                    .append(DateTimeFormatter.ISO_LOCAL_TIME).toFormatter(Locale.ENGLISH),
+            DateTimeFormatter.ofPattern("yyyy/MM/dd", Locale.ENGLISH),
+            DateTimeFormatter.BASIC_ISO_DATE,
+            new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern("dd-MMM-yyyy").toFormatter(Locale.ENGLISH),
+            new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern("d MMM yyyy").toFormatter(Locale.ENGLISH),
+        };
+
+        private final DateTimeFormatter[] formats;
+        // The format that parsed the last date, tried first; a race only costs a retry
+        private int last;
+
+        DateComparator(String patterns, DateTimeFormatter[] formats) {
+            super(patterns.isEmpty() ? "date" : "date:" + patterns);
+            this.formats = formats;
+        }
+
+        @Override
+        boolean isParsed() {
+            return true;
+        }
+
+        @Override
+        long parse(String value) {
+            String v = value.trim();
+            if (v.isEmpty())
+                return EMPTY;
+            int first = last;
+            for (int i = 0; i < formats.length; i++) {
+                int f = (first + i) % formats.length;
+                long millis = parse(formats[f], v);
+                if (millis != UNPARSED) {
+                    last = f;
+                    return millis;
+                }
+            }
+            return UNPARSED;
+        }
+
+        private static long parse(DateTimeFormatter format, String v) {
+            // A cheap check first so cells in other formats do not throw
+            ParsePosition pos = new ParsePosition(0);
+            if (format.parseUnresolved(v, pos) == null || pos.getIndex() != v.length())
+                return UNPARSED;
+            try {
+                TemporalAccessor t = format.parseBest(v, OffsetDateTime::from, LocalDateTime::from, LocalDate::from);
+                Instant instant;
+                if (t instanceof OffsetDateTime)
+                    instant = ((OffsetDateTime) t).toInstant();
+                else if (t instanceof LocalDateTime)
+                    instant = ((LocalDateTime) t).toInstant(ZoneOffset.UTC);
+                else
+                    instant = ((LocalDate) t).atStartOfDay().toInstant(ZoneOffset.UTC);
+                long millis = instant.toEpochMilli();
+                return millis == EMPTY || millis == UNPARSED ? UNPARSED : millis;
+            } catch (DateTimeParseException | ArithmeticException e) {
+                return UNPARSED;
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.dk.csvdiff.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The distinct values of a column, each given a one byte code, for the fields of
+ * low cardinality columns held as codes in RecordBlocks. A dictionary may be shared
+ * by the blocks of several Sheets, so that equal fields have equal codes.
+ * Values are only ever added, and once MAX_SIZE values are held the column is too
+ * varied to encode and no more are added. Looking up a value does not lock.
+ *
+ * @author darrenkennedy
+ */
+final class ColumnDictionary {
+    // Most values, the code 255 marks a field beyond the end of its record
+    static final int MAX_SIZE = 255;
+    static final int ABSENT = 255;
+
+    private static final int TABLE_SIZE = 512;
+    private static final byte[] EMPTY = new byte[0];
+
+    /*
+     * The values at one time, replaced as a whole when a value is added
+     */
+    private static final class Entries {
+        final byte[][] bytes;       // UTF-8 of each code
+        final String[] values;
+        final short[] table;        // Code plus one of the value hashed to each slot, 0 for empty
+
+        Entries(byte[][] bytes, String[] values, short[] table) {
+            this.bytes = bytes;
+            this.values = values;
+            this.table = table;
+        }
+    }
+
+    private volatile Entries entries = new Entries(new byte[0][], new String[0], new short[TABLE_SIZE]);
+    private volatile boolean full;
+
+    ColumnDictionary() {
+    }
+
+    /**
+     * Create a dictionary of saved values
+     * @param values The value of each code
+     */
+    ColumnDictionary(String[] values) {
+        for (String v: values)
+            code(v);
+    }
+
+    /**
+     * @return The number of values
+     */
+    int size() {
+        return entries.bytes.length;
+    }
+
+    /**
+     * @return true if a value has been refused because the dictionary is full
+     */
+    boolean isFull() {
+        return full;
+    }
+
+    /**
+     * @param code A code
+     * @return The value, "" for ABSENT
+     */
+    String value(int code) {
+        return code == ABSENT ? "" : entries.values[code];
+    }
+
+    /**
+     * @param code A code
+     * @return The UTF-8 bytes of the value, which must not be changed, empty for ABSENT
+     */
+    byte[] bytes(int code) {
+        return code == ABSENT ? EMPTY : entries.bytes[code];
+    }
+
+    /**
+     * @return true if the codes are for the same value, an ABSENT field matching an empty one
+     */
+    boolean same(int code1, int code2) {
+        return code1 == code2 || bytes(code1).length == 0 && bytes(code2).length == 0;
+    }
+
+    /**
+     * Get the code of a value, adding it if there is room
+     * @param buf Holds the plain UTF-8 bytes of the value
+     * @param start The first byte
+     * @param end The end of the value
+     * @return The code or -1 if the dictionary is full
+     */
+    int code(ByteBuffer buf, int start, int end) {
+        int h = hash(buf, start, end);
+        int code = find(entries, buf, start, end, h);
+        if (code >= 0)
+            return code;
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buf.get(start + i);
+        return add(bytes, h);
+    }
+
+    /**
+     * Get the code of a value, adding it if there is room
+     * @param value The value
+     * @return The code or -1 if the dictionary is full
+     */
+    int code(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return code(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+
+    private synchronized int add(byte[] bytes, int h) {
+        // Another thread may have added the value
+        Entries e = entries;
+        int code = find(e, ByteBuffer.wrap(bytes), 0, bytes.length, h);
+        if (code >= 0)
+            return code;
+        code = e.bytes.length;
+        if (code == MAX_SIZE) {
+            full = true;
+            return -1;
+        }
+        byte[][] b = Arrays.copyOf(e.bytes, code + 1);
+        String[] v = Arrays.copyOf(e.values, code + 1);
+        short[] table = e.table.clone();
+        b[code] = bytes;
+        v[code] = new String(bytes, StandardCharsets.UTF_8);
+        int slot = h & (TABLE_SIZE - 1);
+        while (table[slot] != 0)
+            slot = (slot + 1) & (TABLE_SIZE - 1);
+        table[slot] = (short) (code + 1);
+        entries = new Entries(b, v, table);
+        return code;
+    }
+
+    private static int find(Entries e, ByteBuffer buf, int start, int end, int h) {
+        for (int slot = h & (TABLE_SIZE - 1); ; slot = (slot + 1) & (TABLE_SIZE - 1)) {
+            int code = e.table[slot] - 1;
+            if (code < 0)
+                return -1;
+            if (CsvTokenizer.equal(buf, start, end, e.bytes[code], 0, e.bytes[code].length))
+                return code;
+        }
+    }
+
+    private static int hash(ByteBuffer buf, int start, int end) {
+        int h = 1;
+        for (int i = start; i < end; i++)
+            h = 31 * h + buf.get(i);
+        return h ^ (h >>> 9);
+    }
+}
@@ -0,0 +1,395 @@
+package com.dk.csvdiff.csv;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Columnar storage for the rows of a Sheet.
+ * Each column keeps one value array for all rows and rows are addressed by ordinal.
+ * Rows normally share a single Schema; rows added with a different Schema
+ * are tracked with a per-row layout.
+ * Rows parsed from CSV data are held as a record of a RecordBlock instead,
+ * so their cells stay as bytes until they are read. Such a row is copied
+ * into the columns the first time one of its cells is changed.
+ *
+ * @author darrenkennedy
+ */
+final class ColumnStore {
+    /**
+     * Maps the positions of a Schema onto the columns of this store
+     */
+    static final class Layout {
+        final Schema schema;
+        final int[] columns;
+
+        Layout(Schema schema, int[] columns) {
+            this.schema = schema;
+            this.columns = columns;
+        }
+    }
+
+    private final Map<String, Integer> colIndex;
+    private final List<Column> columns;
+    private final Map<Schema, Layout> layouts;
+    private Layout layout;          // The layout of every row while rowLayouts is null
+    private Layout[] rowLayouts;    // Per-row layouts once rows with different Schemas are added
+    private final List<RecordBlock> blocks;
+    private int[] rowBlocks;        // Block index of each row held as a record, -1 for rows in the columns
+    private int[] rowRecords;       // Record index within the block
+    private int size;
+    // Cells parsed by the comparator of each typed column, indexed by column
+    private volatile Parsed[] parsed = new Parsed[0];
+
+    /*
+     * The parsed cells of a column by row ordinal
+     */
+    private static final class Parsed {
+        final ColumnComparator comparator;
+        final long[] values;
+
+        Parsed(ColumnComparator comparator, long[] values) {
+            this.comparator = comparator;
+            this.values = values;
+        }
+    }
+
+    ColumnStore() {
+        this.colIndex = new HashMap<>();
+        this.columns = new ArrayList<>();
+        this.layouts = new HashMap<>();
+        this.blocks = new ArrayList<>();
+        this.rowBlocks = new int[0];
+        this.rowRecords = new int[0];
+    }
+
+    /**
+     * @return The number of rows
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Append a row
+     * @param schema The Schema for the values
+     * @param values The values in Schema order, shorter arrays are padded with ""
+     * @return The ordinal of the new row
+     */
+    int append(Schema schema, String[] values) {
+        int ordinal = size++;
+        set(ordinal, schema, values);
+        return ordinal;
+    }
+
+    /**
+     * Append a row held as a tokenized record
+     * @param schema The Schema for the record
+     * @param block The tokenized records
+     * @param record The record index, shorter records are padded with ""
+     * @return The ordinal of the new row
+     */
+    int append(Schema schema, RecordBlock block, int record) {
+        int ordinal = size++;
+        set(ordinal, schema, block, record);
+        return ordinal;
+    }
+
+    /**
+     * Replace the row at an ordinal
+     * @param ordinal The row ordinal
+     * @param schema The Schema for the values
+     * @param values The values in Schema order, shorter arrays are padded with ""
+     */
+    void set(int ordinal, Schema schema, String[] values) {
+        Layout l = layoutFor(schema);
+        setLayout(ordinal, l);
+        if (ordinal < rowBlocks.length)
+            rowBlocks[ordinal] = -1;
+        for (int i = 0; i < l.columns.length; i++)
+            columns.get(l.columns[i]).set(ordinal, i < values.length ? values[i] : "");
+        reparse(ordinal, l);
+    }
+
+    /**
+     * Replace the row at an ordinal with a tokenized record
+     * @param ordinal The row ordinal
+     * @param schema The Schema for the record
+     * @param block The tokenized records
+     * @param record The record index, shorter records are padded with ""
+     */
+    void set(int ordinal, Schema schema, RecordBlock block, int record) {
+        setLayout(ordinal, layoutFor(schema));
+        if (blocks.isEmpty() || blocks.get(blocks.size() - 1) != block)
+            blocks.add(block);
+        if (ordinal >= rowBlocks.length) {
+            int length = Math.max(ordinal + 1, rowBlocks.length * 2);
+            int from = rowBlocks.length;
+            rowBlocks = Arrays.copyOf(rowBlocks, length);
+            rowRecords = Arrays.copyOf(rowRecords, length);
+            Arrays.fill(rowBlocks, from, length, -1);
+        }
+        rowBlocks[ordinal] = blocks.size() - 1;
+        rowRecords[ordinal] = record;
+        reparse(ordinal, layout(ordinal));
+    }
+
+    /**
+     * @param ordinal The row ordinal
+     * @return The layout of the row
+     */
+    Layout layout(int ordinal) {
+        return rowLayouts == null ? layout : rowLayouts[ordinal];
+    }
+
+    /**
+     * @param ordinal The row ordinal
+     * @param pos The position in the Schema of the row
+     * @return The value of the cell
+     */
+    String get(int ordinal, int pos) {
+        int b = blockOf(ordinal);
+        if (b < 0)
+            return columns.get(layout(ordinal).columns[pos]).get(ordinal);
+
+        // The block gives "" for a field beyond the end of the record without counting its fields
+        return blocks.get(b).value(rowRecords[ordinal], pos);
+    }
+
+    /**
+     * @param ordinal The row ordinal
+     * @param pos The position in the Schema of the row
+     * @param value The new value of the cell
+     */
+    void put(int ordinal, int pos, String value) {
+        if (blockOf(ordinal) >= 0) {
+            // Copy the record into the columns before changing it
+            Schema schema = layout(ordinal).schema;
+            String[] values = new String[schema.size()];
+            for (int i = 0; i < values.length; i++)
+                values[i] = get(ordinal, i);
+            set(ordinal, schema, values);
+        }
+        int c = layout(ordinal).columns[pos];
+        columns.get(c).set(ordinal, value);
+        Parsed p = c < parsed.length ? parsed[c] : null;
+        if (p != null && ordinal < p.values.length)
+            p.values[ordinal] = p.comparator.parse(value);
+    }
+
+    /**
+     * Parse every cell of a column with a comparator, so comparing the cells needs no parsing
+     * @param name The column name
+     * @param comparator The comparator of the column
+     */
+    void parse(String name, ColumnComparator comparator) {
+        Integer c = colIndex.get(name);
+        if (c == null || !comparator.isParsed())
+            return;
+        long[] values = new long[size];
+        Layout l = null;
+        int pos = -1;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            if (layout(ordinal) != l) {
+                l = layout(ordinal);
+                pos = l.schema.indexOf(name);
+            }
+            values[ordinal] = pos < 0 ? ColumnComparator.EMPTY : comparator.parse(get(ordinal, pos));
+        }
+        Parsed[] p = Arrays.copyOf(parsed, Math.max(parsed.length, c + 1));
+        p[c] = new Parsed(comparator, values);
+        parsed = p;
+    }
+
+    /**
+     * @param ordinal The row ordinal
+     * @param pos The position in the Schema of the row
+     * @param comparator The comparator of the column
+     * @return The cell parsed by the comparator, parsed now if the column was not parsed with it
+     */
+    long parsed(int ordinal, int pos, ColumnComparator comparator) {
+        Parsed[] p = parsed;
+        int c = layout(ordinal).columns[pos];
+        if (c < p.length && p[c] != null && p[c].comparator == comparator && ordinal < p[c].values.length)
+            return p[c].values[ordinal];
+        return comparator.parse(get(ordinal, pos));
+    }
+
+    /**
+     * Compare two cells, comparing the bytes of cells held as records
+     * @return true if the cells have the same value
+     */
+    static boolean equal(ColumnStore store1, int ordinal1, int pos1, ColumnStore store2, int ordinal2, int pos2) {
+        int b1 = store1.blockOf(ordinal1);
+        int b2 = store2.blockOf(ordinal2);
+        if (b1 < 0 || b2 < 0)
+            return Objects.equals(store1.get(ordinal1, pos1), store2.get(ordinal2, pos2));
+        return store1.blocks.get(b1).equal(store1.rowRecords[ordinal1], pos1,
+                store2.blocks.get(b2), store2.rowRecords[ordinal2], pos2);
+    }
+
+    /**
+     * Get the fingerprint of a row held as a record
+     * @param ordinal The row ordinal
+     * @param excluded Positions of the columns to leave out of the fingerprint, -1 for a column the row does not have
+     * @param zeroMatchesNull The normalization the fingerprint must have
+     * @param fp Receives the two halves of the fingerprint
+     * @return false if the row has no such fingerprint
+     */
+    boolean fingerprint(int ordinal, int[] excluded, boolean zeroMatchesNull, long[] fp) {
+        int b = blockOf(ordinal);
+        if (b < 0 || !blocks.get(b).hasFingerprints(zeroMatchesNull))
+            return false;
+
+        RecordBlock block = blocks.get(b);
+        int record = rowRecords[ordinal];
+        Schema schema = layout(ordinal).schema;
+        fp[0] = block.fingerprint(record, 0);
+        fp[1] = block.fingerprint(record, 1);
+        for (int pos: excluded) {
+            if (pos >= 0) {
+                fp[0] -= block.cell(record, pos, schema.columnHash(pos, 0), 0, zeroMatchesNull);
+                fp[1] -= block.cell(record, pos, schema.columnHash(pos, 1), 1, zeroMatchesNull);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare a cell with a UTF-8 encoded value
+     * @param value Holds the value
+     * @param from The first byte of the value
+     * @param to The end of the value
+     * @return true if the cell has the value
+     */
+    boolean equal(int ordinal, int pos, byte[] value, int from, int to) {
+        int b = blockOf(ordinal);
+        if (b < 0)
+            return new String(value, from, to - from, StandardCharsets.UTF_8).equals(get(ordinal, pos));
+        return blocks.get(b).equal(rowRecords[ordinal], pos, value, from, to);
+    }
+
+    /**
+     * Get the Key of a row, copying the key cells of a row held as a record without decoding them
+     * @param ordinal The row ordinal
+     * @param keyPos The positions of the key columns in the Schema of the row
+     * @return The Key
+     */
+    Key key(int ordinal, int[] keyPos) {
+        Key.Builder key = new Key.Builder();
+        int b = blockOf(ordinal);
+        for (int pos: keyPos) {
+            if (b < 0)
+                key.add(get(ordinal, pos));
+            else
+                blocks.get(b).addTo(key, rowRecords[ordinal], pos);
+        }
+        return key.build();
+    }
+
+    /**
+     * @return true if every row is held as a record with the same Schema
+     */
+    boolean isRecordsOnly() {
+        if (rowLayouts != null || rowBlocks.length < size)
+            return false;
+        for (int i = 0; i < size; i++) {
+            if (rowBlocks[i] < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The blocks rows are held in
+     */
+    List<RecordBlock> blocks() {
+        return blocks;
+    }
+
+    /**
+     * @param ordinal The row ordinal
+     * @return The index in blocks() of the block holding the row or -1
+     */
+    int rowBlock(int ordinal) {
+        return blockOf(ordinal);
+    }
+
+    /**
+     * @param ordinal The row ordinal
+     * @return The record index of the row in its block
+     */
+    int rowRecord(int ordinal) {
+        return rowRecords[ordinal];
+    }
+
+    /**
+     * Replace the contents of an empty store with rows held as records
+     * @param schema The Schema of every row
+     * @param blocks The blocks holding the rows
+     * @param rowBlocks The block index of each row
+     * @param rowRecords The record index of each row
+     */
+    void load(Schema schema, List<RecordBlock> blocks, int[] rowBlocks, int[] rowRecords) {
+        this.layout = layoutFor(schema);
+        this.blocks.addAll(blocks);
+        this.rowBlocks = rowBlocks;
+        this.rowRecords = rowRecords;
+        this.size = rowBlocks.length;
+    }
+
+    /*
+     * Parse the typed cells of a row that has been replaced
+     */
+    private void reparse(int ordinal, Layout l) {
+        Parsed[] p = parsed;
+        for (int i = 0; i < l.columns.length && p.length > 0; i++) {
+            int c = l.columns[i];
+            if (c < p.length && p[c] != null && ordinal < p[c].values.length)
+                p[c].values[ordinal] = p[c].comparator.parse(get(ordinal, i));
+        }
+    }
+
+    private int blockOf(int ordinal) {
+        return ordinal < rowBlocks.length ? rowBlocks[ordinal] : -1;
+    }
+
+    private Layout layoutFor(Schema schema) {
+        Layout l = layouts.get(schema);
+        if (l == null) {
+            int[] cols = new int[schema.size()];
+            for (int i = 0; i < cols.length; i++) {
+                String name = schema.name(i);
+                Integer c = colIndex.get(name);
+                if (c == null) {
+                    c = columns.size();
+                    colIndex.put(name, c);
+                    columns.add(new Column());
+                }
+                cols[i] = c;
+            }
+            l = new Layout(schema, cols);
+            layouts.put(schema, l);
+        }
+        return l;
+    }
+
+    private void setLayout(int ordinal, Layout l) {
+        if (rowLayouts == null) {
+            if (layout == null || layout == l) {
+                layout = l;
+                return;
+            }
+            // A second Schema - switch to per-row layouts
+            rowLayouts = new Layout[Math.max(size, 16)];
+            Arrays.fill(rowLayouts, 0, size, layout);
+        }
+        if (ordinal >= rowLayouts.length)
+            rowLayouts = Arrays.copyOf(rowLayouts, Math.max(ordinal + 1, rowLayouts.length * 2));
+        rowLayouts[ordinal] = l;
+    }
+}
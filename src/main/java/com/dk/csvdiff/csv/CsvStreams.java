@@ -0,0 +1,114 @@
+package com.dk.csvdiff.csv;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opens the CSV inputs and output named on the command line.
+ * The name - stands for standard input or standard output, and gzip compressed input
+ * is found by its first bytes and decompressed as it is read, on its own thread.
+ * Inputs that are neither can be memory mapped instead.
+ *
+ * @author darrenkennedy
+ */
+public final class CsvStreams {
+    /**
+     * The name of standard input or standard output
+     */
+    public static final String STANDARD = "-";
+
+    private static final int BUFFER = 1 << 16;
+
+    private CsvStreams() {
+    }
+
+    /**
+     * @param name The name of an input
+     * @return true if the input must be read as a stream rather than mapped:
+     *         standard input or a gzip compressed file
+     * @throws IOException
+     */
+    public static boolean isStream(String name) throws IOException {
+        return STANDARD.equals(name) || isGzip(new File(name));
+    }
+
+    /**
+     * @param file A file
+     * @return true if the file exists and starts with the gzip magic number
+     * @throws IOException
+     */
+    public static boolean isGzip(File file) throws IOException {
+        if (!file.isFile())
+            return false;
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    /**
+     * Open an input as UTF-8 text, decompressing gzip compressed input on another thread
+     * @param name The name of an input file or - for standard input
+     * @return The reader
+     * @throws IOException
+     */
+    public static Reader openReader(String name) throws IOException {
+        InputStream in = STANDARD.equals(name) ? System.in : new FileInputStream(name);
+        in = new ReadAheadInputStream(gunzip(in), "csvdiff-read-" + name);
+        return new InputStreamReader(in, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Open an output for UTF-8 text. Closing the writer of standard output flushes it without closing it.
+     * @param name The name of the output file or - for standard output
+     * @param gzip true to compress the output with gzip, as it always is for a file name ending .gz
+     * @return The writer
+     * @throws IOException
+     */
+    public static Writer openWriter(String name, boolean gzip) throws IOException {
+        OutputStream out;
+        if (STANDARD.equals(name)) {
+            out = new FilterOutputStream(System.out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    this.out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        } else {
+            out = new FileOutputStream(name);
+            gzip |= name.endsWith(".gz");
+        }
+        out = gzip ? new GZIPOutputStream(out, BUFFER) : new BufferedOutputStream(out, BUFFER);
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /*
+     * Wrap a stream that starts with the gzip magic number in a decompressing stream
+     */
+    private static InputStream gunzip(InputStream in) throws IOException {
+        InputStream buffered = in.markSupported() ? in : new BufferedInputStream(in, BUFFER);
+        buffered.mark(2);
+        boolean gzip = buffered.read() == 0x1f && buffered.read() == 0x8b;
+        buffered.reset();
+        return gzip ? new GZIPInputStream(buffered, BUFFER) : buffered;
+    }
+}
@@ -0,0 +1,247 @@
+package com.dk.csvdiff.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits UTF-8 CSV bytes into records and fields without decoding them.
+ * Fields are recorded as byte offsets into the buffer and only become Strings
+ * when their values are needed. Quoting follows the opencsv RFC4180Parser:
+ * a quote only opens a quoted field at the start of a field, "" inside quotes
+ * is an escaped quote and line breaks inside quotes are read as \n.
+ *
+ * A field is either plain, its value being exactly the bytes between its offsets,
+ * or escaped, stored as the complement of its start offset, and decoded by
+ * scanning it again.
+ *
+ * @author darrenkennedy
+ */
+final class CsvTokenizer {
+    private static final byte QUOTE = '"';
+    private static final byte COMMA = ',';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private CsvTokenizer() {
+    }
+
+    /**
+     * Tokenize the records between two record boundaries
+     * @param buf The CSV data
+     * @param from Offset of the first record
+     * @param to Offset after the last record
+     * @return The field offsets of every record
+     */
+    static RecordBlock tokenize(ByteBuffer buf, int from, int to) {
+        return tokenize(buf, from, to, null, null);
+    }
+
+    /**
+     * Tokenize the records between two record boundaries, keeping only some of their fields.
+     * The fields that are not kept are scanned past without recording their offsets,
+     * so the fields of each record are the kept fields in order.
+     * @param buf The CSV data
+     * @param from Offset of the first record
+     * @param to Offset after the last record
+     * @param keep Whether to keep each field, fields beyond its length being kept, or null to keep every field
+     * @param filter The conditions a record must meet to be kept, tested before the record is projected, or null
+     * @return The field offsets of every record
+     */
+    static RecordBlock tokenize(ByteBuffer buf, int from, int to, boolean[] keep, RowFilter.Bound filter) {
+        RecordBlock block = new RecordBlock(buf);
+        int[] cells = filter == null ? null : new int[filter.size() * 2];
+        int p = from;
+        while (p < to) {
+            if (cells != null)
+                Arrays.fill(cells, 0);
+            p = record(buf, p, to, block, keep, filter, cells);
+            // A record that is not kept is dropped before anything else is done with it
+            if (filter != null && !filter.accepts(buf, cells))
+                block.dropRecord();
+        }
+        block.finish();
+        return block;
+    }
+
+    /**
+     * @param buf The CSV data
+     * @param from Offset of a record
+     * @param to Offset after the last record
+     * @return The offset after the record
+     */
+    static int nextRecord(ByteBuffer buf, int from, int to) {
+        return from < to ? record(buf, from, to, null, null, null, null) : to;
+    }
+
+    /*
+     * Tokenize one record into a block, or only scan it if the block is null,
+     * noting the offsets of the fields the filter tests in cells
+     * @return The offset after the record
+     */
+    private static int record(ByteBuffer buf, int p, int to, RecordBlock block, boolean[] keep,
+            RowFilter.Bound filter, int[] cells) {
+        if (block != null)
+            block.startRecord();
+        boolean endOfRecord = false;
+        for (int field = 0; !endOfRecord; field++) {
+            boolean kept = block != null && (keep == null || field >= keep.length || keep[field]);
+            int cell = filter == null ? -1 : filter.cell(field);
+            int start = p;
+            int fieldStart;
+            int fieldEnd;
+            if (p < to && buf.get(p) == QUOTE) {
+                boolean escaped = false;
+                int closing = -1;
+                p++;
+                while (p < to) {
+                    byte b = buf.get(p);
+                    if (b == QUOTE) {
+                        if (p + 1 < to && buf.get(p + 1) == QUOTE) {
+                            escaped = true;
+                            p += 2;
+                            continue;
+                        }
+                        closing = p++;
+                        break;
+                    }
+                    if (b == CR)
+                        escaped = true;
+                    p++;
+                }
+                // Text following the closing quote is part of the value
+                int trailing = p;
+                p = skipUnquoted(buf, p, to);
+                if (escaped || closing < 0 || p > trailing) {
+                    fieldStart = ~start;
+                    fieldEnd = p;
+                } else {
+                    fieldStart = start + 1;
+                    fieldEnd = closing;
+                }
+            } else {
+                p = skipUnquoted(buf, p, to);
+                fieldStart = start;
+                fieldEnd = p;
+            }
+            if (kept)
+                block.addField(fieldStart, fieldEnd);
+            if (cell >= 0) {
+                cells[cell * 2] = fieldStart;
+                cells[cell * 2 + 1] = fieldEnd;
+            }
+
+            if (p < to && buf.get(p) == COMMA) {
+                p++;
+            } else {
+                if (p < to && buf.get(p) == CR)
+                    p++;
+                if (p < to && buf.get(p) == LF)
+                    p++;
+                endOfRecord = true;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Decode a field
+     * @param buf The CSV data
+     * @param start The start offset, complemented if the field is escaped
+     * @param end The end offset
+     * @return The value of the field
+     */
+    static String decode(ByteBuffer buf, int start, int end) {
+        if (start >= 0) {
+            if (buf.hasArray())
+                return new String(buf.array(), buf.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++)
+                bytes[i] = buf.get(start + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        byte[] bytes = new byte[end - ~start];
+        int len = 0;
+        int p = ~start + 1;
+        while (p < end) {
+            byte b = buf.get(p);
+            if (b == QUOTE) {
+                if (p + 1 < end && buf.get(p + 1) == QUOTE) {
+                    p++;
+                } else {
+                    p++;
+                    break;
+                }
+            } else if (b == CR) {
+                if (p + 1 < end && buf.get(p + 1) == LF)
+                    p++;
+                b = LF;
+            }
+            bytes[len++] = b;
+            p++;
+        }
+        while (p < end)
+            bytes[len++] = buf.get(p++);
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compare two fields without decoding plain fields
+     * @return true if the fields have the same value
+     */
+    static boolean equal(ByteBuffer buf1, int start1, int end1, ByteBuffer buf2, int start2, int end2) {
+        if (start1 < 0 || start2 < 0)
+            return decode(buf1, start1, end1).equals(decode(buf2, start2, end2));
+        if (end1 - start1 != end2 - start2)
+            return false;
+        if (buf1.hasArray() && buf2.hasArray()) {
+            byte[] a1 = buf1.array();
+            byte[] a2 = buf2.array();
+            int p1 = buf1.arrayOffset() + start1;
+            int p2 = buf2.arrayOffset() + start2;
+            for (int i = 0, n = end1 - start1; i < n; i++) {
+                if (a1[p1 + i] != a2[p2 + i])
+                    return false;
+            }
+            return true;
+        }
+        for (int i = 0, n = end1 - start1; i < n; i++) {
+            if (buf1.get(start1 + i) != buf2.get(start2 + i))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compare a field with a UTF-8 encoded value
+     * @param buf The data the field offsets refer to
+     * @param start The start offset, negative for a field that needs unescaping
+     * @param end The end offset
+     * @param value Holds the value
+     * @param from The first byte of the value
+     * @param to The end of the value
+     * @return true if the field has the value
+     */
+    static boolean equal(ByteBuffer buf, int start, int end, byte[] value, int from, int to) {
+        if (start < 0)
+            return decode(buf, start, end).equals(new String(value, from, to - from, StandardCharsets.UTF_8));
+        if (end - start != to - from)
+            return false;
+        for (int i = 0, n = end - start; i < n; i++) {
+            if (buf.get(start + i) != value[from + i])
+                return false;
+        }
+        return true;
+    }
+
+    private static int skipUnquoted(ByteBuffer buf, int p, int to) {
+        while (p < to) {
+            byte b = buf.get(p);
+            if (b == COMMA || b == CR || b == LF)
+                break;
+            p++;
+        }
+        return p;
+    }
+}
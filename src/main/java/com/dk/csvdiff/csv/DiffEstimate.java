@@ -0,0 +1,228 @@
+package com.dk.csvdiff.csv;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estimates how different two data sets are from a single pass over each,
+ * without holding their rows. The distinct ids of each data set are counted
+ * with a HyperLogLog sketch. A hash of each id and of the cells of the columns both
+ * data sets have is kept for a sample of the ids: those whose hash starts with
+ * enough zero bits to keep the sample within a fixed size. As the same ids are
+ * sampled from both data sets, the samples give the share of ids missing from either
+ * and the share of rows that changed, which are scaled up by the id counts.
+ * Data sets small enough to be sampled whole are compared exactly.
+ * Cells are compared as text, with '0' matching an empty cell if asked.
+ *
+ * @author darrenkennedy
+ */
+public final class DiffEstimate {
+    // Sampled ids kept from each data set
+    private static final int SAMPLE = 1 << 16;
+    // Standard errors in the 95% bounds
+    private static final double Z = 1.96;
+
+    /**
+     * An estimated count with the half width of its 95% confidence interval
+     */
+    public static final class Count {
+        private final long value;
+        private final long error;
+
+        Count(double value, double error) {
+            this.value = Math.round(value);
+            this.error = Math.round(Math.ceil(error));
+        }
+
+        /**
+         * @return The estimated count
+         */
+        public long getValue() {
+            return value;
+        }
+
+        /**
+         * @return The count is within this of the estimate 95% of the time, 0 if it is exact
+         */
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return error == 0 ? Long.toString(value) : value + " +/- " + error;
+        }
+    }
+
+    private final Count rowsA;
+    private final Count rowsB;
+    private final Count missingA;
+    private final Count missingB;
+    private final Count changed;
+    private final long rowsReadA;
+    private final long rowsReadB;
+
+    private DiffEstimate(Side a, Side b) {
+        rowsReadA = a.rows;
+        rowsReadB = b.rows;
+        int level = Math.max(a.level, b.level);
+        a.sampleAt(level);
+        b.sampleAt(level);
+        int onlyA = 0;
+        int changedRows = 0;
+        for (Map.Entry<Long, Long> e: a.sample.entrySet()) {
+            Long other = b.sample.get(e.getKey());
+            if (other == null)
+                onlyA++;
+            else if (!other.equals(e.getValue()))
+                changedRows++;
+        }
+        int onlyB = b.sample.size() - (a.sample.size() - onlyA);
+
+        if (level == 0) {
+            rowsA = new Count(a.sample.size(), 0);
+            rowsB = new Count(b.sample.size(), 0);
+            missingA = new Count(onlyB, 0);
+            missingB = new Count(onlyA, 0);
+            changed = new Count(changedRows, 0);
+        } else {
+            rowsA = cardinality(a.ids.estimate());
+            rowsB = cardinality(b.ids.estimate());
+            missingA = share(onlyB, b.sample.size(), rowsB);
+            missingB = share(onlyA, a.sample.size(), rowsA);
+            changed = share(changedRows, a.sample.size(), rowsA);
+        }
+    }
+
+    private static Count cardinality(long estimate) {
+        return new Count(estimate, Z * HyperLogLog.relativeError() * estimate);
+    }
+
+    /*
+     * Scale the share of a sample up to a whole data set. No rows in a sample
+     * bounds the share by 3 / n, the rule of three.
+     */
+    private static Count share(int k, int n, Count total) {
+        if (n == 0)
+            return new Count(0, 0);
+        double q = (double) k / n;
+        double bound = k == 0 ? 3.0 / n : Z * Math.sqrt(q * (1 - q) / n);
+        return new Count(q * total.value, bound * total.value + q * total.error);
+    }
+
+    /**
+     * Read both data sets to the end and estimate their differences
+     * @param a The Rows of data set A
+     * @param b The Rows of data set B
+     * @param keyColumns The key column names
+     * @param zeroMatchesNull true if '0' matches an empty cell
+     * @return The estimate
+     * @throws IOException
+     */
+    public static DiffEstimate estimate(RowSource a, RowSource b, List<String> keyColumns, boolean zeroMatchesNull)
+            throws IOException {
+        // Cells of columns only one data set has do not make rows differ
+        Set<String> inB = new HashSet<>(b.getHeaders());
+        List<String> columns = new ArrayList<>();
+        for (String column: a.getHeaders()) {
+            if (inB.contains(column) && !keyColumns.contains(column))
+                columns.add(column);
+        }
+        Side sideA = new Side();
+        Side sideB = new Side();
+        sideA.read(a, new RowHasher(keyColumns, columns, zeroMatchesNull));
+        sideB.read(b, new RowHasher(keyColumns, columns, zeroMatchesNull));
+        return new DiffEstimate(sideA, sideB);
+    }
+
+    /**
+     * @return The distinct ids of data set A
+     */
+    public Count getRowsA() {
+        return rowsA;
+    }
+
+    /**
+     * @return The distinct ids of data set B
+     */
+    public Count getRowsB() {
+        return rowsB;
+    }
+
+    /**
+     * @return The rows read from data set A, counting repeated ids
+     */
+    public long getRowsReadA() {
+        return rowsReadA;
+    }
+
+    /**
+     * @return The rows read from data set B, counting repeated ids
+     */
+    public long getRowsReadB() {
+        return rowsReadB;
+    }
+
+    /**
+     * @return The rows of data set B whose ids are missing from data set A
+     */
+    public Count getMissingA() {
+        return missingA;
+    }
+
+    /**
+     * @return The rows of data set A whose ids are missing from data set B
+     */
+    public Count getMissingB() {
+        return missingB;
+    }
+
+    /**
+     * @return The rows with an id in both data sets whose cells differ
+     */
+    public Count getChanged() {
+        return changed;
+    }
+
+    /*
+     * The sketches of one data set
+     */
+    private static final class Side {
+        final HyperLogLog ids = new HyperLogLog();
+        // Content hash by id hash of the sampled ids
+        final Map<Long, Long> sample = new HashMap<>();
+        // Ids are sampled if their hash starts with this many zero bits
+        int level;
+        long rows;
+
+        void read(RowSource source, RowHasher hasher) throws IOException {
+            for (Row row = source.next(); row != null; row = source.next()) {
+                rows++;
+                long id = hasher.key(row);
+                ids.add(id);
+                if (Long.numberOfLeadingZeros(id) < level)
+                    continue;
+                sample.put(id, hasher.content(row));
+                while (sample.size() > SAMPLE)
+                    sampleAt(level + 1);
+            }
+        }
+
+        /*
+         * Keep only the ids whose hash starts with at least this many zero bits
+         */
+        void sampleAt(int level) {
+            this.level = level;
+            for (Iterator<Long> i = sample.keySet().iterator(); i.hasNext(); ) {
+                if (Long.numberOfLeadingZeros(i.next()) < level)
+                    i.remove();
+            }
+        }
+    }
+}
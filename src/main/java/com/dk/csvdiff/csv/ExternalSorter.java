@@ -0,0 +1,224 @@
+package com.dk.csvdiff.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts the Rows of a source by id within a bounded memory budget.
+ * Rows are gathered into runs that fit the budget, each run is sorted and
+ * written to a temporary file, and the runs are merged back in id order.
+ * Rows with equal ids keep their input order so the last one read stays last.
+ *
+ * @author darrenkennedy
+ */
+public class ExternalSorter {
+    // Most runs merged at once, bounding the number of open files
+    private static final int MAX_FAN_IN = 64;
+    // Rough heap cost of a Row and of each String it holds
+    private static final long ROW_OVERHEAD = 64;
+    private static final long VALUE_OVERHEAD = 48;
+
+    private static final Comparator<Row> BY_ID = (r1, r2) -> r1.getKey().compareTo(r2.getKey());
+
+    private List<String> keyColumns;
+    private long memoryBudget;
+    private File tempDir;
+
+    /**
+     * @param idColumn The id column name
+     * @param memoryBudget Approximate heap in bytes to use for each run
+     * @param tempDir Directory for the runs or null for the system temp directory
+     */
+    public ExternalSorter(String idColumn, long memoryBudget, File tempDir) {
+        this(Collections.singletonList(idColumn), memoryBudget, tempDir);
+    }
+
+    /**
+     * @param keyColumns The key column names in key order
+     * @param memoryBudget Approximate heap in bytes to use for each run
+     * @param tempDir Directory for the runs or null for the system temp directory
+     */
+    public ExternalSorter(List<String> keyColumns, long memoryBudget, File tempDir) {
+        this.keyColumns = keyColumns;
+        this.memoryBudget = memoryBudget;
+        this.tempDir = tempDir;
+    }
+
+    /**
+     * Sort a source by id.
+     * The source is read to the end and closed before this returns.
+     * @param source The Rows to sort
+     * @return The Rows in id order, closing it deletes the runs
+     * @throws IOException
+     */
+    public RowSource sort(RowSource source) throws IOException {
+        List<String> headers = new ArrayList<>(source.getHeaders());
+        List<TempCsv> runs = new ArrayList<>();
+        List<Row> run = new ArrayList<>();
+
+        try (RowSource in = source) {
+            long used = 0;
+            Row row;
+            while ((row = in.next()) != null) {
+                run.add(row);
+                used += estimateSize(row);
+                if (used >= memoryBudget) {
+                    runs.add(writeRun(run, headers));
+                    run.clear();
+                    used = 0;
+                }
+            }
+            // Everything fitted in memory
+            if (runs.isEmpty()) {
+                run.sort(BY_ID);
+                return new ListSource(headers, run);
+            }
+
+            if (!run.isEmpty())
+                runs.add(writeRun(run, headers));
+            run = null;
+
+            while (runs.size() > MAX_FAN_IN)
+                runs = mergePass(runs, headers);
+        } catch (IOException | RuntimeException e) {
+            for (TempCsv t: runs)
+                t.close();
+            throw e;
+        }
+
+        return new MergedSource(runs, headers, keyColumns);
+    }
+
+    private TempCsv writeRun(List<Row> run, List<String> headers) throws IOException {
+        run.sort(BY_ID);
+        TempCsv t = new TempCsv(tempDir, headers);
+        for (Row r: run)
+            t.write(r);
+        return t;
+    }
+
+    /*
+     * Merge consecutive groups of runs, keeping the runs in order
+     */
+    private List<TempCsv> mergePass(List<TempCsv> runs, List<String> headers) throws IOException {
+        List<TempCsv> merged = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+            List<TempCsv> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+            TempCsv t = new TempCsv(tempDir, headers);
+            merged.add(t);
+            try (MergedSource m = new MergedSource(new ArrayList<>(group), headers, keyColumns)) {
+                Row r;
+                while ((r = m.next()) != null)
+                    t.write(r);
+            }
+        }
+        return merged;
+    }
+
+    private static long estimateSize(Row row) {
+        long size = ROW_OVERHEAD;
+        for (String v: row.copyValues())
+            size += VALUE_OVERHEAD + 2L * v.length();
+        return size;
+    }
+
+    /*
+     * A run that was never written to disk
+     */
+    private static class ListSource implements RowSource {
+        private Collection<String> headers;
+        private Iterator<Row> rows;
+
+        ListSource(Collection<String> headers, List<Row> rows) {
+            this.headers = headers;
+            this.rows = rows.iterator();
+        }
+
+        @Override
+        public Collection<String> getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public Row next() {
+            return rows.hasNext() ? rows.next() : null;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /*
+     * K-way merge of sorted runs, ties go to the earlier run
+     */
+    private static class MergedSource implements RowSource {
+        private static class Head {
+            final RowReader reader;
+            final int run;
+            Row row;
+
+            Head(RowReader reader, int run) {
+                this.reader = reader;
+                this.run = run;
+            }
+        }
+
+        private List<TempCsv> runs;
+        private List<String> headers;
+        private List<RowReader> readers;
+        private PriorityQueue<Head> heads;
+
+        MergedSource(List<TempCsv> runs, List<String> headers, List<String> keyColumns) throws IOException {
+            this.runs = runs;
+            this.headers = headers;
+            this.readers = new ArrayList<>();
+            this.heads = new PriorityQueue<>(Math.max(runs.size(), 1), (h1, h2) -> {
+                int c = h1.row.getKey().compareTo(h2.row.getKey());
+                return c != 0 ? c : Integer.compare(h1.run, h2.run);
+            });
+
+            for (int i = 0; i < runs.size(); i++) {
+                RowReader reader = runs.get(i).read(keyColumns);
+                readers.add(reader);
+                Head h = new Head(reader, i);
+                h.row = reader.next();
+                if (h.row != null)
+                    heads.add(h);
+            }
+        }
+
+        @Override
+        public Collection<String> getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public Row next() throws IOException {
+            Head h = heads.poll();
+            if (h == null)
+                return null;
+
+            Row row = h.row;
+            h.row = h.reader.next();
+            if (h.row != null)
+                heads.add(h);
+            return row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (RowReader r: readers)
+                r.close();
+            for (TempCsv t: runs)
+                t.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.dk.csvdiff.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 128-bit content fingerprints of rows, kept as two independent 64-bit halves.
+ * A row's fingerprint is the sum of a hash of each (column name, value) pair,
+ * so it does not depend on column order and the cells of columns missing
+ * from another file can be subtracted again.
+ *
+ * @author darrenkennedy
+ */
+final class Fingerprint {
+    private static final long[] SEEDS = {0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL};
+    private static final long PRIME = 0x100000001B3L;
+
+    private Fingerprint() {
+    }
+
+    /**
+     * @param name A column name
+     * @param half 0 or 1
+     * @return The hash of the column name
+     */
+    static long column(String name, int half) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        return mix(hash(ByteBuffer.wrap(bytes), 0, bytes.length, SEEDS[half] ^ PRIME));
+    }
+
+    /**
+     * @param buf Plain field bytes
+     * @param half 0 or 1
+     * @return The hash of the value
+     */
+    static long value(ByteBuffer buf, int start, int end, int half) {
+        return hash(buf, start, end, SEEDS[half]);
+    }
+
+    /**
+     * @param value A decoded value
+     * @param half 0 or 1
+     * @return The hash of the value, the same as for its UTF-8 bytes
+     */
+    static long value(String value, int half) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return hash(ByteBuffer.wrap(bytes), 0, bytes.length, SEEDS[half]);
+    }
+
+    /**
+     * @param half 0 or 1
+     * @return The hash of an empty value
+     */
+    static long empty(int half) {
+        return mix(SEEDS[half]);
+    }
+
+    /**
+     * @return The share of one cell in a row fingerprint
+     */
+    static long cell(long columnHash, long valueHash) {
+        return mix(columnHash + valueHash * PRIME);
+    }
+
+    private static long hash(ByteBuffer buf, int start, int end, long seed) {
+        long h = seed;
+        for (int i = start; i < end; i++)
+            h = (h ^ (buf.get(i) & 0xff)) * PRIME;
+        return mix(h ^ (end - start));
+    }
+
+    // The MurmurHash3 finalizer
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,249 @@
+package com.dk.csvdiff.csv;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read only IdIndex of Keys sorted by their packed bytes and front coded:
+ * Keys are held in buckets that start with a whole Key, and every other Key
+ * in a bucket is held as the length of the prefix it shares with the Key
+ * before it and the rest of its bytes. Ids with long shared prefixes take
+ * a few bytes each plus their ordinal instead of a Key object and a map entry.
+ * A lookup is a binary search of the first Key of each bucket and a scan of
+ * one bucket, comparing bytes in place.
+ *
+ * @author darrenkennedy
+ */
+final class FrontCodedIdIndex implements IdIndex {
+    // Keys per bucket, trading lookup time for space
+    private static final int BUCKET_SIZE = 16;
+
+    private final byte[] data;
+    private final int[] buckets;    // Offset in data of each bucket
+    private final int[] ordinals;   // Ordinal of each Key in sorted order
+
+    private FrontCodedIdIndex(byte[] data, int[] buckets, int[] ordinals) {
+        this.data = data;
+        this.buckets = buckets;
+        this.ordinals = ordinals;
+    }
+
+    /**
+     * Build the index for the rows of a store
+     * @param store The rows, which all have different Keys
+     * @param keyColumns The key column names
+     * @return The index
+     */
+    static FrontCodedIdIndex build(ColumnStore store, List<String> keyColumns) {
+        int size = store.size();
+        byte[][] keys = new byte[size][];
+        long total = 0;
+        for (int ordinal = 0; ordinal < size; ordinal++) {
+            keys[ordinal] = store.key(ordinal, store.layout(ordinal).schema.positions(keyColumns)).bytes();
+            total += keys[ordinal].length;
+        }
+        int[] sorted = new int[size];
+        for (int i = 0; i < size; i++)
+            sorted[i] = i;
+        sort(sorted, keys);
+
+        Output out = new Output((int) Math.min(Integer.MAX_VALUE - 8, total / 2 + 16));
+        int[] buckets = new int[(size + BUCKET_SIZE - 1) / BUCKET_SIZE];
+        byte[] previous = null;
+        for (int i = 0; i < size; i++) {
+            byte[] key = keys[sorted[i]];
+            if (i % BUCKET_SIZE == 0) {
+                buckets[i / BUCKET_SIZE] = out.size;
+                out.varint(key.length);
+                out.bytes(key, 0, key.length);
+            } else {
+                int shared = commonPrefix(previous, 0, previous.length, key);
+                out.varint(shared);
+                out.varint(key.length - shared);
+                out.bytes(key, shared, key.length);
+            }
+            previous = key;
+            keys[sorted[i]] = null;
+        }
+        return new FrontCodedIdIndex(out.trimmed(), buckets, sorted);
+    }
+
+    @Override
+    public int get(Key key) {
+        byte[] k = key.bytes();
+
+        // The last bucket starting with a Key no greater than the Key
+        int lo = 0;
+        int hi = buckets.length - 1;
+        int bucket = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int p = buckets[mid];
+            int length = varint(p);
+            p += varintSize(length);
+            int c = compare(data, p, p + length, k);
+            if (c == 0)
+                return ordinals[mid * BUCKET_SIZE];
+            if (c < 0) {
+                bucket = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (bucket < 0)
+            return -1;
+
+        int p = buckets[bucket];
+        int length = varint(p);
+        p += varintSize(length);
+        // The length of the prefix the Key shares with the Key before the next one
+        int matched = commonPrefix(data, p, p + length, k);
+        p += length;
+        int end = Math.min(ordinals.length, (bucket + 1) * BUCKET_SIZE);
+        for (int i = bucket * BUCKET_SIZE + 1; i < end; i++) {
+            int shared = varint(p);
+            p += varintSize(shared);
+            int suffix = varint(p);
+            p += varintSize(suffix);
+            if (shared < matched)
+                return -1;      // Differs from the Key where the Key before did not, so is greater
+            if (shared == matched) {
+                int j = 0;
+                while (j < suffix && matched + j < k.length && data[p + j] == k[matched + j])
+                    j++;
+                if (j == suffix && shared + suffix == k.length)
+                    return ordinals[i];
+                if (j < suffix && (matched + j == k.length || (data[p + j] & 0xFF) > (k[matched + j] & 0xFF)))
+                    return -1;  // Greater than the Key
+                matched += j;
+            }
+            // Otherwise it shares the byte that made the Key before less than the Key
+            p += suffix;
+        }
+        return -1;
+    }
+
+    @Override
+    public void put(Key key, int ordinal) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean accepts(Key key) {
+        return false;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    /**
+     * @return Approximate bytes held by the index
+     */
+    long footprint() {
+        return data.length + buckets.length * 4L + ordinals.length * 4L;
+    }
+
+    private int varint(int p) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data[p++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0)
+            size++;
+        return size;
+    }
+
+    /*
+     * Compare bytes of the data with a Key, as unsigned bytes
+     */
+    private static int compare(byte[] data, int from, int to, byte[] k) {
+        int n = Math.min(to - from, k.length);
+        for (int i = 0; i < n; i++) {
+            if (data[from + i] != k[i])
+                return (data[from + i] & 0xFF) - (k[i] & 0xFF);
+        }
+        return (to - from) - k.length;
+    }
+
+    private static int commonPrefix(byte[] data, int from, int to, byte[] k) {
+        int n = Math.min(to - from, k.length);
+        int i = 0;
+        while (i < n && data[from + i] == k[i])
+            i++;
+        return i;
+    }
+
+    /*
+     * Merge sort of row ordinals by their Keys, without boxing
+     */
+    private static void sort(int[] ordinals, byte[][] keys) {
+        int[] from = ordinals;
+        int[] to = new int[ordinals.length];
+        for (int width = 1; width < ordinals.length; width *= 2) {
+            for (int lo = 0; lo < ordinals.length; lo += 2 * width) {
+                int mid = Math.min(lo + width, ordinals.length);
+                int hi = Math.min(lo + 2 * width, ordinals.length);
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (j >= hi || i < mid && compare(keys[from[i]], 0, keys[from[i]].length, keys[from[j]]) <= 0)
+                        to[k] = from[i++];
+                    else
+                        to[k] = from[j++];
+                }
+            }
+            int[] t = from;
+            from = to;
+            to = t;
+        }
+        if (from != ordinals)
+            System.arraycopy(from, 0, ordinals, 0, ordinals.length);
+    }
+
+    /*
+     * A growable byte array
+     */
+    private static final class Output {
+        byte[] buf;
+        int size;
+
+        Output(int capacity) {
+            buf = new byte[Math.max(16, capacity)];
+        }
+
+        void varint(int value) {
+            while ((value & ~0x7F) != 0) {
+                ensure(1);
+                buf[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            ensure(1);
+            buf[size++] = (byte) value;
+        }
+
+        void bytes(byte[] b, int from, int to) {
+            ensure(to - from);
+            System.arraycopy(b, from, buf, size, to - from);
+            size += to - from;
+        }
+
+        byte[] trimmed() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(size + extra, buf.length * 2));
+        }
+    }
+}
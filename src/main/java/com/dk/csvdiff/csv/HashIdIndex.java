@@ -0,0 +1,34 @@
+package com.dk.csvdiff.csv;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An IdIndex backed by a HashMap.
+ *
+ * @author darrenkennedy
+ */
+final class HashIdIndex implements IdIndex {
+    private final Map<Key, Integer> ordinals = new HashMap<>();
+
+    @Override
+    public int get(Key key) {
+        Integer ordinal = ordinals.get(key);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    @Override
+    public void put(Key key, int ordinal) {
+        ordinals.put(key, ordinal);
+    }
+
+    @Override
+    public boolean accepts(Key key) {
+        return true;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+}
@@ -0,0 +1,51 @@
+package com.dk.csvdiff.csv;
+
+/**
+ * Estimates the number of distinct 64-bit hashes added in a fixed 16 KB,
+ * with a standard error of about 0.8%.
+ *
+ * @author darrenkennedy
+ */
+final class HyperLogLog {
+    private static final int BITS = 14;
+    private static final int M = 1 << BITS;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+    private final byte[] registers = new byte[M];
+
+    /**
+     * @param hash A well mixed 64-bit hash
+     */
+    void add(long hash) {
+        int index = (int) (hash >>> (64 - BITS));
+        // The marker bit bounds the run of zeros when the remaining bits are all zero
+        int rank = Long.numberOfLeadingZeros((hash << BITS) | (1L << (BITS - 1))) + 1;
+        if (rank > registers[index])
+            registers[index] = (byte) rank;
+    }
+
+    /**
+     * @return The estimated number of distinct hashes added
+     */
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r: registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double estimate = ALPHA * M * M / sum;
+        // Small sets are counted far better by the share of empty registers
+        if (estimate <= 2.5 * M && zeros > 0)
+            estimate = M * Math.log((double) M / zeros);
+        return Math.round(estimate);
+    }
+
+    /**
+     * @return The standard error of an estimate relative to the estimate
+     */
+    static double relativeError() {
+        return 1.04 / Math.sqrt(M);
+    }
+}
@@ -0,0 +1,33 @@
+package com.dk.csvdiff.csv;
+
+/**
+ * Finds the row ordinal of a Key in a Sheet.
+ *
+ * @author darrenkennedy
+ */
+interface IdIndex {
+    /**
+     * @param key The Key to look up
+     * @return The ordinal of the row with the Key or -1
+     */
+    int get(Key key);
+
+    /**
+     * Add a Key or move it to another row
+     * @param key The Key
+     * @param ordinal The ordinal of the row
+     * @throws UnsupportedOperationException if the index is read only
+     */
+    void put(Key key, int ordinal);
+
+    /**
+     * @param key A Key
+     * @return false if the Key cannot be added to this index
+     */
+    boolean accepts(Key key);
+
+    /**
+     * @return true if put is not supported
+     */
+    boolean isReadOnly();
+}
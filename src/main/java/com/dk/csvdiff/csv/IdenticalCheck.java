@@ -0,0 +1,144 @@
+package com.dk.csvdiff.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Decides whether two data sets have the same rows as cheaply as it can, stopping at the
+ * first difference it is sure of. Files with the same bytes are identical without being parsed.
+ * Otherwise the rows of A are reduced to 64-bit hashes of their key and cells, which are sorted,
+ * and each row of B must match a hash of A not matched before: the first row of B that cannot
+ * ends the check. Row and column order do not matter, and '0' may match an empty cell.
+ *
+ * @author darrenkennedy
+ */
+public final class IdenticalCheck {
+    private static final int BUFFER = 1 << 20;
+
+    /**
+     * The outcome of a check
+     */
+    public enum Outcome {
+        /** The files have the same bytes */
+        SAME_BYTES(true),
+        /** The data sets have the same rows, in any order */
+        SAME_ROWS(true),
+        /** The data sets do not have the same columns */
+        DIFFERENT_COLUMNS(false),
+        /** A row of one data set is not in the other */
+        DIFFERENT_ROWS(false);
+
+        private final boolean identical;
+
+        Outcome(boolean identical) {
+            this.identical = identical;
+        }
+
+        /**
+         * @return true if the data sets have the same rows
+         */
+        public boolean isIdentical() {
+            return identical;
+        }
+    }
+
+    private IdenticalCheck() {
+    }
+
+    /**
+     * Compare two files byte by byte, stopping at the first difference
+     * @param a A file
+     * @param b Another file
+     * @return true if the files have the same size and bytes
+     * @throws IOException
+     */
+    public static boolean sameBytes(File a, File b) throws IOException {
+        if (a.length() != b.length())
+            return false;
+        try (RandomAccessFile fileA = new RandomAccessFile(a, "r");
+             RandomAccessFile fileB = new RandomAccessFile(b, "r")) {
+            FileChannel channelA = fileA.getChannel();
+            FileChannel channelB = fileB.getChannel();
+            ByteBuffer bufA = ByteBuffer.allocateDirect(BUFFER);
+            ByteBuffer bufB = ByteBuffer.allocateDirect(BUFFER);
+            while (true) {
+                int n = fill(channelA, bufA);
+                if (fill(channelB, bufB) != n || !bufA.equals(bufB))
+                    return false;
+                if (n < BUFFER)
+                    return true;
+            }
+        }
+    }
+
+    /*
+     * Read a buffer full or to the end of a channel
+     * @return The bytes read, ready to be compared
+     */
+    private static int fill(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.clear();
+        while (buf.hasRemaining() && channel.read(buf) >= 0) {
+            // Keep reading
+        }
+        buf.flip();
+        return buf.limit();
+    }
+
+    /**
+     * Compare the rows of two data sets in any order, stopping at the first row of B that is not in A
+     * @param a The Rows of data set A
+     * @param b The Rows of data set B
+     * @param keyColumns The key column names
+     * @param zeroMatchesNull true if '0' matches an empty cell
+     * @return SAME_ROWS, DIFFERENT_COLUMNS or DIFFERENT_ROWS
+     * @throws IOException
+     */
+    public static Outcome sameRows(RowSource a, RowSource b, List<String> keyColumns, boolean zeroMatchesNull)
+            throws IOException {
+        if (!new HashSet<>(a.getHeaders()).equals(new HashSet<>(b.getHeaders())))
+            return Outcome.DIFFERENT_COLUMNS;
+        List<String> columns = new ArrayList<>(a.getHeaders());
+        columns.removeAll(keyColumns);
+        RowHasher hasherA = new RowHasher(keyColumns, columns, zeroMatchesNull);
+        RowHasher hasherB = new RowHasher(keyColumns, columns, zeroMatchesNull);
+
+        long[] hashes = new long[1024];
+        int n = 0;
+        for (Row row = a.next(); row != null; row = a.next()) {
+            if (n == hashes.length)
+                hashes = Arrays.copyOf(hashes, n * 2);
+            hashes[n++] = hash(hasherA, row);
+        }
+        Arrays.sort(hashes, 0, n);
+
+        // Rows of A matched so far, so a row repeated in B must be repeated in A too
+        BitSet matched = new BitSet(n);
+        int rowsB = 0;
+        for (Row row = b.next(); row != null; row = b.next()) {
+            long h = hash(hasherB, row);
+            int i = Arrays.binarySearch(hashes, 0, n, h);
+            if (i < 0)
+                return Outcome.DIFFERENT_ROWS;
+            while (i > 0 && hashes[i - 1] == h)
+                i--;
+            i = matched.nextClearBit(i);
+            if (i >= n || hashes[i] != h)
+                return Outcome.DIFFERENT_ROWS;
+            matched.set(i);
+            rowsB++;
+        }
+        return rowsB == n ? Outcome.SAME_ROWS : Outcome.DIFFERENT_ROWS;
+    }
+
+    private static long hash(RowHasher hasher, Row row) {
+        return Fingerprint.cell(hasher.key(row), hasher.content(row));
+    }
+}
@@ -0,0 +1,274 @@
+package com.dk.csvdiff.csv;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The key of a Row: the values of one or more key columns packed into a single byte array.
+ * Each part is UTF-8 with a 0 byte escaped as 0 0xFF and is ended by 0 0,
+ * so comparing the packed bytes orders keys part by part as Strings compare,
+ * with a shorter part before a longer part it begins.
+ * The hash is taken once, so Keys are cheap to look up in hash tables.
+ *
+ * @author darrenkennedy
+ */
+public final class Key implements Comparable<Key> {
+    private final byte[] bytes;
+    private final int parts;
+    private final int hash;
+
+    private Key(byte[] bytes, int parts) {
+        this.bytes = bytes;
+        this.parts = parts;
+        int h = 1;
+        for (byte b: bytes)
+            h = 31 * h + b;
+        this.hash = h;
+    }
+
+    /**
+     * @param parts The values of the key columns in order
+     * @return The Key
+     */
+    public static Key of(String... parts) {
+        return of(Arrays.asList(parts));
+    }
+
+    /**
+     * @param parts The values of the key columns in order
+     * @return The Key
+     */
+    public static Key of(List<String> parts) {
+        Builder b = new Builder();
+        for (String part: parts)
+            b.add(part);
+        return b.build();
+    }
+
+    /**
+     * @return The number of key columns
+     */
+    public int size() {
+        return parts;
+    }
+
+    /**
+     * @return The values of the key columns in order
+     */
+    public String[] parts() {
+        String[] values = new String[parts];
+        ByteArrayOutputStream part = new ByteArrayOutputStream();
+        int p = 0;
+        for (int i = 0; i < parts; i++) {
+            part.reset();
+            while (bytes[p] != 0 || bytes[p + 1] != 0) {
+                if (bytes[p] == 0) {
+                    part.write(0);
+                    p += 2;
+                } else {
+                    part.write(bytes[p++]);
+                }
+            }
+            p += 2;
+            values[i] = new String(part.toByteArray(), StandardCharsets.UTF_8);
+        }
+        return values;
+    }
+
+    /**
+     * @return The packed bytes, which must not be changed
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return true if this Key is a single value in the form Long.toString gives,
+     * without a sign, leading zeros or spaces other than Long.toString would have
+     */
+    boolean isLong() {
+        // The value, then the 0 0 terminator
+        int n = bytes.length - 2;
+        if (parts != 1 || n < 1 || n > 20)
+            return false;
+        boolean negative = bytes[0] == '-';
+        int p = negative ? 1 : 0;
+        if (p == n || bytes[p] == '0' && (n > p + 1 || negative))
+            return false;
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long value = 0;
+        for (; p < n; p++) {
+            int digit = bytes[p] - '0';
+            if (digit < 0 || digit > 9)
+                return false;
+            // Accumulate negatively so Long.MIN_VALUE fits
+            if (value < (limit + digit) / 10)
+                return false;
+            value = value * 10 - digit;
+        }
+        return true;
+    }
+
+    /**
+     * @return The value of a Key for which isLong() is true
+     */
+    long toLong() {
+        int n = bytes.length - 2;
+        boolean negative = bytes[0] == '-';
+        long value = 0;
+        for (int p = negative ? 1 : 0; p < n; p++)
+            value = value * 10 - (bytes[p] - '0');
+        return negative ? value : -value;
+    }
+
+    /**
+     * Check whether the key cells of a stored row have the values of this Key, without decoding plain cells
+     * @param store The rows
+     * @param ordinal The row ordinal
+     * @param keyPos The positions of the key columns in the Schema of the row
+     * @return true if the row has this Key
+     */
+    boolean matches(ColumnStore store, int ordinal, int[] keyPos) {
+        if (keyPos.length != parts)
+            return false;
+        int p = 0;
+        for (int i = 0; i < parts; i++) {
+            int start = p;
+            boolean escaped = false;
+            while (bytes[p] != 0 || bytes[p + 1] != 0) {
+                escaped |= bytes[p] == 0;
+                p += bytes[p] == 0 ? 2 : 1;
+            }
+            // A part holding a 0 byte is not the same bytes as its cell so it is decoded
+            boolean same = escaped ? parts()[i].equals(store.get(ordinal, keyPos[i]))
+                    : store.equal(ordinal, keyPos[i], bytes, start, p);
+            if (!same)
+                return false;
+            p += 2;
+        }
+        return true;
+    }
+
+    /**
+     * Keys are equal if they have the same values in the same order
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null || getClass() != obj.getClass())
+            return false;
+        Key other = (Key) obj;
+        return hash == other.hash && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    /**
+     * Keys are ordered part by part in the order of String.compareTo
+     */
+    @Override
+    public int compareTo(Key o) {
+        int n = Math.min(bytes.length, o.bytes.length);
+        for (int i = 0; i < n; i++) {
+            if (bytes[i] != o.bytes[i])
+                return utf16Order(bytes[i]) - utf16Order(o.bytes[i]);
+        }
+        return bytes.length - o.bytes.length;
+    }
+
+    /**
+     * @return The value of a single column Key or the values joined with ','
+     */
+    @Override
+    public String toString() {
+        return String.join(",", parts());
+    }
+
+    /*
+     * UTF-8 bytes compare in code point order but Strings compare in UTF-16 order,
+     * where U+E000 to U+FFFF come after the surrogate pairs of supplementary characters.
+     * The first differing bytes of two keys start the same position of a character
+     * so moving their lead bytes 0xEE and 0xEF above 0xF4 is enough.
+     */
+    private static int utf16Order(byte b) {
+        int u = b & 0xFF;
+        return u == 0xEE || u == 0xEF ? u + 0x10 : u;
+    }
+
+    /**
+     * Packs the parts of a Key
+     */
+    static final class Builder {
+        private byte[] buf = new byte[32];
+        private int size;
+        private int parts;
+
+        /**
+         * @param part The next part
+         * @return this Builder
+         */
+        Builder add(String part) {
+            byte[] utf8 = part.getBytes(StandardCharsets.UTF_8);
+            return add(utf8, 0, utf8.length);
+        }
+
+        /**
+         * @param utf8 Holds the UTF-8 bytes of the next part
+         * @param from The first byte of the part
+         * @param to The end of the part
+         * @return this Builder
+         */
+        Builder add(byte[] utf8, int from, int to) {
+            ensure(2 * (to - from) + 2);
+            for (int i = from; i < to; i++) {
+                buf[size++] = utf8[i];
+                if (utf8[i] == 0)
+                    buf[size++] = (byte) 0xFF;
+            }
+            return end();
+        }
+
+        /**
+         * @param utf8 Holds the UTF-8 bytes of the next part
+         * @param from The first byte of the part
+         * @param to The end of the part
+         * @return this Builder
+         */
+        Builder add(ByteBuffer utf8, int from, int to) {
+            ensure(2 * (to - from) + 2);
+            for (int i = from; i < to; i++) {
+                byte b = utf8.get(i);
+                buf[size++] = b;
+                if (b == 0)
+                    buf[size++] = (byte) 0xFF;
+            }
+            return end();
+        }
+
+        /**
+         * @return The Key of the parts added so far
+         */
+        Key build() {
+            return new Key(Arrays.copyOf(buf, size), parts);
+        }
+
+        private Builder end() {
+            buf[size++] = 0;
+            buf[size++] = 0;
+            parts++;
+            return this;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(size + extra, buf.length * 2));
+        }
+    }
+}
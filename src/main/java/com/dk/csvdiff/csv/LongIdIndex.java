@@ -0,0 +1,187 @@
+package com.dk.csvdiff.csv;
+
+import java.util.Arrays;
+
+/**
+ * An IdIndex for ids that are whole numbers, held without an object per id.
+ * While ids are added in ascending order, each to the next row, and cover a
+ * dense range they are held as a bitmap with a running count of the ids before
+ * every word, so the ordinal of an id is its rank in the bitmap. Otherwise ids
+ * are held in an open addressing table of longs and ordinals.
+ * Only Keys for which Key.isLong() is true can be added.
+ *
+ * @author darrenkennedy
+ */
+final class LongIdIndex implements IdIndex {
+    // Most bits of bitmap per id before the bitmap is dropped for the table
+    private static final long MAX_BITS_PER_ID = 64;
+
+    private int size;
+
+    // The bitmap, null once the table is in use
+    private long[] bits = new long[1];
+    private int[] ranks = new int[1];      // Number of ids in the words before each word up to the last id
+    private long base;                     // The id of the first bit
+    private long last;                     // The greatest id
+
+    // The table, slots with an ordinal of 0 are empty
+    private long[] ids;
+    private int[] ordinals;                // Ordinal plus one
+    private int mask;
+
+    @Override
+    public int get(Key key) {
+        return key.isLong() ? get(key.toLong()) : -1;
+    }
+
+    /**
+     * @param id The id to look up
+     * @return The ordinal of the row with the id or -1
+     */
+    int get(long id) {
+        if (bits != null) {
+            if (size == 0 || id < base || id > last)
+                return -1;
+            long offset = id - base;
+            int w = (int) (offset >>> 6);
+            long word = bits[w];
+            long bit = 1L << offset;
+            if ((word & bit) == 0)
+                return -1;
+            return ranks[w] + Long.bitCount(word & (bit - 1));
+        }
+
+        for (int slot = spread(id) & mask; ; slot = (slot + 1) & mask) {
+            if (ordinals[slot] == 0)
+                return -1;
+            if (ids[slot] == id)
+                return ordinals[slot] - 1;
+        }
+    }
+
+    @Override
+    public void put(Key key, int ordinal) {
+        if (!key.isLong())
+            throw new IllegalArgumentException(key.toString());
+        put(key.toLong(), ordinal);
+    }
+
+    /**
+     * Add an id or move it to another row
+     * @param id The id
+     * @param ordinal The ordinal of the row
+     */
+    void put(long id, int ordinal) {
+        if (bits != null && !addToBitmap(id, ordinal))
+            toTable();
+        if (bits == null)
+            addToTable(id, ordinal);
+    }
+
+    @Override
+    public boolean accepts(Key key) {
+        return key.isLong();
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * @return true if the ids are held as a bitmap
+     */
+    boolean isBitmap() {
+        return bits != null;
+    }
+
+    /**
+     * @return Approximate bytes held by the index
+     */
+    long footprint() {
+        return bits != null ? bits.length * 8L + ranks.length * 4L : ids.length * 12L;
+    }
+
+    /*
+     * @return false if the id does not follow on from the ids in the bitmap
+     */
+    private boolean addToBitmap(long id, int ordinal) {
+        if (ordinal != size)
+            return false;
+        if (size == 0) {
+            base = id;
+        } else if (id <= last || id - base < 0 || (id - base) / MAX_BITS_PER_ID > size) {
+            // Out of order, overflowing or too sparse
+            return false;
+        }
+
+        long offset = id - base;
+        int w = (int) (offset >>> 6);
+        if (w >= bits.length) {
+            int length = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(w + 1L, bits.length * 2L));
+            bits = Arrays.copyOf(bits, length);
+            ranks = Arrays.copyOf(ranks, length);
+        }
+        // Ids are ascending so the ranks are only needed up to the word of the greatest id
+        int lastWord = size == 0 ? -1 : (int) ((last - base) >>> 6);
+        for (int i = lastWord + 1; i <= w; i++)
+            ranks[i] = size;
+        bits[w] |= 1L << offset;
+        last = id;
+        size++;
+        return true;
+    }
+
+    /*
+     * Move the ids from the bitmap into the table
+     */
+    private void toTable() {
+        long[] oldBits = bits;
+        int count = size;
+        bits = null;
+        ranks = null;
+        size = 0;
+        resize(Math.max(16, Integer.highestOneBit(Math.max(1, count) * 2) << 1));
+        int ordinal = 0;
+        for (int w = 0; w < oldBits.length && ordinal < count; w++) {
+            for (long word = oldBits[w]; word != 0; word &= word - 1)
+                addToTable(base + (w * 64L) + Long.numberOfTrailingZeros(word), ordinal++);
+        }
+    }
+
+    private void addToTable(long id, int ordinal) {
+        if (ids == null || (size + 1) * 3L > ids.length * 2L)
+            resize(ids == null ? 16 : ids.length * 2);
+        int slot = spread(id) & mask;
+        while (ordinals[slot] != 0 && ids[slot] != id)
+            slot = (slot + 1) & mask;
+        if (ordinals[slot] == 0)
+            size++;
+        ids[slot] = id;
+        ordinals[slot] = ordinal + 1;
+    }
+
+    private void resize(int capacity) {
+        long[] oldIds = ids;
+        int[] oldOrdinals = ordinals;
+        ids = new long[capacity];
+        ordinals = new int[capacity];
+        mask = capacity - 1;
+        if (oldIds == null)
+            return;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldOrdinals[i] != 0) {
+                int slot = spread(oldIds[i]) & mask;
+                while (ordinals[slot] != 0)
+                    slot = (slot + 1) & mask;
+                ids[slot] = oldIds[i];
+                ordinals[slot] = oldOrdinals[i];
+            }
+        }
+    }
+
+    private static int spread(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
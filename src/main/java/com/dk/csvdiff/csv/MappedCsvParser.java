@@ -0,0 +1,204 @@
+package com.dk.csvdiff.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses a UTF-8 CSV file by memory mapping it and tokenizing chunks of records in parallel.
+ * Chunks are cut at record boundaries. Whether a chunk starts inside a quoted field
+ * is worked out from the parity of the quotes before it, so quoted fields
+ * containing newlines are never split. Records are handed on in file order
+ * as blocks of field offsets into the mapped file.
+ *
+ * @author darrenkennedy
+ */
+class MappedCsvParser {
+    /**
+     * Receives the records of the file in order
+     */
+    interface Handler {
+        // Returns whether to keep each field of the records, or null to keep every field
+        boolean[] header(String[] headers);
+        // The conditions records must meet, called after the header, or null to keep every record
+        RowFilter.Bound filter();
+        // Called on a worker thread as soon as a block is tokenized
+        void tokenized(RecordBlock block);
+        void records(RecordBlock block);
+    }
+
+    private static final byte QUOTE = '"';
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    // Target size of the chunks tokenized by each task
+    private static final long CHUNK_SIZE = 8L << 20;
+    // Bytes read at a time when searching for a record boundary
+    private static final int SCAN_SIZE = 64 << 10;
+
+    private ExecutorService pool;
+    private long chunkSize;
+
+    /**
+     * @param pool Runs the chunk tasks, which never wait on each other
+     */
+    MappedCsvParser(ExecutorService pool) {
+        this(pool, CHUNK_SIZE);
+    }
+
+    /*
+     * For tests of chunk boundaries
+     */
+    MappedCsvParser(ExecutorService pool, long chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Parse a file
+     * @param file The CSV file
+     * @param handler Receives the header and then every record in file order
+     * @throws IOException
+     */
+    void parse(File file, Handler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                handler.header(new String[0]);
+                return;
+            }
+
+            // The header line
+            long dataStart = nextRecord(channel, 0, false);
+            RecordBlock header = tokenize(channel, 0, dataStart, null, null);
+            boolean[] keep = handler.header(header.size() == 0 ? new String[0] : header.values(0));
+            RowFilter.Bound filter = handler.filter();
+
+            // Quote parity at the start of every raw chunk
+            int chunks = (int) Math.max(1, (size - dataStart + chunkSize - 1) / chunkSize);
+            List<Future<Boolean>> parities = new ArrayList<>();
+            for (int c = 0; c < chunks; c++) {
+                final long from = dataStart + c * chunkSize;
+                final long to = Math.min(size, from + chunkSize);
+                parities.add(pool.submit(() -> countQuotes(channel, from, to)));
+            }
+            boolean[] inQuote = new boolean[chunks];
+            boolean odd = false;
+            for (int c = 0; c < chunks; c++) {
+                inQuote[c] = odd;
+                odd ^= get(parities.get(c));
+            }
+
+            // Tokenize the chunks between record boundaries
+            List<Future<RecordBlock>> results = new ArrayList<>();
+            for (int c = 0; c < chunks; c++) {
+                final long rawStart = dataStart + c * chunkSize;
+                final long rawEnd = rawStart + chunkSize;
+                final boolean startQuote = inQuote[c];
+                final boolean endQuote = c + 1 < chunks && inQuote[c + 1];
+                final boolean first = c == 0;
+                results.add(pool.submit(() -> {
+                    long start = first ? rawStart : boundary(channel, rawStart, startQuote);
+                    long end = rawEnd >= size ? size : boundary(channel, rawEnd, endQuote);
+                    RecordBlock block = tokenize(channel, start, Math.max(start, end), keep, filter);
+                    handler.tokenized(block);
+                    return block;
+                }));
+            }
+            for (Future<RecordBlock> f: results)
+                handler.records(get(f));
+        }
+    }
+
+    static <T> T get(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static boolean countQuotes(FileChannel channel, long from, long to) throws IOException {
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int quotes = 0;
+        for (int i = 0, n = buf.limit(); i < n; i++) {
+            if (buf.get(i) == QUOTE)
+                quotes++;
+        }
+        return (quotes & 1) != 0;
+    }
+
+    /*
+     * The first record start at or after a raw chunk position
+     * @param inQuote true if the position is inside a quoted field
+     */
+    private static long boundary(FileChannel channel, long pos, boolean inQuote) throws IOException {
+        // The previous byte decides whether pos itself starts a record
+        ByteBuffer one = ByteBuffer.allocate(2);
+        channel.read(one, pos - 1);
+        byte prev = one.get(0);
+        if (!inQuote && (prev == LF || (prev == CR && (one.position() < 2 || one.get(1) != LF))))
+            return pos;
+        return nextRecord(channel, pos, inQuote);
+    }
+
+    /*
+     * The position after the first record terminator found from pos
+     */
+    private static long nextRecord(FileChannel channel, long pos, boolean inQuote) throws IOException {
+        long size = channel.size();
+        ByteBuffer buf = ByteBuffer.allocate(SCAN_SIZE + 1);
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            for (int i = 0; i < n; i++) {
+                byte b = buf.get(i);
+                if (b == QUOTE) {
+                    inQuote = !inQuote;
+                } else if (!inQuote && b == LF) {
+                    return pos + i + 1;
+                } else if (!inQuote && b == CR) {
+                    // Only the last byte read can be missing its lookahead
+                    if (i + 1 < n)
+                        return pos + i + (buf.get(i + 1) == LF ? 2 : 1);
+                    if (pos + i + 1 >= size)
+                        return size;
+                    n--;
+                    break;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    /*
+     * Tokenize the records between two record boundaries, keeping the fields of the mask.
+     * The mapping stays valid after the channel is closed.
+     */
+    private static RecordBlock tokenize(FileChannel channel, long from, long to, boolean[] keep,
+            RowFilter.Bound filter) throws IOException {
+        if (to - from > Integer.MAX_VALUE)
+            throw new IOException("Record too large to map at offset " + from);
+
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.max(0, to - from));
+        RecordBlock block = CsvTokenizer.tokenize(buf, 0, buf.limit(), keep, filter);
+        block.setOffset(from);
+        return block;
+    }
+}
@@ -0,0 +1,99 @@
+package com.dk.csvdiff.csv;
+
+import java.nio.IntBuffer;
+
+/**
+ * A read only IdIndex held in an open addressing table that can be saved
+ * and mapped from a snapshot. Each slot holds the hash of a Key and its row
+ * ordinal plus one, zero marking an empty slot. Keys are not stored; a
+ * candidate row is confirmed by comparing its key cells with the Key bytes.
+ *
+ * @author darrenkennedy
+ */
+final class MappedIdIndex implements IdIndex {
+    private final IntBuffer table;
+    private final int mask;
+    private final ColumnStore store;
+    private final int[] keyPos;
+
+    /**
+     * @param table The slots, two ints each
+     * @param store The rows the ordinals refer to
+     * @param keyPos The positions of the key columns in the Schema of the rows
+     */
+    MappedIdIndex(IntBuffer table, ColumnStore store, int[] keyPos) {
+        this.table = table;
+        this.mask = table.limit() / 2 - 1;
+        this.store = store;
+        this.keyPos = keyPos;
+    }
+
+    /**
+     * Build the table for the rows of a store
+     * @param store The rows, which all have different Keys
+     * @param keyPos The positions of the key columns in the Schema of the rows
+     * @return The slots, two ints each
+     */
+    static int[] build(ColumnStore store, int[] keyPos) {
+        int[] table = new int[tableSize(store.size())];
+        build(store, keyPos, IntBuffer.wrap(table));
+        return table;
+    }
+
+    /**
+     * @param rows The number of rows
+     * @return The number of ints in the table for the rows
+     */
+    static int tableSize(int rows) {
+        return (Integer.highestOneBit(Math.max(2, rows * 2 - 1)) << 1) * 2;
+    }
+
+    /**
+     * Build the table for the rows of a store in a buffer
+     * @param store The rows, which all have different Keys
+     * @param keyPos The positions of the key columns in the Schema of the rows
+     * @param table tableSize(store.size()) zeroed ints for the slots
+     */
+    static void build(ColumnStore store, int[] keyPos, IntBuffer table) {
+        int capacity = table.limit() / 2;
+        for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+            int h = store.key(ordinal, keyPos).hashCode();
+            int slot = spread(h) & (capacity - 1);
+            while (table.get(slot * 2 + 1) != 0)
+                slot = (slot + 1) & (capacity - 1);
+            table.put(slot * 2, h);
+            table.put(slot * 2 + 1, ordinal + 1);
+        }
+    }
+
+    @Override
+    public int get(Key key) {
+        int h = key.hashCode();
+        for (int slot = spread(h) & mask; ; slot = (slot + 1) & mask) {
+            int ordinal = table.get(slot * 2 + 1) - 1;
+            if (ordinal < 0)
+                return -1;
+            if (table.get(slot * 2) == h && key.matches(store, ordinal, keyPos))
+                return ordinal;
+        }
+    }
+
+    @Override
+    public void put(Key key, int ordinal) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean accepts(Key key) {
+        return false;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return true;
+    }
+
+    private static int spread(int h) {
+        return (h ^ (h >>> 16)) * 0x9E3779B1;
+    }
+}
@@ -0,0 +1,167 @@
+package com.dk.csvdiff.csv;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory outside the Java heap for the cell data, offsets and id indexes of Sheets,
+ * so a garbage collection does not have to copy or scan them.
+ * The arena is given a fixed capacity and carves buffers out of large direct chunks;
+ * data that does not fit stays on the heap. The chunks are freed when the arena is closed,
+ * after which the Sheets using it must not be read.
+ *
+ * @author darrenkennedy
+ */
+public final class OffHeapArena implements Closeable {
+    // Size of the direct buffers the arena allocates at a time
+    private static final int CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private final long capacity;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private ByteBuffer chunk;       // The chunk being carved up
+    private long reserved;          // Bytes of the chunks
+    private long used;              // Bytes handed out
+    private boolean closed;
+
+    /**
+     * @param capacity The most bytes the arena will hold
+     */
+    public OffHeapArena(long capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException(String.valueOf(capacity));
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return The most bytes the arena will hold
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return The bytes handed out so far
+     */
+    public synchronized long used() {
+        return used;
+    }
+
+    /**
+     * Allocate a zeroed buffer in native byte order, aligned for int and long views
+     * @param bytes The size of the buffer
+     * @return The buffer or null if it would take the arena over its capacity
+     */
+    public synchronized ByteBuffer allocate(int bytes) {
+        if (closed)
+            throw new IllegalStateException("closed");
+        int size = (bytes + 7) & ~7;
+        if (size < 0)
+            return null;
+        if (chunk == null || chunk.remaining() < size) {
+            // The rest of the last chunk is left unused
+            long free = capacity - reserved;
+            if (size > free)
+                return null;
+            chunk = ByteBuffer.allocateDirect((int) Math.min(Math.max(size, CHUNK_SIZE), free));
+            chunks.add(chunk);
+            reserved += chunk.capacity();
+        }
+        ByteBuffer b = chunk.duplicate();
+        b.limit(b.position() + bytes);
+        chunk.position(chunk.position() + size);
+        used += size;
+        return b.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @param data The bytes from its position to its limit
+     * @return A copy of the bytes in the arena, or the data itself if it is already direct or does not fit
+     */
+    ByteBuffer copy(ByteBuffer data) {
+        if (data.isDirect())
+            return data;
+        ByteBuffer b = allocate(data.remaining());
+        if (b == null)
+            return data;
+        b.put(data.duplicate()).flip();
+        return b;
+    }
+
+    /**
+     * @param data The ints from its position to its limit
+     * @return A copy of the ints in the arena, or the data itself if it is already direct or does not fit
+     */
+    IntBuffer copy(IntBuffer data) {
+        if (data.isDirect())
+            return data;
+        ByteBuffer b = allocate(data.remaining() * 4);
+        if (b == null)
+            return data;
+        IntBuffer ints = b.asIntBuffer();
+        ints.put(data.duplicate()).flip();
+        return ints;
+    }
+
+    /**
+     * @param data The longs from its position to its limit
+     * @return A copy of the longs in the arena, or the data itself if it is already direct or does not fit
+     */
+    LongBuffer copy(LongBuffer data) {
+        if (data.isDirect())
+            return data;
+        ByteBuffer b = allocate(data.remaining() * 8);
+        if (b == null)
+            return data;
+        LongBuffer longs = b.asLongBuffer();
+        longs.put(data.duplicate()).flip();
+        return longs;
+    }
+
+    /**
+     * Free the memory of the arena. Buffers handed out by the arena must not be read afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        for (ByteBuffer b: chunks)
+            free(b);
+        chunks.clear();
+        chunk = null;
+    }
+
+    /*
+     * Free a direct buffer now rather than when it is garbage collected,
+     * through Unsafe.invokeCleaner on Java 9 and later or the buffer's cleaner on Java 8.
+     * If neither can be reached the buffer is left to the garbage collector.
+     */
+    private static void free(ByteBuffer b) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), b);
+            return;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Before Java 9
+        }
+        try {
+            Method cleaner = b.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            Object c = cleaner.invoke(b);
+            if (c != null)
+                c.getClass().getMethod("clean").invoke(c);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.dk.csvdiff.csv;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads another stream on its own thread into a bounded queue of chunks,
+ * so that the work of producing the bytes, such as decompressing them,
+ * overlaps with the work of the thread consuming them.
+ * The other stream is closed by the reading thread when it ends or this stream is closed.
+ *
+ * @author darrenkennedy
+ */
+final class ReadAheadInputStream extends InputStream {
+    private static final int CHUNK = 1 << 16;
+    private static final int CHUNKS = 16;
+    private static final byte[] END = new byte[0];
+
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(CHUNKS);
+    private final Thread reader;
+    private volatile IOException failure;
+    private byte[] chunk = new byte[0];
+    private int pos;
+    private boolean ended;
+
+    /**
+     * Start reading a stream
+     * @param in The stream to read ahead
+     * @param name The name of the reading thread
+     */
+    ReadAheadInputStream(InputStream in, String name) {
+        this.reader = new Thread(() -> readAhead(in), name);
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    private void readAhead(InputStream in) {
+        try (InputStream stream = in) {
+            byte[] buf = new byte[CHUNK];
+            while (true) {
+                int n = 0;
+                int r;
+                while (n < buf.length && (r = stream.read(buf, n, buf.length - n)) >= 0)
+                    n += r;
+                if (n > 0)
+                    chunks.put(Arrays.copyOf(buf, n));
+                if (n < buf.length)
+                    break;
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            // Closed
+            return;
+        }
+        try {
+            chunks.put(END);
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    /*
+     * @return false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        if (ended)
+            return false;
+        try {
+            chunk = chunks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        pos = 0;
+        if (chunk == END) {
+            ended = true;
+            if (failure != null)
+                throw failure;
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == chunk.length && !fill())
+            return -1;
+        return chunk[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (pos == chunk.length && !fill())
+            return -1;
+        int n = Math.min(len, chunk.length - pos);
+        System.arraycopy(chunk, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return chunk.length - pos;
+    }
+
+    @Override
+    public void close() {
+        ended = true;
+        chunk = new byte[0];
+        reader.interrupt();
+        chunks.clear();
+    }
+}
@@ -0,0 +1,463 @@
+package com.dk.csvdiff.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * The records tokenized from a buffer of CSV data.
+ * Each field is held as a pair of offsets into the buffer
+ * and is decoded only when its value is asked for.
+ * The offsets are built in arrays while tokenizing and are then read through
+ * int buffers, which may also be mapped from a snapshot or moved off the heap.
+ * Once tokenized, the fields of low cardinality columns can be encoded: each field
+ * of such a column is held as a one byte code in a ColumnDictionary instead of
+ * as offsets, and only the other fields keep their offsets.
+ *
+ * @author darrenkennedy
+ */
+final class RecordBlock {
+    private final ByteBuffer buf;
+    private long offset;            // Position of buf in the source file
+    private int[] boundsArray;      // Offsets while tokenizing
+    private int[] firstFieldArray;
+    private IntBuffer bounds;       // Start and end offset of every field
+    private IntBuffer firstField;   // Index of the first field of every record
+    private int fields;
+    private int records;
+    private LongBuffer fingerprints;    // Two halves per record once fingerprinted
+    private boolean zeroMatchesNull;
+    // The encoded field positions in ascending order, with their dictionaries
+    private int[] encoded = new int[0];
+    private ColumnDictionary[] dictionaries = new ColumnDictionary[0];
+    // For positions up to the last encoded one, the index among the fields with offsets
+    // or -1 - the index in encoded
+    private int[] slots = new int[0];
+    private ByteBuffer codes;           // The code of each encoded position, record by record
+
+    /**
+     * @param buf The CSV data the offsets refer to
+     */
+    RecordBlock(ByteBuffer buf) {
+        this.buf = buf;
+        this.boundsArray = new int[256];
+        this.firstFieldArray = new int[64];
+    }
+
+    /**
+     * Create a block from offsets saved in a snapshot
+     * @param buf The CSV data the offsets refer to
+     * @param offset The position of the data in the source file
+     * @param firstField Index of the first field of every record
+     * @param bounds Start and end offset of every field
+     * @param fingerprints Two halves per record or null
+     * @param zeroMatchesNull The normalization of the fingerprints
+     */
+    RecordBlock(ByteBuffer buf, long offset, IntBuffer firstField, IntBuffer bounds,
+            LongBuffer fingerprints, boolean zeroMatchesNull) {
+        this.buf = buf;
+        this.offset = offset;
+        this.firstField = firstField;
+        this.bounds = bounds;
+        this.records = firstField.limit();
+        this.fields = bounds.limit() / 2;
+        this.fingerprints = fingerprints;
+        this.zeroMatchesNull = zeroMatchesNull;
+    }
+
+    /**
+     * @return The number of records
+     */
+    int size() {
+        return records;
+    }
+
+    /**
+     * @param record Record index
+     * @return The number of fields in the record
+     */
+    int fieldCount(int record) {
+        int count = end(record) - firstField.get(record);
+        for (int e = 0; e < encoded.length; e++) {
+            if (code(record, e) != ColumnDictionary.ABSENT)
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * @param record Record index
+     * @param field Field index
+     * @return The decoded value of the field, "" if it is beyond the end of the record
+     */
+    String value(int record, int field) {
+        int s = slot(field);
+        if (s < 0)
+            return dictionaries[-1 - s].value(code(record, -1 - s));
+        int f = boundsIndex(record, s);
+        return f < 0 ? "" : CsvTokenizer.decode(buf, bounds.get(f), bounds.get(f + 1));
+    }
+
+    /**
+     * @param record Record index
+     * @return The decoded values of the record
+     */
+    String[] values(int record) {
+        String[] values = new String[fieldCount(record)];
+        for (int i = 0; i < values.length; i++)
+            values[i] = value(record, i);
+        return values;
+    }
+
+    /**
+     * Compare a field with a field of another block without decoding plain fields.
+     * Encoded fields with the same dictionary are compared by their codes.
+     * Fields beyond the end of a record are empty.
+     * @return true if the fields have the same value
+     */
+    boolean equal(int record, int field, RecordBlock other, int otherRecord, int otherField) {
+        int s1 = slot(field);
+        int s2 = other.slot(otherField);
+        if (s1 < 0 && s2 < 0 && dictionaries[-1 - s1] == other.dictionaries[-1 - s2])
+            return dictionaries[-1 - s1].same(code(record, -1 - s1), other.code(otherRecord, -1 - s2));
+        if (s1 < 0) {
+            byte[] v = dictionaries[-1 - s1].bytes(code(record, -1 - s1));
+            return other.equal(otherRecord, otherField, v, 0, v.length);
+        }
+        if (s2 < 0) {
+            byte[] v = other.dictionaries[-1 - s2].bytes(other.code(otherRecord, -1 - s2));
+            return equal(record, field, v, 0, v.length);
+        }
+
+        int f1 = boundsIndex(record, s1);
+        int f2 = other.boundsIndex(otherRecord, s2);
+        return CsvTokenizer.equal(
+                buf, f1 < 0 ? 0 : bounds.get(f1), f1 < 0 ? 0 : bounds.get(f1 + 1),
+                other.buf, f2 < 0 ? 0 : other.bounds.get(f2), f2 < 0 ? 0 : other.bounds.get(f2 + 1));
+    }
+
+    /**
+     * Compare a field with a UTF-8 encoded value
+     * @param value Holds the value
+     * @param from The first byte of the value
+     * @param to The end of the value
+     * @return true if the field has the value
+     */
+    boolean equal(int record, int field, byte[] value, int from, int to) {
+        int s = slot(field);
+        if (s < 0) {
+            byte[] v = dictionaries[-1 - s].bytes(code(record, -1 - s));
+            if (v.length != to - from)
+                return false;
+            for (int i = 0; i < v.length; i++) {
+                if (v[i] != value[from + i])
+                    return false;
+            }
+            return true;
+        }
+        int f = boundsIndex(record, s);
+        return CsvTokenizer.equal(buf, f < 0 ? 0 : bounds.get(f), f < 0 ? 0 : bounds.get(f + 1), value, from, to);
+    }
+
+    /**
+     * Add a field to a Key, copying its bytes unless it has to be unescaped
+     * @param key The Key being built
+     */
+    void addTo(Key.Builder key, int record, int field) {
+        int s = slot(field);
+        if (s < 0) {
+            byte[] v = dictionaries[-1 - s].bytes(code(record, -1 - s));
+            key.add(v, 0, v.length);
+            return;
+        }
+        int f = boundsIndex(record, s);
+        if (f < 0) {
+            key.add("");
+            return;
+        }
+        int start = bounds.get(f);
+        if (start < 0)
+            key.add(CsvTokenizer.decode(buf, start, bounds.get(f + 1)));
+        else
+            key.add(buf, start, bounds.get(f + 1));
+    }
+
+    /**
+     * Fingerprint every record over the columns of a Schema
+     * @param schema The Schema of the records
+     * @param zeroMatchesNull true to fingerprint '0' as an empty cell
+     */
+    void fingerprint(Schema schema, boolean zeroMatchesNull) {
+        long[] fp = new long[records * 2];
+        for (int r = 0; r < records; r++) {
+            for (int pos = 0; pos < schema.size(); pos++) {
+                fp[r * 2] += cell(r, pos, schema.columnHash(pos, 0), 0, zeroMatchesNull);
+                fp[r * 2 + 1] += cell(r, pos, schema.columnHash(pos, 1), 1, zeroMatchesNull);
+            }
+        }
+        this.zeroMatchesNull = zeroMatchesNull;
+        this.fingerprints = LongBuffer.wrap(fp);
+    }
+
+    /**
+     * @param zeroMatchesNull The normalization the fingerprints must have
+     * @return true if the records have been fingerprinted with that normalization
+     */
+    boolean hasFingerprints(boolean zeroMatchesNull) {
+        return fingerprints != null && this.zeroMatchesNull == zeroMatchesNull;
+    }
+
+    /**
+     * @param record Record index
+     * @param half 0 or 1
+     * @return Half of the fingerprint of the record
+     */
+    long fingerprint(int record, int half) {
+        return fingerprints.get(record * 2 + half);
+    }
+
+    /**
+     * @param record Record index
+     * @param field Field index
+     * @param columnHash The hash of the column name
+     * @param half 0 or 1
+     * @param zeroMatchesNull true to hash '0' as an empty cell
+     * @return The share of the field in the fingerprint of the record
+     */
+    long cell(int record, int field, long columnHash, int half, boolean zeroMatchesNull) {
+        long value;
+        int s = slot(field);
+        int f = s < 0 ? -1 : boundsIndex(record, s);
+        if (s < 0) {
+            byte[] v = dictionaries[-1 - s].bytes(code(record, -1 - s));
+            boolean empty = v.length == 0 || zeroMatchesNull && v.length == 1 && v[0] == '0';
+            value = empty ? Fingerprint.empty(half) : Fingerprint.value(ByteBuffer.wrap(v), 0, v.length, half);
+        } else if (f < 0) {
+            value = Fingerprint.empty(half);
+        } else {
+            int start = bounds.get(f);
+            int end = bounds.get(f + 1);
+            if (start < 0) {
+                String v = CsvTokenizer.decode(buf, start, end);
+                value = zeroMatchesNull && v.equals("0") ? Fingerprint.empty(half) : Fingerprint.value(v, half);
+            } else if (zeroMatchesNull && end - start == 1 && buf.get(start) == '0') {
+                value = Fingerprint.empty(half);
+            } else {
+                value = Fingerprint.value(buf, start, end, half);
+            }
+        }
+        return Fingerprint.cell(columnHash, value);
+    }
+
+    /*
+     * The data, offsets and fingerprints for saving in a snapshot
+     */
+    ByteBuffer buffer() {
+        return buf;
+    }
+
+    long offset() {
+        return offset;
+    }
+
+    IntBuffer firstFields() {
+        return firstField.duplicate();
+    }
+
+    IntBuffer bounds() {
+        return bounds.duplicate();
+    }
+
+    LongBuffer fingerprints() {
+        return fingerprints == null ? null : fingerprints.duplicate();
+    }
+
+    boolean isZeroMatchesNull() {
+        return zeroMatchesNull;
+    }
+
+    int[] encodedPositions() {
+        return encoded;
+    }
+
+    ColumnDictionary[] encodedDictionaries() {
+        return dictionaries;
+    }
+
+    ByteBuffer codes() {
+        return codes == null ? null : codes.duplicate();
+    }
+
+    /**
+     * Hold the fields of low cardinality columns as one byte codes instead of offsets.
+     * A column is only encoded if all its fields in the block get a code,
+     * so a column whose dictionary fills up keeps its offsets.
+     * @param dictionaries The dictionary for each field position, null for positions not to encode
+     * @param from The first record to keep, earlier records are emptied
+     */
+    void encode(ColumnDictionary[] dictionaries, int from) {
+        if (encoded.length != 0)
+            return;
+        int[] positions = new int[dictionaries.length];
+        ColumnDictionary[] used = new ColumnDictionary[dictionaries.length];
+        byte[][] columnCodes = new byte[dictionaries.length][];
+        int k = 0;
+        for (int pos = 0; pos < dictionaries.length; pos++) {
+            ColumnDictionary d = dictionaries[pos];
+            byte[] c = d == null || d.isFull() ? null : encode(d, pos, from);
+            if (c != null) {
+                positions[k] = pos;
+                used[k] = d;
+                columnCodes[k++] = c;
+            }
+        }
+        if (k == 0)
+            return;
+
+        // Keep the offsets of the other fields only
+        int[] newBounds = new int[fields * 2];
+        int[] newFirstField = new int[records];
+        int n = 0;
+        for (int r = from; r < records; r++) {
+            int first = firstField.get(r);
+            int count = end(r) - first;
+            newFirstField[r] = n;
+            for (int field = 0, e = 0; field < count; field++) {
+                if (e < k && positions[e] == field) {
+                    e++;
+                } else {
+                    newBounds[n * 2] = bounds.get((first + field) * 2);
+                    newBounds[n * 2 + 1] = bounds.get((first + field) * 2 + 1);
+                    n++;
+                }
+            }
+        }
+        byte[] allCodes = new byte[records * k];
+        for (int r = 0; r < records; r++) {
+            for (int e = 0; e < k; e++)
+                allCodes[r * k + e] = columnCodes[e][r];
+        }
+        bounds = IntBuffer.wrap(Arrays.copyOf(newBounds, n * 2));
+        firstField = IntBuffer.wrap(newFirstField);
+        fields = n;
+        setEncoding(Arrays.copyOf(positions, k), Arrays.copyOf(used, k), ByteBuffer.wrap(allCodes));
+    }
+
+    /*
+     * @return The codes of the fields at a position or null if the dictionary is full
+     */
+    private byte[] encode(ColumnDictionary dictionary, int pos, int from) {
+        byte[] c = new byte[records];
+        for (int r = 0; r < records; r++) {
+            int code = ColumnDictionary.ABSENT;
+            if (r >= from && pos < end(r) - firstField.get(r)) {
+                int f = (firstField.get(r) + pos) * 2;
+                int start = bounds.get(f);
+                int end = bounds.get(f + 1);
+                code = start < 0 ? dictionary.code(CsvTokenizer.decode(buf, start, end)) : dictionary.code(buf, start, end);
+                if (code < 0)
+                    return null;
+            }
+            c[r] = (byte) code;
+        }
+        return c;
+    }
+
+    /**
+     * Set the encoded positions of a block, when encoding or from a snapshot
+     * @param encoded The encoded positions in ascending order
+     * @param dictionaries The dictionary of each encoded position
+     * @param codes The code of each encoded position, record by record
+     */
+    void setEncoding(int[] encoded, ColumnDictionary[] dictionaries, ByteBuffer codes) {
+        int[] slots = new int[encoded.length == 0 ? 0 : encoded[encoded.length - 1] + 1];
+        for (int pos = 0, e = 0; pos < slots.length; pos++) {
+            if (pos == encoded[e])
+                slots[pos] = -1 - e++;
+            else
+                slots[pos] = pos - e;
+        }
+        this.encoded = encoded;
+        this.dictionaries = dictionaries;
+        this.codes = codes;
+        this.slots = slots;
+    }
+
+    /**
+     * Move the offsets, codes and fingerprints off the heap, leaving those that do not fit
+     * @param arena Where they are moved
+     */
+    void moveTo(OffHeapArena arena) {
+        bounds = arena.copy(bounds);
+        firstField = arena.copy(firstField);
+        if (fingerprints != null)
+            fingerprints = arena.copy(fingerprints);
+        if (codes != null)
+            codes = arena.copy(codes);
+    }
+
+    /*
+     * The position of the data in the source file
+     */
+    void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    /*
+     * End tokenizing, releasing the unused capacity
+     */
+    void finish() {
+        bounds = IntBuffer.wrap(Arrays.copyOf(boundsArray, fields * 2));
+        firstField = IntBuffer.wrap(Arrays.copyOf(firstFieldArray, records));
+        boundsArray = null;
+        firstFieldArray = null;
+    }
+
+    /*
+     * The index of a field among the fields with offsets, or -1 - its index in encoded
+     */
+    private int slot(int field) {
+        return field < slots.length ? slots[field] : field - encoded.length;
+    }
+
+    /*
+     * The index in bounds of the field in a slot with offsets, -1 if it is beyond the end of the record
+     */
+    private int boundsIndex(int record, int slot) {
+        int f = firstField.get(record) + slot;
+        return f < end(record) ? f * 2 : -1;
+    }
+
+    /*
+     * The end of the fields of a record with offsets
+     */
+    private int end(int record) {
+        return record + 1 < records ? firstField.get(record + 1) : fields;
+    }
+
+    private int code(int record, int e) {
+        return codes.get(record * encoded.length + e) & 0xFF;
+    }
+
+    void startRecord() {
+        if (records == firstFieldArray.length)
+            firstFieldArray = Arrays.copyOf(firstFieldArray, Math.max(records * 2, 1));
+        firstFieldArray[records++] = fields;
+    }
+
+    /*
+     * Drop the record being tokenized
+     */
+    void dropRecord() {
+        fields = firstFieldArray[--records];
+    }
+
+    void addField(int start, int end) {
+        if (fields * 2 == boundsArray.length)
+            boundsArray = Arrays.copyOf(boundsArray, Math.max(boundsArray.length * 2, 2));
+        boundsArray[fields * 2] = start;
+        boundsArray[fields * 2 + 1] = end;
+        fields++;
+    }
+}
@@ -1,25 +1,34 @@
 package com.dk.csvdiff.csv;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedHashMap;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
 import com.dk.csvdiff.i18n.Messages;
 
+/**
+ * A single record keyed by the values of its key columns,
+ * usually a single id column.
+ * A Row either owns its values or is a lightweight view of one
+ * row ordinal in the columnar storage of a Sheet.
+ */
 public class Row implements Comparable<Row> {
     private String id;
-    private String idColumn;
-    // Map<ColName, value>
-    private Map<String, String> colVals;
-    private boolean isEmpty;
+    private Key key;
+    private List<String> keyColumns;
+    private Schema schema;
+    // Values in Schema order when the Row owns its data
+    private String[] values;
+    // Storage and row ordinal when the Row is a view of a Sheet
+    private ColumnStore store;
+    private int ordinal;
 
     // Default constructor
     private Row() {
-    	this.colVals = new LinkedHashMap<>();
-    	this.isEmpty = true;
     }
     
     /**
@@ -57,67 +66,130 @@ public class Row implements Comparable<Row> {
      * @throws IllegalArgumentException
      */
     public Row(List<String> values, List<String> headers, String idColumn) {
+        this(values, headers, Collections.singletonList(idColumn));
+    }
+
+    /**
+     * Create a Row with a list of values and a list of column headers and key columns
+     * The number of column headers must be the same or larger than the number of values.
+     * The key columns must be in the headers and their values must not be null.
+     * @param values
+     * @param headers
+     * @param keyColumns The key column names in key order
+     * @throws IllegalArgumentException
+     */
+    public Row(List<String> values, List<String> headers, List<String> keyColumns) {
         this();
         
         if (values.size() > headers.size()) {
         	throw new IllegalArgumentException(Messages.getMessage("HeadersValuesMismatch"));
         }
-        
-        // If we have at least 2 non-empty values then the row is not empty.
-        // If we have only 1 then that should be the idColumn value and the row is empty (or invalid).
-        int emptyCheck = 2;
+
+        this.schema = new Schema(headers);
+        this.values = new String[schema.size()];
         
         for (int i = 0; i < headers.size(); i++) {
         	String value = "";
         	if (i < values.size())
         		value = values.get(i);
         	
-        	this.colVals.put(headers.get(i), value);
-        	
-            if (emptyCheck != 0 && value != null && !value.isEmpty())
-            	isEmpty = --emptyCheck != 0;
+        	this.values[schema.indexOf(headers.get(i))] = value;
         }
 
-        this.id = colVals.get(idColumn);
-        this.idColumn = idColumn;
-
-        if (!this.colVals.containsKey(idColumn)) {
-            throw new IllegalArgumentException(Messages.getMessage("NoIdCol"));
-        }
+        this.keyColumns = keyColumns;
 
-        if (this.id == null) {
-            throw new IllegalArgumentException(Messages.getMessage("NullId"));
+        for (String keyColumn: keyColumns) {
+            if (schema.indexOf(keyColumn) < 0) {
+                throw new IllegalArgumentException(Messages.getMessage("NoIdCol"));
+            }
+            if (getValue(keyColumn) == null) {
+                throw new IllegalArgumentException(Messages.getMessage("NullId"));
+            }
         }
     }
 
     /**
-     * Create a Row copied from another Row with a new id value
+     * Create a Row copied from another Row with a new id value.
+     * For a composite key the new value replaces the value of the first key column.
      * @param row
      * @param newId The new id value for the Row
      */
     public Row(Row row, String newId) {
         this();
-        this.colVals.putAll(row.colVals);
-        this.idColumn = row.idColumn;
-        this.isEmpty = row.isEmpty;
+        this.schema = row.schema;
+        this.values = row.copyValues();
+        this.keyColumns = row.keyColumns;
         setId(newId);
     }
 
+    /*
+     * Create a Row that owns values already in Schema order
+     */
+    Row(Schema schema, String[] values, List<String> keyColumns) {
+        this();
+        this.schema = schema;
+        this.values = values;
+        this.keyColumns = keyColumns;
+    }
+
+    /*
+     * Create a view of a row stored in a Sheet.
+     * The key is only built when it is asked for.
+     */
+    Row(ColumnStore store, int ordinal, List<String> keyColumns) {
+        this();
+        this.schema = store.layout(ordinal).schema;
+        this.store = store;
+        this.ordinal = ordinal;
+        this.keyColumns = keyColumns;
+    }
+
     /**
-     * Get the Row Id
+     * Get the Row Id, the value of the id column or
+     * the values of the key columns joined with ',' for a composite key
      * @return The Row Id
      */
     public String getId() {
+        if (this.id == null)
+            this.id = keyColumns.size() == 1 ? getValue(keyColumns.get(0)) : getKey().toString();
         return this.id;
     }
 
     /**
-     * Set the Row Id
+     * Set the Row Id, the value of the first key column
      * @param id New Row Id
      */
     public void setId(String id) {
-        this.colVals.put(idColumn, id);
-        this.id = id;
+        setValue(schema.indexOf(keyColumns.get(0)), id);
+        this.id = null;
+        this.key = null;
+    }
+
+    /**
+     * Get the Row Key, which rows are matched and ordered by.
+     * The key cells of a Row parsed into a Sheet are copied without decoding them.
+     * @return The Row Key
+     */
+    public Key getKey() {
+        if (this.key == null) {
+            int[] keyPos = schema.positions(keyColumns);
+            if (store != null) {
+                this.key = store.key(ordinal, keyPos);
+            } else {
+                Key.Builder b = new Key.Builder();
+                for (int pos: keyPos)
+                    b.add(values[pos]);
+                this.key = b.build();
+            }
+        }
+        return this.key;
+    }
+
+    /**
+     * @return The key column names in key order
+     */
+    public List<String> getKeyColumns() {
+        return keyColumns;
     }
 
     /**
@@ -126,7 +198,36 @@ public class Row implements Comparable<Row> {
      * @return The value for the specified column
      */
     public String getValue(String colName) {
-        return this.colVals.get(colName);
+        int pos = schema.indexOf(colName);
+        return pos < 0 ? null : getValue(pos);
+    }
+
+    /**
+     * Check whether a column has the same value in this Row and another Row.
+     * Values of Rows parsed into a Sheet are compared as bytes without decoding them.
+     * @param colName The column name
+     * @param other The Row to compare with
+     * @return true if the values are equal or the column is in neither Row
+     */
+    public boolean sameValue(String colName, Row other) {
+        return sameValue(schema.indexOf(colName), other, other.schema.indexOf(colName));
+    }
+
+    /**
+     * Check whether this Row and another Row have the same content by comparing
+     * the fingerprints taken when they were parsed into Sheets.
+     * A false result only means the fingerprints could not show the Rows are the same.
+     * @param other The Row to compare with
+     * @param onlyThis Columns of this Row to leave out
+     * @param onlyOther Columns of the other Row to leave out
+     * @param zeroMatchesNull true if '0' matches an empty cell
+     * @return true if the remaining cells of both Rows have the same values
+     */
+    public boolean sameContent(Row other, Collection<String> onlyThis, Collection<String> onlyOther, boolean zeroMatchesNull) {
+        if (store == null || other.store == null)
+            return false;
+        return sameContent(other, schema.positions(new ArrayList<>(onlyThis)),
+                other.schema.positions(new ArrayList<>(onlyOther)), zeroMatchesNull);
     }
 
     /**
@@ -134,7 +235,7 @@ public class Row implements Comparable<Row> {
      * @return The set of headers for this Row
      */
     public Set<String> getHeaders() {
-        return this.colVals.keySet();
+        return schema.getHeaders();
     }
 
     /**
@@ -143,24 +244,29 @@ public class Row implements Comparable<Row> {
      * @return Array of Row values
      */
     public String[] toArray(String[] values) {
-        return colVals.values().toArray(values);
+        return Arrays.asList(copyValues()).toArray(values);
     }
 
     /**
-     * A Row is empty if only the id column has a value
+     * A Row is empty if only its key columns have values
      * @return true if the row is empty
      */
     public boolean isEmpty() {
-        /* The values are set on object construction so isEmpty can not change
-        for (Entry<String, String> e: colVals.entrySet()) {
-            if (!e.getValue().isEmpty() && !e.getKey().equals(idColumn)) {
+        int[] keyPos = schema.positions(keyColumns);
+        for (int i = 0; i < schema.size(); i++) {
+            String value = getValue(i);
+            if (value != null && !value.isEmpty() && !contains(keyPos, i))
                 return false;
-            }
         }
+        return true;
+    }
 
-        return true;*/
-    	
-    	return isEmpty;
+    private static boolean contains(int[] positions, int pos) {
+        for (int p: positions) {
+            if (p == pos)
+                return true;
+        }
+        return false;
     }
 
     @Override
@@ -168,11 +274,11 @@ public class Row implements Comparable<Row> {
         if (this.equals(o))
             return 0;
 
-        return this.id.compareTo(((Row) o).getId());
+        return getKey().compareTo(((Row) o).getKey());
     }
 
     /**
-     * Equality is based on the id value only
+     * Equality is based on the key values only
      */
     @Override
     public boolean equals(Object obj)
@@ -186,11 +292,75 @@ public class Row implements Comparable<Row> {
        }
        
        final Row other = (Row)obj;
-       return Objects.equals(this.id, other.id);
+       return getKey().equals(other.getKey());
     }
 
     @Override
     public int hashCode() {
-        return this.id.hashCode();
+        return getKey().hashCode();
+    }
+
+    /*
+     * The Schema of this Row
+     */
+    Schema getSchema() {
+        return schema;
+    }
+
+    /*
+     * The values of this Row in Schema order
+     */
+    String[] copyValues() {
+        if (store == null)
+            return values.clone();
+
+        String[] copy = new String[schema.size()];
+        for (int i = 0; i < copy.length; i++)
+            copy[i] = getValue(i);
+        return copy;
+    }
+
+    /*
+     * The value at a position of the Schema
+     */
+    String getValue(int pos) {
+        return store == null ? values[pos] : store.get(ordinal, pos);
+    }
+
+    /*
+     * Compare the cell at a position of this Row with the cell at a position of another Row,
+     * -1 for a column the Row does not have
+     */
+    boolean sameValue(int pos, Row other, int otherPos) {
+        if (store != null && other.store != null && pos >= 0 && otherPos >= 0)
+            return ColumnStore.equal(store, ordinal, pos, other.store, other.ordinal, otherPos);
+        return Objects.equals(pos < 0 ? null : getValue(pos), otherPos < 0 ? null : other.getValue(otherPos));
+    }
+
+    /*
+     * The value at a position of the Schema parsed by a comparator, parsed when the Sheet typed the column if it did
+     */
+    long parsed(int pos, ColumnComparator comparator) {
+        return store == null ? comparator.parse(values[pos]) : store.parsed(ordinal, pos, comparator);
+    }
+
+    /*
+     * Compare fingerprints leaving out the cells at positions of each Row, -1 for a column the Row does not have
+     */
+    boolean sameContent(Row other, int[] onlyThis, int[] onlyOther, boolean zeroMatchesNull) {
+        if (store == null || other.store == null)
+            return false;
+        long[] fp1 = new long[2];
+        long[] fp2 = new long[2];
+        return store.fingerprint(ordinal, onlyThis, zeroMatchesNull, fp1)
+                && other.store.fingerprint(other.ordinal, onlyOther, zeroMatchesNull, fp2)
+                && fp1[0] == fp2[0] && fp1[1] == fp2[1];
+    }
+
+    private void setValue(int pos, String value) {
+        if (store == null)
+            values[pos] = value;
+        else
+            store.put(ordinal, pos, value);
     }
 }
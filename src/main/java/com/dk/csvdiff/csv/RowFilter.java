@@ -0,0 +1,202 @@
+package com.dk.csvdiff.csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.dk.csvdiff.i18n.Messages;
+
+/**
+ * Conditions on the cells of a record that a record must meet to be kept,
+ * such as region=North or id>=1000. Each condition compares a column with a value:
+ * = and != compare text. &lt;, &lt;=, &gt; and &gt;= compare numbers when the value is a number,
+ * cells that are not numbers failing the condition, and text otherwise, so ISO dates compare in date order.
+ * Conditions are bound to the fields of a header line and tested against the raw
+ * cells of each record as it is tokenized, before a Row is built,
+ * so a record that is not kept is never stored.
+ *
+ * @author darrenkennedy
+ */
+public final class RowFilter {
+    private enum Op {
+        // Longer operators first so that <= is not read as <
+        NE("!="), LE("<="), GE(">="), EQ("="), LT("<"), GT(">");
+
+        final String symbol;
+
+        Op(String symbol) {
+            this.symbol = symbol;
+        }
+    }
+
+    private static final ColumnComparator NUMBER = ColumnComparator.number(0);
+
+    private final List<Condition> conditions;
+
+    /**
+     * @param expressions Conditions such as "region=North" or "id&gt;=1000", all of which a record must meet
+     * @throws IllegalArgumentException if an expression is not a condition
+     */
+    public RowFilter(List<String> expressions) {
+        List<Condition> conditions = new ArrayList<>();
+        for (String expression: expressions)
+            conditions.add(new Condition(expression));
+        this.conditions = Collections.unmodifiableList(conditions);
+    }
+
+    /**
+     * @return The columns the conditions test
+     */
+    public List<String> getColumns() {
+        List<String> columns = new ArrayList<>();
+        for (Condition c: conditions)
+            columns.add(c.column);
+        return columns;
+    }
+
+    /**
+     * Bind the conditions to the fields of a header line
+     * @param headers The header line
+     * @return The conditions tested by field position
+     * @throws IllegalArgumentException if a column is not in the headers
+     */
+    Bound bind(List<String> headers) {
+        return new Bound(headers);
+    }
+
+    /*
+     * A column compared with a value
+     */
+    private static final class Condition {
+        final String column;
+        final Op op;
+        final String value;
+        final byte[] bytes;
+        final long number;      // The value as a number or UNPARSED
+
+        Condition(String expression) {
+            int at = -1;
+            Op found = null;
+            for (int i = 0; i < expression.length() && found == null; i++) {
+                for (Op op: Op.values()) {
+                    if (expression.startsWith(op.symbol, i)) {
+                        at = i;
+                        found = op;
+                        break;
+                    }
+                }
+            }
+            if (found == null || at == 0)
+                throw new IllegalArgumentException(Messages.getMessage("BadFilter", expression));
+            this.column = expression.substring(0, at).trim();
+            this.op = found;
+            this.value = expression.substring(at + found.symbol.length()).trim();
+            this.bytes = value.getBytes(StandardCharsets.UTF_8);
+            long n = NUMBER.parse(value);
+            this.number = n == ColumnComparator.EMPTY ? ColumnComparator.UNPARSED : n;
+        }
+
+        boolean test(ByteBuffer buf, int start, int end) {
+            if (op == Op.EQ || op == Op.NE)
+                return CsvTokenizer.equal(buf, start, end, bytes, 0, bytes.length) == (op == Op.EQ);
+            return test(CsvTokenizer.decode(buf, start, end));
+        }
+
+        boolean test(String cell) {
+            if (op == Op.EQ)
+                return value.equals(cell);
+            if (op == Op.NE)
+                return !value.equals(cell);
+            int cmp;
+            if (number != ColumnComparator.UNPARSED) {
+                long n = NUMBER.parse(cell);
+                if (n == ColumnComparator.UNPARSED || n == ColumnComparator.EMPTY)
+                    return false;
+                cmp = Double.compare(Double.longBitsToDouble(n), Double.longBitsToDouble(number));
+            } else {
+                cmp = cell.compareTo(value);
+            }
+            switch (op) {
+                case LT: return cmp < 0;
+                case LE: return cmp <= 0;
+                case GT: return cmp > 0;
+                default: return cmp >= 0;
+            }
+        }
+    }
+
+    /**
+     * The conditions bound to the fields of a header line.
+     * The cells tested are given as an array of start and end offsets,
+     * two for each tested field in the order of cell(field).
+     */
+    final class Bound {
+        private final int[] cellOf;     // For each field, its index among the tested fields or -1
+        private final int[] cells;      // For each condition, the index of its field among the tested fields
+        private final int[] fields;     // The tested fields
+
+        private Bound(List<String> headers) {
+            cellOf = new int[headers.size()];
+            Arrays.fill(cellOf, -1);
+            cells = new int[conditions.size()];
+            int tested = 0;
+            for (int c = 0; c < cells.length; c++) {
+                int field = headers.indexOf(conditions.get(c).column);
+                if (field < 0)
+                    throw new IllegalArgumentException(Messages.getMessage("FilterColumnMissing", conditions.get(c).column));
+                if (cellOf[field] < 0)
+                    cellOf[field] = tested++;
+                cells[c] = cellOf[field];
+            }
+            fields = new int[tested];
+            for (int field = 0; field < cellOf.length; field++) {
+                if (cellOf[field] >= 0)
+                    fields[cellOf[field]] = field;
+            }
+        }
+
+        /**
+         * @return The number of fields tested
+         */
+        int size() {
+            return fields.length;
+        }
+
+        /**
+         * @param field A field position
+         * @return The index of the field among the tested fields or -1 if it is not tested
+         */
+        int cell(int field) {
+            return field < cellOf.length ? cellOf[field] : -1;
+        }
+
+        /**
+         * @param buf The CSV data
+         * @param offsets The start and end offset of each tested cell, 0 and 0 for a missing cell
+         * @return true if the cells meet every condition
+         */
+        boolean accepts(ByteBuffer buf, int[] offsets) {
+            for (int c = 0; c < cells.length; c++) {
+                if (!conditions.get(c).test(buf, offsets[cells[c] * 2], offsets[cells[c] * 2 + 1]))
+                    return false;
+            }
+            return true;
+        }
+
+        /**
+         * @param record The values of a record
+         * @return true if the values meet every condition
+         */
+        boolean accepts(String[] record) {
+            for (int c = 0; c < cells.length; c++) {
+                int field = fields[cells[c]];
+                if (!conditions.get(c).test(field < record.length && record[field] != null ? record[field] : ""))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.dk.csvdiff.csv;
+
+import java.util.List;
+
+/**
+ * Hashes the key and the cells of a list of columns of streamed Rows to 64 bits,
+ * so that Rows of two data sets can be compared by their hashes alone.
+ * The content hash is a sum over the columns, so it does not depend on column order.
+ *
+ * @author darrenkennedy
+ */
+final class RowHasher {
+    private final List<String> keyColumns;
+    private final List<String> columns;
+    private final long[] columnHashes;
+    private final boolean zeroMatchesNull;
+    private final long empty = Fingerprint.empty(0);
+    private Schema schema;
+    private int[] keyPos;
+    private int[] pos;
+
+    /**
+     * @param keyColumns The key column names
+     * @param columns The columns whose cells are hashed
+     * @param zeroMatchesNull true to hash '0' as an empty cell
+     */
+    RowHasher(List<String> keyColumns, List<String> columns, boolean zeroMatchesNull) {
+        this.keyColumns = keyColumns;
+        this.columns = columns;
+        this.zeroMatchesNull = zeroMatchesNull;
+        this.columnHashes = new long[columns.size()];
+        for (int c = 0; c < columnHashes.length; c++)
+            columnHashes[c] = Fingerprint.column(columns.get(c), 0);
+    }
+
+    /**
+     * @param row A Row
+     * @return The hash of its key
+     */
+    long key(Row row) {
+        align(row);
+        long h = 0;
+        for (int p: keyPos)
+            h = Fingerprint.cell(h, Fingerprint.value(row.getValue(p), 1));
+        return h;
+    }
+
+    /**
+     * @param row A Row
+     * @return The hash of the cells of the columns, missing cells hashing as empty ones
+     */
+    long content(Row row) {
+        align(row);
+        long h = 0;
+        for (int c = 0; c < pos.length; c++) {
+            String v = pos[c] < 0 ? "" : row.getValue(pos[c]);
+            boolean isEmpty = v.isEmpty() || zeroMatchesNull && v.equals("0");
+            h += Fingerprint.cell(columnHashes[c], isEmpty ? empty : Fingerprint.value(v, 0));
+        }
+        return h;
+    }
+
+    /*
+     * Find the columns in the Schema of a Row, once for each Schema
+     */
+    private void align(Row row) {
+        if (row.getSchema() != schema) {
+            schema = row.getSchema();
+            keyPos = schema.positions(keyColumns);
+            pos = schema.positions(columns);
+        }
+    }
+}
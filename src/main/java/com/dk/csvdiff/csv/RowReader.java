@@ -0,0 +1,122 @@
+package com.dk.csvdiff.csv;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import com.opencsv.CSVReader;
+import com.opencsv.RFC4180Parser;
+
+/**
+ * Reads CSV data one Row at a time without holding the file in memory.
+ * Every Row shares the Schema built from the header line.
+ *
+ * @author darrenkennedy
+ */
+public class RowReader implements RowSource {
+    private CSVReader reader;
+    private Schema schema;
+    private List<String> keyColumns;
+    private int[] keyPos;
+    private boolean[] keep;         // The fields read, null for every field
+    private RowFilter.Bound filter; // The conditions records must meet, null to read every record
+
+    /**
+     * Create a reader for CSV data starting with a header line
+     * @param in The CSV data
+     * @param idColumn The id column name
+     * @throws IOException
+     * @throws IllegalArgumentException if the id column is not in the headers
+     */
+    public RowReader(Reader in, String idColumn) throws IOException {
+        this(in, null, idColumn);
+    }
+
+    /**
+     * Create a reader for CSV data with no header line
+     * @param in The CSV data
+     * @param headers The headers for the data or null to read them from the first line
+     * @param idColumn The id column name
+     * @throws IOException
+     * @throws IllegalArgumentException if the id column is not in the headers
+     */
+    public RowReader(Reader in, List<String> headers, String idColumn) throws IOException {
+        this(in, headers, Collections.singletonList(idColumn));
+    }
+
+    /**
+     * Create a reader for CSV data keyed by several columns
+     * @param in The CSV data
+     * @param headers The headers for the data or null to read them from the first line
+     * @param keyColumns The key column names in key order
+     * @throws IOException
+     * @throws IllegalArgumentException if a key column is not in the headers
+     */
+    public RowReader(Reader in, List<String> headers, List<String> keyColumns) throws IOException {
+        this(in, headers, keyColumns, null, Collections.<String>emptyList(), null);
+    }
+
+    /**
+     * Create a reader for CSV data keyed by several columns that reads only some of the columns
+     * and only the records that meet some conditions
+     * @param in The CSV data
+     * @param headers The headers for the data or null to read them from the first line
+     * @param keyColumns The key column names in key order, which are always read
+     * @param include The columns to read or null to read every column
+     * @param exclude The columns not to read
+     * @param filter The conditions records must meet or null to read every record
+     * @throws IOException
+     * @throws IllegalArgumentException if a key column or a column of the filter is not in the headers
+     */
+    public RowReader(Reader in, List<String> headers, List<String> keyColumns,
+            Collection<String> include, Collection<String> exclude, RowFilter filter) throws IOException {
+        this.reader = new CSVReader(in, 0, new RFC4180Parser());
+        this.keyColumns = keyColumns;
+
+        if (headers == null) {
+            String[] line = reader.readNext();
+            headers = line == null ? Arrays.<String>asList() : Arrays.asList(line);
+        }
+
+        // Duplicate headers are dropped as they are for a Sheet
+        try {
+            this.filter = filter == null ? null : filter.bind(headers);
+            this.keep = Schema.projection(headers, include, exclude, keyColumns);
+            this.schema = Schema.forHeaderLine(Arrays.asList(Schema.project(headers.toArray(new String[0]), keep)), keyColumns);
+        } catch (IllegalArgumentException e) {
+            reader.close();
+            throw e;
+        }
+        this.keyPos = schema.positions(keyColumns);
+    }
+
+    @Override
+    public Collection<String> getHeaders() {
+        return schema.getHeaders();
+    }
+
+    @Override
+    public Row next() throws IOException {
+        String[] record;
+        do {
+            record = reader.readNext();
+            if (record == null)
+                return null;
+        } while (filter != null && !filter.accepts(record));
+        record = Schema.project(record, keep);
+        schema.checkRecord(record, keyPos);
+
+        String[] values = record.length == schema.size() ? record : Arrays.copyOf(record, schema.size());
+        for (int i = record.length; i < values.length; i++)
+            values[i] = "";
+        return new Row(schema, values, keyColumns);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,25 @@
+package com.dk.csvdiff.csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * A stream of Rows that share one set of headers
+ *
+ * @author darrenkennedy
+ */
+public interface RowSource extends Closeable {
+    /**
+     * Get the headers shared by every Row
+     * @return The headers in file order
+     */
+    Collection<String> getHeaders();
+
+    /**
+     * Read the next Row
+     * @return The next Row or null at the end of the stream
+     * @throws IOException
+     */
+    Row next() throws IOException;
+}
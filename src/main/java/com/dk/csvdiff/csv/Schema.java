@@ -0,0 +1,212 @@
+package com.dk.csvdiff.csv;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.dk.csvdiff.i18n.Messages;
+
+/**
+ * An ordered set of column names shared by every Row built from it.
+ * Rows hold a reference to their Schema rather than their own copy of the headers.
+ *
+ * @author darrenkennedy
+ */
+final class Schema {
+    private final String[] names;
+    private final Map<String, Integer> index;
+    private final Set<String> nameSet;
+    private final int hash;
+    private volatile long[] columnHashes;
+
+    /**
+     * Create a Schema from a list of column names.
+     * Duplicate names are collapsed onto the position of their first occurrence.
+     * @param headers The column names
+     */
+    Schema(List<String> headers) {
+        this.index = new HashMap<>(headers.size() * 2);
+        Set<String> distinct = new LinkedHashSet<>();
+        for (String h: headers) {
+            if (distinct.add(h))
+                index.put(h, distinct.size() - 1);
+        }
+        this.names = distinct.toArray(new String[0]);
+        this.nameSet = Collections.unmodifiableSet(distinct);
+        this.hash = Arrays.hashCode(names);
+    }
+
+    /**
+     * Create the Schema for the header line of a CSV file
+     * @param headers The header line
+     * @param keyColumns The key column names
+     * @return The Schema
+     * @throws IllegalArgumentException if a key column is not in the headers
+     */
+    static Schema forHeaderLine(List<String> headers, List<String> keyColumns) {
+        Schema schema = new Schema(headers);
+        for (String keyColumn: keyColumns) {
+            if (schema.indexOf(keyColumn) < 0) {
+                throw new IllegalArgumentException(Messages.getMessage("IdColNotFound", keyColumn));
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Choose the fields of a header line to keep
+     * @param headers The header line
+     * @param include The columns to keep or null to keep every column
+     * @param exclude The columns to drop
+     * @param keyColumns The key columns, which are always kept
+     * @return Whether to keep each field, or null if every field is kept
+     */
+    static boolean[] projection(List<String> headers, Collection<String> include, Collection<String> exclude, List<String> keyColumns) {
+        if (include == null && exclude.isEmpty())
+            return null;
+        boolean[] keep = new boolean[headers.size()];
+        boolean all = true;
+        for (int i = 0; i < keep.length; i++) {
+            String h = headers.get(i);
+            keep[i] = keyColumns.contains(h) || (include == null || include.contains(h)) && !exclude.contains(h);
+            all &= keep[i];
+        }
+        return all ? null : keep;
+    }
+
+    /**
+     * @param values Values of a record
+     * @param keep Whether to keep each value, values beyond its length being kept, or null to keep them all
+     * @return The values kept
+     */
+    static String[] project(String[] values, boolean[] keep) {
+        if (keep == null)
+            return values;
+        String[] kept = new String[values.length];
+        int n = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (i >= keep.length || keep[i])
+                kept[n++] = values[i];
+        }
+        return Arrays.copyOf(kept, n);
+    }
+
+    /**
+     * Check a record read from a CSV file against this Schema
+     * @param record The values of the record
+     * @param keyPos The positions of the key columns
+     * @throws IllegalArgumentException if there are more values than columns or a key value is null
+     */
+    void checkRecord(String[] record, int[] keyPos) {
+        if (record.length > names.length) {
+            throw new IllegalArgumentException(Messages.getMessage("HeadersValuesMismatch"));
+        }
+        for (int pos: keyPos) {
+            if (pos < record.length && record[pos] == null) {
+                throw new IllegalArgumentException(Messages.getMessage("NullId"));
+            }
+        }
+    }
+
+    /**
+     * Check a tokenized record against this Schema
+     * @param block The tokenized records
+     * @param record The record index
+     * @param keyPos The positions of the key columns
+     * @return The Key of the record
+     * @throws IllegalArgumentException if there are more values than columns
+     */
+    Key checkRecord(RecordBlock block, int record, int[] keyPos) {
+        int count = block.fieldCount(record);
+        if (count > names.length) {
+            throw new IllegalArgumentException(Messages.getMessage("HeadersValuesMismatch"));
+        }
+        Key.Builder key = new Key.Builder();
+        for (int pos: keyPos)
+            block.addTo(key, record, pos);
+        return key.build();
+    }
+
+    /**
+     * @param columns Column names
+     * @return The position of each column, -1 for a column not in this Schema
+     */
+    int[] positions(List<String> columns) {
+        int[] positions = new int[columns.size()];
+        for (int i = 0; i < positions.length; i++)
+            positions[i] = indexOf(columns.get(i));
+        return positions;
+    }
+
+    /**
+     * @return The number of distinct columns
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * @param pos Column position
+     * @return The column name at the position
+     */
+    String name(int pos) {
+        return names[pos];
+    }
+
+    /**
+     * @param name Column name
+     * @return The position of the column or -1 if it is not in this Schema
+     */
+    int indexOf(String name) {
+        Integer pos = index.get(name);
+        return pos == null ? -1 : pos;
+    }
+
+    /**
+     * @param pos Column position
+     * @param half 0 or 1
+     * @return The fingerprint hash of the column name
+     */
+    long columnHash(int pos, int half) {
+        long[] h = columnHashes;
+        if (h == null) {
+            h = new long[names.length * 2];
+            for (int i = 0; i < names.length; i++) {
+                h[i * 2] = Fingerprint.column(names[i], 0);
+                h[i * 2 + 1] = Fingerprint.column(names[i], 1);
+            }
+            columnHashes = h;
+        }
+        return h[pos * 2 + half];
+    }
+
+    /**
+     * @return The column names in order
+     */
+    Set<String> getHeaders() {
+        return nameSet;
+    }
+
+    /**
+     * Schemas are equal if they have the same column names in the same order
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null || getClass() != obj.getClass())
+            return false;
+        Schema other = (Schema) obj;
+        return hash == other.hash && Arrays.equals(names, other.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
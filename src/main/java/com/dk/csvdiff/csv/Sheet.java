@@ -1,36 +1,67 @@
 package com.dk.csvdiff.csv;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.LinkedHashSet;
-import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
-import com.dk.csvdiff.i18n.Messages;
-import com.opencsv.CSVReader;
 import com.opencsv.CSVWriter;
-import com.opencsv.RFC4180Parser;
 
 /**
- * Represents a CSV file with an id column
+ * Represents a CSV file with an id column, or with key columns that together identify a row,
  * or the differences between two CSV files.
+ * Cell values are held column by column in a ColumnStore, or as byte offsets
+ * into the parsed CSV data, and Rows returned by the Sheet are views of a row ordinal.
+ * Parsed rows are fingerprinted so identical rows can be matched without comparing cells,
+ * and the cells of columns with few distinct values are held as one byte dictionary codes.
+ * Rows are found through an id index, which holds whole number ids as longs
+ * until an id that is not a whole number is added, and other ids can be
+ * front coded once they are parsed.
+ * The parsed data, offsets and id index can be kept off the heap in an OffHeapArena.
+ * A Sheet may be read from many threads once it is built
+ * but adding Rows is not thread safe.
  *
  * @author darrenkennedy
  */
 public class Sheet {
-    private CSVReader reader;
-    private Map<String, Row> rows;
+    private ColumnStore store;
+    private IdIndex rows;
     private Set<String> cols;
-    private String idColumn;
+    private List<String> keyColumns;
+    private boolean zeroMatchesNull;
+    private boolean compactIds;
+    private OffHeapArena arena;
+    private ConcurrentMap<String, ColumnDictionary> dictionaries;   // By column name
+    private Set<String> include;        // The columns parsed, null for every column
+    private Set<String> exclude;        // Columns never parsed
+    private RowFilter filter;           // The conditions parsed records must meet, null to keep every record
+    private File source;    // The file every row was parsed from, if there is one
 
     // Default constuctor
     private Sheet() {
-        this.rows = new LinkedHashMap<>();
+        this.store = new ColumnStore();
+        this.rows = new HashIdIndex();
         this.cols = new LinkedHashSet<>();
+        this.dictionaries = new ConcurrentHashMap<>();
+        this.exclude = Collections.emptySet();
     }
     
     /**
@@ -38,34 +69,120 @@ public class Sheet {
      * @param idColumn The id column name
      */
     public Sheet(String idColumn) {
-    	this();
-        this.idColumn = idColumn;
+        this(Collections.singletonList(idColumn));
     }
 
     /**
-     * Parse data from the Reader to build the Sheet data
+     * Create a sheet keyed by the values of several columns
+     * @param keyColumns The key column names in key order
+     */
+    public Sheet(List<String> keyColumns) {
+        this();
+        this.keyColumns = Collections.unmodifiableList(new ArrayList<>(keyColumns));
+        this.rows = keyColumns.size() == 1 ? new LongIdIndex() : new HashIdIndex();
+    }
+
+    /**
+     * Set how rows parsed from now on are fingerprinted
+     * @param zeroMatchesNull true if '0' matches an empty cell, as for the RowDiffer comparing the rows
+     */
+    public void setZeroMatchesNull(boolean zeroMatchesNull) {
+        this.zeroMatchesNull = zeroMatchesNull;
+    }
+
+    /**
+     * Hold the ids of parsed rows in a front coded sorted index, which takes far less memory
+     * than a hash index for ids with shared prefixes but finds rows by binary search.
+     * Whole number ids are held compactly either way.
+     * @param compactIds true to compact the ids after each parse
+     */
+    public void setCompactIds(boolean compactIds) {
+        this.compactIds = compactIds;
+    }
+
+    /**
+     * Keep the data, offsets and fingerprints of rows parsed from now on, and the id index
+     * once a parse is done, in an arena outside the heap so garbage collections do not copy or scan them.
+     * Whatever does not fit in the arena stays on the heap. The arena belongs to the caller,
+     * who must not close it until the Sheet and its Rows are no longer used.
+     * @param arena The arena or null to keep everything on the heap
+     */
+    public void setOffHeap(OffHeapArena arena) {
+        this.arena = arena;
+    }
+
+    /**
+     * Encode the columns of rows parsed from now on with the same dictionaries as another Sheet,
+     * so equal cells of the two Sheets in an encoded column are compared by their codes
+     * @param other The Sheet to share dictionaries with
+     */
+    public void shareDictionaries(Sheet other) {
+        this.dictionaries = other.dictionaries;
+    }
+
+    /**
+     * Parse only some of the columns of data parsed from now on. The other fields are skipped
+     * as records are tokenized and never stored, so the memory and time a parse takes grow
+     * with the columns kept rather than with the columns in the data.
+     * The key columns are always kept. A Sheet parsed this way is not saved as a snapshot.
+     * @param include The columns to keep or null to keep every column
+     * @param exclude The columns to drop
+     */
+    public void setColumns(Collection<String> include, Collection<String> exclude) {
+        this.include = include == null ? null : new HashSet<>(include);
+        this.exclude = new HashSet<>(exclude);
+    }
+
+    /**
+     * Keep only the records of data parsed from now on that meet some conditions.
+     * The conditions are tested against the cells of each record as it is tokenized,
+     * so the other records are never stored. The columns tested need not be parsed.
+     * A Sheet parsed this way is not saved as a snapshot.
+     * @param filter The conditions or null to keep every record
+     */
+    public void setFilter(RowFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Parse data from the Reader to build the Sheet data.
+     * The data is encoded as UTF-8 and tokenized as bytes a chunk at a time,
+     * which the Sheet keeps and decodes cell by cell when values are read.
      * @param in The Sheet data as CSV
      * @throws IOException
      */
     public void parse(Reader in) throws IOException {
-        open(in);
-        try {
-            cols.addAll(Arrays.asList(reader.readNext()));
+        parse(in, null);
+    }
 
-            if (!cols.contains(idColumn)) {
-                throw new IllegalArgumentException(Messages.getMessage("IdColNotFound", idColumn));
-            }
+    /**
+     * Parse data from the Reader to build the Sheet data, without holding it whole.
+     * The data is encoded as UTF-8 and cut into chunks of records, and each chunk is
+     * tokenized on the pool while the next one is read.
+     * @param in The Sheet data as CSV
+     * @param pool Threads for tokenizing, which may be shared with other parses, or null to tokenize on this thread
+     * @throws IOException
+     */
+    public void parse(Reader in, ExecutorService pool) throws IOException {
+        source = null;
+        new StreamCsvParser(pool, arena).parse(in, new Loader());
+        finishRows();
+    }
 
-            reader
-                .readAll()
-                .stream()
-                .forEach(r -> {
-                    Row r2 = new Row(r, cols.toArray(new String[0]), idColumn);
-                    rows.put(r2.getId(), r2);
-                });
-        } finally {
-            reader.close();
-        }
+    /**
+     * Parse a UTF-8 CSV file to build the Sheet data.
+     * The file is memory mapped and chunks of records are tokenized in parallel.
+     * Rows hold offsets into the mapped file, so it must not change while the Sheet is in use.
+     * @param file The Sheet data as CSV
+     * @param pool Threads for tokenizing, which may be shared with other parses
+     * @throws IOException
+     */
+    public void parse(File file, ExecutorService pool) throws IOException {
+        File parsed = store.size() == 0 ? file : null;
+        source = null;
+        new MappedCsvParser(pool).parse(file, new Loader());
+        source = parsed;
+        finishRows();
     }
 
     /**
@@ -76,8 +193,7 @@ public class Sheet {
     public void write(Writer out) throws IOException {
         try (CSVWriter writer = new CSVWriter(out, ',')) {
             writer.writeNext(cols.toArray(new String[0]), false);
-            rows
-                .values()
+            getRows()
                 .stream()
                 .forEach(r -> writer.writeNext(r.toArray(new String[0]), false));
         } finally {
@@ -85,10 +201,6 @@ public class Sheet {
         }
     }
 
-    private void open(Reader in) throws IOException {
-        reader = new CSVReader(in, 0, new RFC4180Parser());
-    }
-
     /**
      * Get the set of headers
      * @return The set of header
@@ -102,34 +214,132 @@ public class Sheet {
      * @return The set of Rows
      */
     public Collection<Row> getRows() {
-        return this.rows.values();
+        return new AbstractCollection<Row>() {
+            @Override
+            public Iterator<Row> iterator() {
+                return new Iterator<Row>() {
+                    private int ordinal = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return ordinal < store.size();
+                    }
+
+                    @Override
+                    public Row next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        return new Row(store, ordinal++, keyColumns);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return store.size();
+            }
+        };
     }
 
     /**
      * Get the row with the specified id
      * or null if no such row exists
-     * @param id The id for the row to fetch
+     * @param id The id for the row to fetch, the value of the single key column
      * @return The matching row or null
      */
     public Row getRow(String id) {
-        return this.rows.get(id);
+        return getRow(Key.of(id));
+    }
+
+    /**
+     * Get the row with the specified Key
+     * or null if no such row exists
+     * @param key The Key for the row to fetch
+     * @return The matching row or null
+     */
+    public Row getRow(Key key) {
+        int ordinal = this.rows.get(key);
+        return ordinal < 0 ? null : new Row(store, ordinal, keyColumns);
+    }
+
+    /**
+     * Get the number of rows
+     * @return The number of rows
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Get the row at a position in the Sheet
+     * @param ordinal The position of the row, from 0 to size() - 1
+     * @return The row at the position
+     */
+    public Row getRowAt(int ordinal) {
+        if (ordinal < 0 || ordinal >= store.size())
+            throw new IndexOutOfBoundsException(String.valueOf(ordinal));
+        return new Row(store, ordinal, keyColumns);
     }
 
     /**
      * Checks to see if a row with the specified id exists
-     * @param id The id to check for
+     * @param id The id to check for, the value of the single key column
      * @return True if a row with the id exists
      */
     public boolean contains(String id) {
-        return this.rows.containsKey(id);
+        return contains(Key.of(id));
+    }
+
+    /**
+     * Checks to see if a row with the specified Key exists
+     * @param key The Key to check for
+     * @return True if a row with the Key exists
+     */
+    public boolean contains(Key key) {
+        return this.rows.get(key) >= 0;
     }
 
     /**
      * Get the id column name
-     * @return The id column name
+     * @return The id column name, the first key column for a composite key
      */
     public String getIdColumn() {
-        return this.idColumn;
+        return this.keyColumns.get(0);
+    }
+
+    /**
+     * Get the key column names
+     * @return The key column names in key order
+     */
+    public List<String> getKeyColumns() {
+        return this.keyColumns;
+    }
+
+    /**
+     * Parse every cell of a column once with the comparator it will be compared with,
+     * so comparing its cells needs no parsing. Cells changed later are parsed again.
+     * @param column The column name
+     * @param comparator The comparator of the column
+     */
+    public void typeColumn(String column, ColumnComparator comparator) {
+        store.parse(column, comparator);
+    }
+
+    /**
+     * Sample the cells of a column from rows spread evenly through the Sheet
+     * @param column The column name
+     * @param count The most cells to sample
+     * @return The cells, without those of rows that do not have the column
+     */
+    public List<String> sample(String column, int count) {
+        List<String> sample = new ArrayList<>();
+        int step = Math.max(1, store.size() / Math.max(1, count));
+        for (int ordinal = 0; ordinal < store.size() && sample.size() < count; ordinal += step) {
+            int pos = store.layout(ordinal).schema.indexOf(column);
+            if (pos >= 0)
+                sample.add(store.get(ordinal, pos));
+        }
+        return sample;
     }
 
     /**
@@ -137,7 +347,190 @@ public class Sheet {
      * @param row The Row to add
      */
     public void addRow(Row row) {
+        source = null;
         cols.addAll(row.getHeaders());
-        rows.put(row.getId(), row);
+        put(row.getKey(), row.getSchema(), row.copyValues());
+    }
+
+    /*
+     * Adds the records of a parsed file
+     */
+    private class Loader implements MappedCsvParser.Handler {
+        private Schema schema;
+        private int[] keyPos;
+        private ColumnDictionary[] encodable;   // The dictionary of each position, null for key columns
+        private RowFilter.Bound bound;
+
+        @Override
+        public boolean[] header(String[] headers) {
+            bound = filter == null ? null : filter.bind(Arrays.asList(headers));
+            boolean[] keep = Schema.projection(Arrays.asList(headers), include, exclude, keyColumns);
+            schema = Schema.forHeaderLine(Arrays.asList(Schema.project(headers, keep)), keyColumns);
+            keyPos = schema.positions(keyColumns);
+            cols.addAll(schema.getHeaders());
+            encodable = new ColumnDictionary[schema.size()];
+            for (int pos = 0; pos < encodable.length; pos++) {
+                if (!keyColumns.contains(schema.name(pos)))
+                    encodable[pos] = dictionaries.computeIfAbsent(schema.name(pos), name -> new ColumnDictionary());
+            }
+            return keep;
+        }
+
+        @Override
+        public RowFilter.Bound filter() {
+            return bound;
+        }
+
+        @Override
+        public void tokenized(RecordBlock block) {
+            block.fingerprint(schema, zeroMatchesNull);
+            block.encode(encodable, 0);
+            if (arena != null)
+                block.moveTo(arena);
+        }
+
+        @Override
+        public void records(RecordBlock block) {
+            for (int r = 0; r < block.size(); r++) {
+                Key key = schema.checkRecord(block, r, keyPos);
+                int ordinal = writableRows(key).get(key);
+                if (ordinal < 0)
+                    rows.put(key, store.append(schema, block, r));
+                else
+                    store.set(ordinal, schema, block, r);
+            }
+        }
+    }
+
+    /*
+     * Store the values for a Key, replacing any existing row with the same Key
+     */
+    private void put(Key key, Schema schema, String[] values) {
+        int ordinal = writableRows(key).get(key);
+        if (ordinal < 0)
+            rows.put(key, store.append(schema, values));
+        else
+            store.set(ordinal, schema, values);
+    }
+
+    /*
+     * The id index for adding a Key, replacing a read only index from a snapshot with one that can be changed
+     * and an index of whole number ids with a HashIdIndex when the Key is not a whole number
+     */
+    private IdIndex writableRows(Key key) {
+        if (rows.isReadOnly() || !rows.accepts(key)) {
+            IdIndex copy = new LongIdIndex();
+            if (keyColumns.size() != 1 || !copy.accepts(key) || !copyRows(copy)) {
+                copy = new HashIdIndex();
+                copyRows(copy);
+            }
+            rows = copy;
+        }
+        return rows;
+    }
+
+    /*
+     * Once a parse is done move the id index off the heap, or replace a hash index
+     * with a front coded one if ids are to be compacted.
+     * A bitmap of whole number ids is already smaller than either.
+     */
+    private void finishRows() {
+        boolean bitmap = rows instanceof LongIdIndex && ((LongIdIndex) rows).isBitmap();
+        if (arena != null && !bitmap && !rows.isReadOnly() && store.size() > 0 && store.isRecordsOnly()) {
+            ByteBuffer b = arena.allocate(MappedIdIndex.tableSize(store.size()) * 4);
+            if (b != null) {
+                int[] keyPos = store.layout(0).schema.positions(keyColumns);
+                IntBuffer table = b.asIntBuffer();
+                MappedIdIndex.build(store, keyPos, table);
+                rows = new MappedIdIndex(table, store, keyPos);
+                return;
+            }
+        }
+        if (compactIds && rows instanceof HashIdIndex)
+            rows = FrontCodedIdIndex.build(store, keyColumns);
+    }
+
+    /*
+     * Add every row to an empty index
+     * @return false if the index does not accept a Key
+     */
+    private boolean copyRows(IdIndex index) {
+        for (int ordinal = 0; ordinal < store.size(); ordinal++) {
+            Key key = store.key(ordinal, store.layout(ordinal).schema.positions(keyColumns));
+            if (!index.accepts(key))
+                return false;
+            index.put(key, ordinal);
+        }
+        return true;
+    }
+
+    /*
+     * Snapshots hold every column and record of a file, so a Sheet keeping only some neither loads nor saves them
+     */
+    private boolean isProjected() {
+        return include != null || !exclude.isEmpty() || filter != null;
+    }
+
+    /**
+     * Save a snapshot of this Sheet if every row was parsed from a CSV file
+     * @param csv The CSV file
+     * @param snapshot The snapshot file to write
+     * @return false if the Sheet was not built only by parsing the CSV file
+     * @throws IOException
+     */
+    boolean save(File csv, File snapshot) throws IOException {
+        if (!csv.equals(source) || store.size() == 0 || !store.isRecordsOnly() || isProjected())
+            return false;
+        Snapshot.write(snapshot, csv, keyColumns, store.layout(0).schema, store);
+        return true;
+    }
+
+    /**
+     * Load an empty Sheet from a snapshot of a CSV file.
+     * Fingerprints saved with another zeroMatchesNull setting are taken again.
+     * @param csv The CSV file
+     * @param snapshot The snapshot file
+     * @param pool Threads for fingerprinting
+     * @return false if the snapshot does not match the CSV file
+     * @throws IOException
+     */
+    boolean load(File csv, File snapshot, ExecutorService pool) throws IOException {
+        if (store.size() != 0 || isProjected())
+            return false;
+        Snapshot s = Snapshot.read(snapshot, csv, keyColumns);
+        if (s == null)
+            return false;
+
+        final Schema schema = s.getSchema();
+        List<Future<?>> fingerprints = new ArrayList<>();
+        for (final RecordBlock block: s.getBlocks()) {
+            if (!block.hasFingerprints(zeroMatchesNull))
+                fingerprints.add(pool.submit(() -> block.fingerprint(schema, zeroMatchesNull)));
+        }
+        try {
+            for (Future<?> f: fingerprints)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+
+        // Arrays mapped from the snapshot are outside the heap already and stay mapped
+        if (arena != null) {
+            for (RecordBlock block: s.getBlocks())
+                block.moveTo(arena);
+        }
+        store.load(schema, s.getBlocks(), s.getRowBlocks(), s.getRowRecords());
+        // Share the saved dictionaries with Sheets parsed later where they can
+        for (RecordBlock block: s.getBlocks()) {
+            for (int e = 0; e < block.encodedPositions().length; e++)
+                dictionaries.putIfAbsent(schema.name(block.encodedPositions()[e]), block.encodedDictionaries()[e]);
+        }
+        rows = new MappedIdIndex(s.getIdTable(), store, schema.positions(keyColumns));
+        cols.addAll(schema.getHeaders());
+        source = csv;
+        return true;
     }
 }
@@ -0,0 +1,301 @@
+package com.dk.csvdiff.csv;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary snapshot of a Sheet parsed from a CSV file.
+ * A snapshot holds the Schema, the column dictionaries, the field offsets,
+ * codes and fingerprints of every block of records, the block and record
+ * of every row and the id index.
+ * Cell data is not copied; the offsets refer to the CSV file, which is
+ * mapped again on load. A snapshot is only used while the CSV file has the
+ * size, modification time and content hash it was saved with. The hash covers
+ * every byte of the file, as an edit that keeps the size and time would otherwise
+ * leave offsets, fingerprints and id table pointing at the old cells.
+ * All arrays are mapped straight from the snapshot file on load.
+ *
+ * @author darrenkennedy
+ */
+final class Snapshot {
+    private static final long MAGIC = 0x4353564449464631L;  // CSVDIFF1
+    private static final int VERSION = 4;
+    // Bytes of the CSV file read at a time to hash it
+    private static final int HASH_CHUNK = 1 << 20;
+    private static final long HASH_PRIME = 0x9E3779B97F4A7C15L;
+
+    private final Schema schema;
+    private final List<RecordBlock> blocks;
+    private final int[] rowBlocks;
+    private final int[] rowRecords;
+    private final IntBuffer idTable;
+
+    private Snapshot(Schema schema, List<RecordBlock> blocks, int[] rowBlocks, int[] rowRecords, IntBuffer idTable) {
+        this.schema = schema;
+        this.blocks = blocks;
+        this.rowBlocks = rowBlocks;
+        this.rowRecords = rowRecords;
+        this.idTable = idTable;
+    }
+
+    Schema getSchema() {
+        return schema;
+    }
+
+    List<RecordBlock> getBlocks() {
+        return blocks;
+    }
+
+    int[] getRowBlocks() {
+        return rowBlocks;
+    }
+
+    int[] getRowRecords() {
+        return rowRecords;
+    }
+
+    IntBuffer getIdTable() {
+        return idTable;
+    }
+
+    /**
+     * Save the rows of a store parsed from a CSV file.
+     * The snapshot is written to a temporary file that replaces the target when complete.
+     * @param target The snapshot file
+     * @param csv The CSV file the rows were parsed from
+     * @param keyColumns The key column names
+     * @param schema The Schema of every row
+     * @param store The rows, all held as records
+     * @throws IOException
+     */
+    static void write(File target, File csv, List<String> keyColumns, Schema schema, ColumnStore store) throws IOException {
+        File dir = target.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile("csvdiff", ".tmp", dir);
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                writeKey(out, csv, keyColumns);
+
+                out.writeInt(schema.size());
+                for (int i = 0; i < schema.size(); i++)
+                    out.writeUTF(schema.name(i));
+
+                List<RecordBlock> blocks = store.blocks();
+                Map<ColumnDictionary, Integer> dictionaries = new IdentityHashMap<>();
+                for (RecordBlock b: blocks) {
+                    for (ColumnDictionary d: b.encodedDictionaries())
+                        dictionaries.putIfAbsent(d, dictionaries.size());
+                }
+                ColumnDictionary[] byIndex = new ColumnDictionary[dictionaries.size()];
+                for (Map.Entry<ColumnDictionary, Integer> e: dictionaries.entrySet())
+                    byIndex[e.getValue()] = e.getKey();
+                out.writeInt(byIndex.length);
+                for (ColumnDictionary d: byIndex) {
+                    // A dictionary shared with another Sheet may gain values while it is written
+                    int size = d.size();
+                    out.writeInt(size);
+                    for (int code = 0; code < size; code++) {
+                        byte[] v = d.bytes(code);
+                        out.writeInt(v.length);
+                        out.write(v);
+                    }
+                }
+
+                out.writeInt(blocks.size());
+                for (RecordBlock b: blocks) {
+                    IntBuffer firstFields = b.firstFields();
+                    IntBuffer bounds = b.bounds();
+                    LongBuffer fingerprints = b.fingerprints();
+                    out.writeLong(b.offset());
+                    out.writeInt(b.buffer().limit());
+                    out.writeInt(firstFields.limit());
+                    out.writeInt(bounds.limit());
+                    out.writeByte(fingerprints == null ? 0 : b.isZeroMatchesNull() ? 2 : 1);
+                    while (firstFields.hasRemaining())
+                        out.writeInt(firstFields.get());
+                    while (bounds.hasRemaining())
+                        out.writeInt(bounds.get());
+                    while (fingerprints != null && fingerprints.hasRemaining())
+                        out.writeLong(fingerprints.get());
+
+                    int[] encoded = b.encodedPositions();
+                    out.writeInt(encoded.length);
+                    for (int e = 0; e < encoded.length; e++) {
+                        out.writeInt(encoded[e]);
+                        out.writeInt(dictionaries.get(b.encodedDictionaries()[e]));
+                    }
+                    ByteBuffer codes = b.codes();
+                    while (codes != null && codes.hasRemaining())
+                        out.writeByte(codes.get());
+                }
+
+                out.writeInt(store.size());
+                for (int i = 0; i < store.size(); i++)
+                    out.writeInt(store.rowBlock(i));
+                for (int i = 0; i < store.size(); i++)
+                    out.writeInt(store.rowRecord(i));
+
+                int[] table = MappedIdIndex.build(store, schema.positions(keyColumns));
+                out.writeInt(table.length);
+                for (int v: table)
+                    out.writeInt(v);
+            }
+            if (!temp.renameTo(target)) {
+                target.delete();
+                if (!temp.renameTo(target))
+                    throw new IOException("Cannot replace " + target);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Map a snapshot
+     * @param source The snapshot file
+     * @param csv The CSV file it should have been saved for
+     * @param keyColumns The key column names
+     * @return The snapshot or null if it was saved for another version of the CSV file or other key columns
+     * @throws IOException
+     */
+    static Snapshot read(File source, File csv, List<String> keyColumns) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             FileChannel data = FileChannel.open(csv.toPath(), StandardOpenOption.READ)) {
+            FileChannel channel = in.getChannel();
+            if (in.length() < 12 || in.readLong() != MAGIC || in.readInt() != VERSION)
+                return null;
+            if (!readKey(in, data, csv, keyColumns))
+                return null;
+
+            List<String> names = new ArrayList<>();
+            for (int i = in.readInt(); i > 0; i--)
+                names.add(in.readUTF());
+            Schema schema = new Schema(names);
+
+            ColumnDictionary[] dictionaries = new ColumnDictionary[in.readInt()];
+            for (int i = 0; i < dictionaries.length; i++) {
+                String[] values = new String[in.readInt()];
+                for (int code = 0; code < values.length; code++) {
+                    byte[] v = new byte[in.readInt()];
+                    in.readFully(v);
+                    values[code] = new String(v, StandardCharsets.UTF_8);
+                }
+                dictionaries[i] = new ColumnDictionary(values);
+            }
+
+            int count = in.readInt();
+            List<RecordBlock> blocks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long offset = in.readLong();
+                int length = in.readInt();
+                int records = in.readInt();
+                int bounds = in.readInt();
+                int fingerprinted = in.readByte();
+                ByteBuffer buf = data.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                IntBuffer firstFieldBuf = mapInts(in, channel, records);
+                IntBuffer boundsBuf = mapInts(in, channel, bounds);
+                LongBuffer fingerprints = null;
+                if (fingerprinted != 0) {
+                    long pos = in.getFilePointer();
+                    fingerprints = channel.map(FileChannel.MapMode.READ_ONLY, pos, records * 16L).asLongBuffer();
+                    in.seek(pos + records * 16L);
+                }
+                RecordBlock block = new RecordBlock(buf, offset, firstFieldBuf, boundsBuf, fingerprints, fingerprinted == 2);
+
+                int[] encoded = new int[in.readInt()];
+                ColumnDictionary[] encodedDictionaries = new ColumnDictionary[encoded.length];
+                for (int e = 0; e < encoded.length; e++) {
+                    encoded[e] = in.readInt();
+                    encodedDictionaries[e] = dictionaries[in.readInt()];
+                }
+                if (encoded.length > 0) {
+                    long pos = in.getFilePointer();
+                    long codes = (long) records * encoded.length;
+                    block.setEncoding(encoded, encodedDictionaries, channel.map(FileChannel.MapMode.READ_ONLY, pos, codes));
+                    in.seek(pos + codes);
+                }
+                blocks.add(block);
+            }
+
+            int size = in.readInt();
+            int[] rowBlocks = new int[size];
+            mapInts(in, channel, size).get(rowBlocks);
+            int[] rowRecords = new int[size];
+            mapInts(in, channel, size).get(rowRecords);
+            IntBuffer idTable = mapInts(in, channel, in.readInt());
+
+            return new Snapshot(schema, blocks, rowBlocks, rowRecords, idTable);
+        }
+    }
+
+    private static IntBuffer mapInts(RandomAccessFile in, FileChannel channel, int count) throws IOException {
+        long pos = in.getFilePointer();
+        IntBuffer ints = channel.map(FileChannel.MapMode.READ_ONLY, pos, count * 4L).asIntBuffer();
+        in.seek(pos + count * 4L);
+        return ints;
+    }
+
+    private static void writeKey(DataOutputStream out, File csv, List<String> keyColumns) throws IOException {
+        try (FileChannel data = FileChannel.open(csv.toPath(), StandardOpenOption.READ)) {
+            out.writeLong(data.size());
+            out.writeLong(csv.lastModified());
+            out.writeLong(contentHash(data));
+        }
+        out.writeInt(keyColumns.size());
+        for (String keyColumn: keyColumns)
+            out.writeUTF(keyColumn);
+    }
+
+    private static boolean readKey(RandomAccessFile in, FileChannel data, File csv, List<String> keyColumns) throws IOException {
+        if (in.readLong() != data.size()
+                || in.readLong() != csv.lastModified()
+                || in.readLong() != contentHash(data)
+                || in.readInt() != keyColumns.size())
+            return false;
+        for (String keyColumn: keyColumns) {
+            if (!in.readUTF().equals(keyColumn))
+                return false;
+        }
+        return true;
+    }
+
+    /*
+     * Hash of every byte of a file, read sequentially a chunk and hashed a word at a time
+     */
+    private static long contentHash(FileChannel data) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocateDirect(HASH_CHUNK);
+        long h = data.size();
+        long pos = 0;
+        while (true) {
+            chunk.clear();
+            int n;
+            while (chunk.hasRemaining() && (n = data.read(chunk, pos)) > 0)
+                pos += n;
+            int end = chunk.position();
+            if (end == 0)
+                return h;
+            int i = 0;
+            for (; i + 8 <= end; i += 8) {
+                h = (h ^ chunk.getLong(i)) * HASH_PRIME;
+                h ^= h >>> 29;
+            }
+            for (; i < end; i++)
+                h = (h ^ (chunk.get(i) & 0xff)) * HASH_PRIME;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.dk.csvdiff.csv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Reuses binary snapshots of parsed CSV files across runs.
+ * A CSV file that has not changed since its snapshot was saved is loaded
+ * by mapping the snapshot instead of parsing it. Otherwise it is parsed
+ * and a new snapshot is saved. Snapshots are kept beside the CSV file
+ * or in a cache directory.
+ *
+ * @author darrenkennedy
+ */
+public class SnapshotCache {
+    private static final String SUFFIX = ".csvdiff";
+
+    private File dir;
+
+    /**
+     * @param dir Directory for the snapshots or null to keep them beside the CSV files
+     */
+    public SnapshotCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Load a Sheet from the snapshot of a CSV file, parsing the file if there is no usable snapshot.
+     * A snapshot that cannot be read or written is ignored.
+     * @param sheet An empty Sheet
+     * @param csv The CSV file
+     * @param pool Threads for parsing
+     * @throws IOException if the CSV file cannot be parsed
+     */
+    public void parse(Sheet sheet, File csv, ExecutorService pool) throws IOException {
+        File snapshot = snapshotFile(csv);
+        if (snapshot.isFile()) {
+            try {
+                if (sheet.load(csv, snapshot, pool))
+                    return;
+            } catch (IOException | RuntimeException e) {
+                // A damaged snapshot is replaced below
+            }
+        }
+
+        sheet.parse(csv, pool);
+        try {
+            sheet.save(csv, snapshot);
+        } catch (IOException e) {
+            // The cache is optional, for example the directory may be read only
+        }
+    }
+
+    /**
+     * @param csv A CSV file
+     * @return The snapshot file for the CSV file
+     */
+    public File snapshotFile(File csv) {
+        if (dir == null)
+            return new File(csv.getAbsoluteFile().getParentFile(), csv.getName() + SUFFIX);
+
+        // Keep files with the same name in different directories apart
+        String path = csv.getAbsolutePath();
+        try {
+            path = csv.getCanonicalPath();
+        } catch (IOException e) {
+            // Use the absolute path
+        }
+        return new File(dir, csv.getName() + "-" + Integer.toHexString(path.hashCode()) + SUFFIX);
+    }
+}
@@ -0,0 +1,177 @@
+package com.dk.csvdiff.csv;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Parses CSV text read from a stream, such as a decompressed file or standard input, without holding it whole.
+ * The text is encoded as UTF-8 into chunks that are cut at the last record boundary they hold,
+ * and each chunk is tokenized on a pool while the next one is read. Records are handed on
+ * in order as blocks of field offsets into their chunk, which the blocks keep.
+ *
+ * @author darrenkennedy
+ */
+class StreamCsvParser {
+    // Bytes read into a chunk before it is cut
+    private static final int CHUNK_SIZE = 4 << 20;
+    // Chunks tokenized or being tokenized before their records are handed on
+    private static final int PENDING = 8;
+
+    private ExecutorService pool;
+    private OffHeapArena arena;
+    private int chunkSize;
+
+    /**
+     * @param pool Runs the chunk tasks, which never wait on each other, or null to tokenize on the calling thread
+     * @param arena Holds the chunks outside the heap, or null
+     */
+    StreamCsvParser(ExecutorService pool, OffHeapArena arena) {
+        this(pool, arena, CHUNK_SIZE);
+    }
+
+    /*
+     * For tests of chunk boundaries
+     */
+    StreamCsvParser(ExecutorService pool, OffHeapArena arena, int chunkSize) {
+        this.pool = pool;
+        this.arena = arena;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Parse a stream, closing it
+     * @param in The CSV text
+     * @param handler Receives the header and then every record in order
+     * @throws IOException
+     */
+    void parse(Reader in, MappedCsvParser.Handler handler) throws IOException {
+        Chunks chunks = new Chunks(handler);
+        try {
+            try (Reader r = in; Writer w = new OutputStreamWriter(chunks, StandardCharsets.UTF_8)) {
+                char[] chars = new char[8192];
+                int n;
+                while ((n = r.read(chars)) >= 0)
+                    w.write(chars, 0, n);
+            }
+            chunks.finish();
+        } finally {
+            for (Future<RecordBlock> f: chunks.pending)
+                f.cancel(true);
+        }
+    }
+
+    /*
+     * Collects the encoded text and cuts it into chunks of whole records
+     */
+    private class Chunks extends OutputStream {
+        private final MappedCsvParser.Handler handler;
+        private final Deque<Future<RecordBlock>> pending = new ArrayDeque<>();
+        private byte[] buf = new byte[chunkSize];
+        private int count;
+        private int boundary;           // The end of the last record known to be whole
+        private boolean headerRead;
+        private boolean[] keep;
+        private RowFilter.Bound filter;
+
+        Chunks(MappedCsvParser.Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buf.length)
+                    cut();
+                int n = Math.min(len, buf.length - count);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /*
+         * Hand on the whole records of a full chunk, keeping the record it ends in,
+         * or make the chunk larger if that record is all it holds
+         */
+        private void cut() throws IOException {
+            ByteBuffer data = ByteBuffer.wrap(buf, 0, count);
+            // A record is only known to be whole if something follows its terminator
+            for (int next = CsvTokenizer.nextRecord(data, boundary, count); next < count;
+                    next = CsvTokenizer.nextRecord(data, boundary, count))
+                boundary = next;
+            if (boundary == 0) {
+                if (buf.length == Integer.MAX_VALUE - 8)
+                    throw new IOException("Record too large to read");
+                buf = Arrays.copyOf(buf, (int) Math.min(Integer.MAX_VALUE - 8, buf.length * 2L));
+                return;
+            }
+
+            byte[] full = buf;
+            int end = boundary;
+            buf = new byte[chunkSize + count - end];
+            System.arraycopy(full, end, buf, 0, count - end);
+            count -= end;
+            boundary = 0;
+            submit(full, end);
+        }
+
+        /*
+         * Hand on the records left at the end of the stream
+         */
+        void finish() throws IOException {
+            if (count > 0 || !headerRead)
+                submit(buf, count);
+            while (!pending.isEmpty())
+                handler.records(MappedCsvParser.get(pending.remove()));
+        }
+
+        /*
+         * Tokenize the records of a chunk, reading the header first if it is the first chunk
+         */
+        private void submit(final byte[] bytes, final int end) throws IOException {
+            int start = 0;
+            if (!headerRead) {
+                ByteBuffer data = ByteBuffer.wrap(bytes, 0, end);
+                start = CsvTokenizer.nextRecord(data, 0, end);
+                RecordBlock header = CsvTokenizer.tokenize(data, 0, start);
+                keep = handler.header(header.size() == 0 ? new String[0] : header.values(0));
+                filter = handler.filter();
+                headerRead = true;
+            }
+
+            final int from = start;
+            if (pool == null) {
+                handler.records(tokenize(bytes, from, end));
+                return;
+            }
+            pending.add(pool.submit(() -> tokenize(bytes, from, end)));
+            while (pending.size() > PENDING)
+                handler.records(MappedCsvParser.get(pending.remove()));
+        }
+
+        private RecordBlock tokenize(byte[] bytes, int from, int end) {
+            ByteBuffer data = ByteBuffer.wrap(bytes, 0, end);
+            if (arena != null)
+                data = arena.copy(data);
+            RecordBlock block = CsvTokenizer.tokenize(data, from, end, keep, filter);
+            handler.tokenized(block);
+            return block;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.dk.csvdiff.csv;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.opencsv.CSVWriter;
+
+/**
+ * A temporary CSV file of Rows sharing one set of headers.
+ * The file has no header line and is deleted when closed.
+ *
+ * @author darrenkennedy
+ */
+public class TempCsv implements Closeable {
+    private File file;
+    private List<String> headers;
+    private CSVWriter writer;
+    private long rowCount;
+
+    /**
+     * Create an empty temporary file
+     * @param dir The directory for the file or null for the system temp directory
+     * @param headers The headers of the Rows to be written
+     * @throws IOException
+     */
+    public TempCsv(File dir, List<String> headers) throws IOException {
+        this.file = File.createTempFile("csvdiff", ".csv", dir);
+        this.file.deleteOnExit();
+        this.headers = new ArrayList<>(headers);
+        this.writer = new CSVWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)), ',');
+    }
+
+    /**
+     * Append a Row
+     * @param row The Row to write
+     */
+    public void write(Row row) {
+        write(row.toArray(new String[0]));
+    }
+
+    /**
+     * Append a record
+     * @param values The values of the record in header order
+     */
+    public void write(String[] values) {
+        writer.writeNext(values, false);
+        rowCount++;
+    }
+
+    /**
+     * @return The number of Rows written
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Finish writing and read the Rows back
+     * @param keyColumns The key column names
+     * @return A source of the Rows in the order they were written
+     * @throws IOException
+     */
+    public RowReader read(List<String> keyColumns) throws IOException {
+        writer.flush();
+        return new RowReader(open(), headers, keyColumns);
+    }
+
+    /**
+     * Finish writing and copy the CSV text of the Rows to a writer
+     * @param out The writer to copy to
+     * @throws IOException
+     */
+    public void copyTo(Writer out) throws IOException {
+        writer.flush();
+        try (Reader in = open()) {
+            char[] buf = new char[8192];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                out.write(buf, 0, n);
+        }
+    }
+
+    /**
+     * Delete the file
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.close();
+        } finally {
+            file.delete();
+        }
+    }
+
+    private Reader open() throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+}
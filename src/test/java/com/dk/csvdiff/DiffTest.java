@@ -1,116 +1,624 @@
-package com.dk.csvdiff;
-
-import static org.junit.Assert.assertTrue;
-
-import java.io.IOException;
-import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.io.Writer;
-
-import org.junit.Test;
-
-public class DiffTest 
-{
-	@Test
-    public void testDisplayMatchingDisplayMissing() throws IOException
-    {
-        Reader inA = new StringReader(TestData.dataA);
-        Reader inB = new StringReader(TestData.dataB);
-        Writer out = new StringWriter();
-
-		final StringBuilder sbOut = new StringBuilder();
-		final StringBuilder sbErr = new StringBuilder();
-
-		Diff diff = new Diff(
-    			TestData.idColumn,
-    			TestData.nameA,
-    			TestData.nameB,
-    			inA,
-    			inB,
-    			TestData.output,
-    			out,
-                false, // zero matches null
-                true, // display matching data
-                true, // display missing rows
-                sbOut::append,
-                sbErr::append);
-    	
-    	diff.makeDiff();
-    	String testData = TestData.dataOutDisplayMatchingDisplayMissing;
-    	if (!TestData.dataOutDisplayMatchingDisplayMissing.endsWith("\n"))
-    		testData = TestData.dataOutDisplayMatchingDisplayMissing + "\n";
-    	assertTrue(out.toString().equals(testData));
-    	
-    	assertTrue(sbOut.toString().equals(TestData.stdOut));
-    	assertTrue(sbErr.toString().isEmpty());
-    }
-
-	@Test
-    public void testZeroMatchingNull() throws IOException
-    {
-        Reader inA = new StringReader(TestData.dataA);
-        Reader inB = new StringReader(TestData.dataB);
-        Writer out = new StringWriter();
-
-        final StringBuilder sbOut = new StringBuilder();
-		final StringBuilder sbErr = new StringBuilder();
-
-		Diff diff = new Diff(
-    			TestData.idColumn,
-    			TestData.nameA,
-    			TestData.nameB,
-    			inA,
-    			inB,
-    			TestData.output,
-    			out,
-                true, // zero matches null
-                false, // display matching data
-                false, // display missing rows
-                sbOut::append,
-                sbErr::append);
-    	
-    	diff.makeDiff();
-    	String testData = TestData.dataOutZeroMatchingNull;
-    	if (!TestData.dataOutZeroMatchingNull.endsWith("\n"))
-    		testData = TestData.dataOutZeroMatchingNull + "\n";
-    	assertTrue(out.toString().equals(testData));
-    	
-    	assertTrue(sbOut.toString().equals(TestData.stdOut));
-    	assertTrue(sbErr.toString().isEmpty());
-    }
-
-	@Test
-    public void testZeroNotMatchingNullNoDisplay() throws IOException
-    {
-        Reader inA = new StringReader(TestData.dataA);
-        Reader inB = new StringReader(TestData.dataB);
-        Writer out = new StringWriter();
-
-		final StringBuilder sbOut = new StringBuilder();
-		final StringBuilder sbErr = new StringBuilder();
-
-		Diff diff = new Diff(
-    			TestData.idColumn,
-    			TestData.nameA,
-    			TestData.nameB,
-    			inA,
-    			inB,
-    			TestData.output,
-    			out,
-                false, // zero matches null
-                false, // display matching data
-                false, // display missing rows
-                sbOut::append,
-                sbErr::append);
-    	
-    	diff.makeDiff();
-    	String testData = TestData.dataOutZeroNotMatchingNullNoDisplay;
-    	if (!TestData.dataOutZeroNotMatchingNullNoDisplay.endsWith("\n"))
-    		testData = TestData.dataOutZeroNotMatchingNullNoDisplay + "\n";
-    	assertTrue(out.toString().equals(testData));
-    	
-    	assertTrue(sbOut.toString().equals(TestData.stdOut));
-    	assertTrue(sbErr.toString().isEmpty());
-    }
-}
+package com.dk.csvdiff;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dk.csvdiff.cmdline.ParsedCommandLine;
+import com.dk.csvdiff.csv.ColumnComparator;
+import com.dk.csvdiff.csv.IdenticalCheck;
+import com.dk.csvdiff.csv.RowFilter;
+import com.dk.csvdiff.i18n.Messages;
+
+public class DiffTest 
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+    public void testDisplayMatchingDisplayMissing() throws IOException
+    {
+        Reader inA = new StringReader(TestData.dataA);
+        Reader inB = new StringReader(TestData.dataB);
+        Writer out = new StringWriter();
+
+		final StringBuilder sbOut = new StringBuilder();
+		final StringBuilder sbErr = new StringBuilder();
+
+		Diff diff = new Diff(
+    			TestData.idColumn,
+    			TestData.nameA,
+    			TestData.nameB,
+    			inA,
+    			inB,
+    			TestData.output,
+    			out,
+                false, // zero matches null
+                true, // display matching data
+                true, // display missing rows
+                sbOut::append,
+                sbErr::append);
+    	
+    	diff.makeDiff();
+    	String testData = TestData.dataOutDisplayMatchingDisplayMissing;
+    	if (!TestData.dataOutDisplayMatchingDisplayMissing.endsWith("\n"))
+    		testData = TestData.dataOutDisplayMatchingDisplayMissing + "\n";
+    	assertTrue(out.toString().equals(testData));
+    	
+    	assertTrue(sbOut.toString().equals(TestData.stdOut));
+    	assertTrue(sbErr.toString().isEmpty());
+    }
+
+	@Test
+    public void testZeroMatchingNull() throws IOException
+    {
+        Reader inA = new StringReader(TestData.dataA);
+        Reader inB = new StringReader(TestData.dataB);
+        Writer out = new StringWriter();
+
+        final StringBuilder sbOut = new StringBuilder();
+		final StringBuilder sbErr = new StringBuilder();
+
+		Diff diff = new Diff(
+    			TestData.idColumn,
+    			TestData.nameA,
+    			TestData.nameB,
+    			inA,
+    			inB,
+    			TestData.output,
+    			out,
+                true, // zero matches null
+                false, // display matching data
+                false, // display missing rows
+                sbOut::append,
+                sbErr::append);
+    	
+    	diff.makeDiff();
+    	String testData = TestData.dataOutZeroMatchingNull;
+    	if (!TestData.dataOutZeroMatchingNull.endsWith("\n"))
+    		testData = TestData.dataOutZeroMatchingNull + "\n";
+    	assertTrue(out.toString().equals(testData));
+    	
+    	assertTrue(sbOut.toString().equals(TestData.stdOut));
+    	assertTrue(sbErr.toString().isEmpty());
+    }
+
+	@Test
+    public void testZeroNotMatchingNullNoDisplay() throws IOException
+    {
+        Reader inA = new StringReader(TestData.dataA);
+        Reader inB = new StringReader(TestData.dataB);
+        Writer out = new StringWriter();
+
+		final StringBuilder sbOut = new StringBuilder();
+		final StringBuilder sbErr = new StringBuilder();
+
+		Diff diff = new Diff(
+    			TestData.idColumn,
+    			TestData.nameA,
+    			TestData.nameB,
+    			inA,
+    			inB,
+    			TestData.output,
+    			out,
+                false, // zero matches null
+                false, // display matching data
+                false, // display missing rows
+                sbOut::append,
+                sbErr::append);
+    	
+    	diff.makeDiff();
+    	String testData = TestData.dataOutZeroNotMatchingNullNoDisplay;
+    	if (!TestData.dataOutZeroNotMatchingNullNoDisplay.endsWith("\n"))
+    		testData = TestData.dataOutZeroNotMatchingNullNoDisplay + "\n";
+    	assertTrue(out.toString().equals(testData));
+    	
+    	assertTrue(sbOut.toString().equals(TestData.stdOut));
+    	assertTrue(sbErr.toString().isEmpty());
+    }
+
+	@Test
+    public void testSortedMatchesInMemory() throws IOException
+    {
+        boolean[] flags = new boolean[]{false, true};
+        for (boolean zeroMatchesNull: flags) {
+            for (boolean displayMatchingData: flags) {
+                for (boolean displayMissingRows: flags) {
+                    String msg = zeroMatchesNull + "," + displayMatchingData + "," + displayMissingRows;
+                    String[] inMemory = runDiff(TestData.dataASorted, TestData.dataBSorted,
+                            zeroMatchesNull, displayMatchingData, displayMissingRows, false);
+                    String[] sorted = runDiff(TestData.dataASorted, TestData.dataBSorted,
+                            zeroMatchesNull, displayMatchingData, displayMissingRows, true);
+                    assertEquals(msg + " output", inMemory[0], sorted[0]);
+                    assertEquals(msg + " stdOut", inMemory[1], sorted[1]);
+                    assertEquals(msg + " stdErr", inMemory[2], sorted[2]);
+                }
+            }
+        }
+    }
+
+	@Test
+    public void testSortedIdenticalFiles() throws IOException
+    {
+        String[] inMemory = runDiff(TestData.dataASorted, TestData.dataASorted, true, true, true, false);
+        String[] sorted = runDiff(TestData.dataASorted, TestData.dataASorted, true, true, true, true);
+        assertEquals("", sorted[0]);
+        assertTrue(sorted[1].endsWith(Messages.getMessage("IdenticalFiles") + "\n"));
+        assertEquals(inMemory[0], sorted[0]);
+        assertEquals(inMemory[1], sorted[1]);
+    }
+
+	@Test
+    public void testSortedOutOfOrder() throws IOException
+    {
+        try {
+            runDiff(TestData.dataA, TestData.dataBSorted, true, true, true, true);
+            fail("Expected unsorted input to fail");
+        } catch (IllegalArgumentException e) {
+            assertEquals(Messages.getMessage("IdsNotSorted", TestData.nameA, "6", "7"), e.getMessage());
+        }
+    }
+
+	@Test
+    public void testExternalSortMatchesSorted() throws IOException
+    {
+        boolean[] flags = new boolean[]{false, true};
+        for (boolean displayMatchingData: flags) {
+            for (boolean displayMissingRows: flags) {
+                String msg = displayMatchingData + "," + displayMissingRows;
+                String[] sorted = runDiff(TestData.dataASorted, TestData.dataBSorted,
+                        true, displayMatchingData, displayMissingRows, true);
+
+                Writer out = new StringWriter();
+                final StringBuilder sbOut = new StringBuilder();
+                Diff diff = newDiff(TestData.dataA, TestData.dataB, out, true, displayMatchingData, displayMissingRows, sbOut, sbOut);
+                diff.setExternalSort(true);
+                diff.setMemoryBudget(1); // Every record spills to its own run
+                diff.makeDiff();
+
+                assertEquals(msg + " output", sorted[0], out.toString());
+                assertEquals(msg + " stdOut", sorted[1], sbOut.toString());
+            }
+        }
+    }
+
+	@Test
+    public void testThreadsMatchSingleThread() throws IOException
+    {
+        boolean[] flags = new boolean[]{false, true};
+        for (boolean zeroMatchesNull: flags) {
+            for (boolean displayMatchingData: flags) {
+                for (boolean displayMissingRows: flags) {
+                    String msg = zeroMatchesNull + "," + displayMatchingData + "," + displayMissingRows;
+                    String[] single = runDiff(TestData.dataA, TestData.dataB,
+                            zeroMatchesNull, displayMatchingData, displayMissingRows, false);
+
+                    Writer out = new StringWriter();
+                    final StringBuilder sbOut = new StringBuilder();
+                    Diff diff = newDiff(TestData.dataA, TestData.dataB, out,
+                            zeroMatchesNull, displayMatchingData, displayMissingRows, sbOut, sbOut);
+                    diff.setThreads(3);
+                    diff.makeDiff();
+
+                    assertEquals(msg + " output", single[0], out.toString());
+                    assertEquals(msg + " stdOut", single[1], sbOut.toString());
+                }
+            }
+        }
+    }
+
+	@Test
+    public void testThreadsMatchSingleThreadManyRows() throws IOException
+    {
+        // Enough rows for many ranges, with changed, missing and added rows throughout
+        StringBuilder dataA = new StringBuilder("a,v,w\n");
+        StringBuilder dataB = new StringBuilder("w,a,v\n");
+        for (int i = 0; i < 5000; i++) {
+            if (i % 7 != 0)
+                dataA.append(i).append(",a").append(i).append(",").append(i % 3).append("\n");
+            if (i % 11 != 0)
+                dataB.append(i % 3 == 0 ? "" : String.valueOf(i % 3)).append(",").append(i)
+                     .append(",a").append(i % 5 == 0 ? i + 1 : i).append("\n");
+        }
+
+        for (boolean displayMatchingData: new boolean[]{false, true}) {
+            String[] single = runDiff(dataA.toString(), dataB.toString(), true, displayMatchingData, true, false);
+            Writer out = new StringWriter();
+            final StringBuilder sbOut = new StringBuilder();
+            Diff diff = newDiff(dataA.toString(), dataB.toString(), out, true, displayMatchingData, true, sbOut, sbOut);
+            diff.setThreads(3);
+            diff.makeDiff();
+
+            assertTrue(single[0].contains(Diff.DIFF_MARKER_B + "1012,"));
+            assertEquals(single[0], out.toString());
+            assertEquals(single[1], sbOut.toString());
+        }
+    }
+
+	@Test
+    public void testOffHeapMatchesHeap() throws IOException
+    {
+        StringBuilder dataA = new StringBuilder("a,v\n");
+        StringBuilder dataB = new StringBuilder("v,a\n");
+        for (int i = 0; i < 3000; i++) {
+            if (i % 7 != 0)
+                dataA.append("id").append(i).append(",\"a,").append(i).append("\"\n");
+            if (i % 11 != 0)
+                dataB.append("\"a,").append(i % 5 == 0 ? i + 1 : i).append("\",id").append(i).append("\n");
+        }
+
+        String[] heap = runDiff(dataA.toString(), dataB.toString(), true, false, true, false);
+        for (int threads: new int[]{1, 3}) {
+            Writer out = new StringWriter();
+            final StringBuilder sbOut = new StringBuilder();
+            Diff diff = newDiff(dataA.toString(), dataB.toString(), out, true, false, true, sbOut, sbOut);
+            diff.setOffHeap(1 << 20);
+            diff.setThreads(threads);
+            diff.makeDiff();
+
+            assertTrue(heap[0].contains("id10,\"a,10" + Diff.DIFF_MARKER_A + Diff.DIFF_MARKER_B + "a,11\""));
+            assertEquals(heap[0], out.toString());
+            assertEquals(heap[1], sbOut.toString());
+        }
+    }
+
+	@Test
+    public void testColumnTypes() throws IOException
+    {
+        String dataA = "a,amount,when,name,code\nid1,1.0,2024-01-05,Smith,007\nid2,2,2024-01-06,Jones,8\nid3,,2024-01-07,Brown,9\n";
+        String dataB = "a,amount,when,name,code\nid1,1.00,05-Jan-2024,SMITH,7\nid2,2.5,2024-01-06,Jones,8\nid3,0.0,07-Jan-2024,Brown,9\n";
+
+        for (boolean infer: new boolean[] {false, true}) {
+            for (boolean sorted: new boolean[] {false, true}) {
+                if (infer && sorted)
+                    continue;
+                Writer out = new StringWriter();
+                final StringBuilder sbOut = new StringBuilder();
+                Diff diff = newDiff(dataA, dataB, out, true, false, false, sbOut, sbOut);
+                if (infer) {
+                    diff.setInferTypes(true);
+                } else {
+                    diff.setColumnType("amount", ColumnComparator.number(0));
+                    diff.setColumnType("when", ColumnComparator.date());
+                }
+                diff.setColumnType("name", ColumnComparator.IGNORE_CASE);
+                diff.setSortedInput(sorted);
+                diff.makeDiff();
+
+                // '007' and '7' are codes, not numbers, when the types are inferred
+                String msg = "infer " + infer + ", sorted " + sorted;
+                assertEquals(msg, "a,amount,code,name,when\n"
+                        + "id1,,007" + Diff.DIFF_MARKER_A + Diff.DIFF_MARKER_B + "7,,\n"
+                        + "id2,2" + Diff.DIFF_MARKER_A + Diff.DIFF_MARKER_B + "2.5,,,\n", out.toString());
+            }
+        }
+    }
+
+	@Test
+    public void testColumnProjection() throws IOException
+    {
+        String dataA = "a,x,y,z\nid1,1,2,3\nid2,1,2,3\n";
+        String dataB = "z,y,a,x\n3,2,id1,1\n4,9,id2,1\n";
+
+        for (boolean sorted: new boolean[] {false, true}) {
+            Writer out = new StringWriter();
+            final StringBuilder sbOut = new StringBuilder();
+            Diff diff = newDiff(dataA, dataB, out, true, false, false, sbOut, sbOut);
+            diff.setIncludeColumns(Arrays.asList("x", "z"));
+            diff.setExcludeColumns(Arrays.asList("x", "a"));
+            diff.setSortedInput(sorted);
+            diff.makeDiff();
+            assertEquals("sorted " + sorted, "a,z\nid2,3" + Diff.DIFF_MARKER_A + Diff.DIFF_MARKER_B + "4\n", out.toString());
+        }
+    }
+
+	@Test
+    public void testRowFilter() throws IOException
+    {
+        String dataA = "a,region,v\nid1,N,1\nid2,S,1\nid3,N,1\nid4,N,1\n";
+        String dataB = "a,region,v\nid1,N,2\nid2,S,2\nid4,N,1\nid5,S,1\n";
+
+        for (boolean sorted: new boolean[] {false, true}) {
+            Writer out = new StringWriter();
+            final StringBuilder sbOut = new StringBuilder();
+            Diff diff = newDiff(dataA, dataB, out, true, false, false, sbOut, sbOut);
+            diff.setRowFilter(new RowFilter(Arrays.asList("region=N", "a<id4")));
+            diff.setSortedInput(sorted);
+            diff.makeDiff();
+            assertEquals("sorted " + sorted, "a,region,v\nid1,,1" + Diff.DIFF_MARKER_A + Diff.DIFF_MARKER_B + "2\n", out.toString());
+            assertTrue(sbOut.toString().contains("id3"));
+            assertFalse(sbOut.toString().contains("id2"));
+        }
+    }
+
+	@Test
+    public void testCompressedFiles() throws IOException
+    {
+        File gzA = folder.newFile("a.csv.gz");
+        try (Writer w = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(gzA)), StandardCharsets.UTF_8)) {
+            w.write(TestData.dataA);
+        }
+        File b = newFile("b.csv", TestData.dataB);
+        File out = new File(folder.getRoot(), "out.csv.gz");
+
+        ParsedCommandLine cmd = new ParsedCommandLine();
+        assertTrue(cmd.parseCommandLine(new String[] {"-z", "-m", TestData.idColumn, gzA.getPath(), b.getPath(), out.getPath()}));
+        new Diff(cmd).makeDiff();
+
+        StringBuilder sb = new StringBuilder();
+        try (Reader r = new InputStreamReader(new GZIPInputStream(new FileInputStream(out)), StandardCharsets.UTF_8)) {
+            int c;
+            while ((c = r.read()) >= 0)
+                sb.append((char) c);
+        }
+        String expected = TestData.dataOutDisplayMatchingDisplayMissing;
+        assertEquals(expected.endsWith("\n") ? expected : expected + "\n", sb.toString());
+    }
+
+	@Test
+    public void testEstimate() throws IOException
+    {
+        Writer out = new StringWriter();
+        final StringBuilder sbOut = new StringBuilder();
+        Diff diff = newDiff("a,v\nid1,1\nid2,2\nid3,3\n", "v,a\n1,id1\n9,id2\n4,id4\n", out, true, false, false, sbOut, sbOut);
+        diff.setEstimate(true);
+        diff.makeDiff();
+        assertEquals("estimate,value,error\nrowsA,3,0\nrowsB,3,0\nmissingA,1,0\nmissingB,1,0\nchanged,1,0\n", out.toString());
+        assertTrue(sbOut.toString().contains(Messages.getMessage("EstimateChanged", 1)));
+    }
+
+	@Test
+    public void testCheck() throws IOException
+    {
+        String[][] cases = {
+            {"a,v\nid1,1\nid2,2\n", "a,v\nid1,1\nid2,2\n", "SAME_ROWS"},
+            {"a,v\nid1,1\nid2,2\n", "v,a\n2,id2\n1,id1\n", "SAME_ROWS"},
+            {"a,v\nid1,1\nid2,2\n", "a,v\nid1,1\nid2,3\n", "DIFFERENT_ROWS"},
+        };
+        for (String[] c: cases) {
+            final StringBuilder sbOut = new StringBuilder();
+            Diff diff = newDiff(c[0], c[1], null, true, false, false, sbOut, sbOut);
+            diff.setCheck(true);
+            diff.makeDiff();
+            assertEquals(c[2], diff.getCheckOutcome().name());
+            assertEquals(1, sbOut.toString().trim().split("\n").length);
+        }
+
+        File a = newFile("a.csv", TestData.dataA);
+        File b = newFile("b.csv", TestData.dataA);
+        File out = new File(folder.getRoot(), "out.csv");
+        ParsedCommandLine cmd = new ParsedCommandLine();
+        assertTrue(cmd.parseCommandLine(new String[] {"--check", TestData.idColumn, a.getPath(), b.getPath(), out.getPath()}));
+        Diff diff = new Diff(cmd);
+        diff.makeDiff();
+        assertEquals(IdenticalCheck.Outcome.SAME_BYTES, diff.getCheckOutcome());
+        assertFalse(out.exists());
+    }
+
+	@Test
+    public void testCheckExitStatus() throws IOException
+    {
+        File a = newFile("a.csv", TestData.dataA);
+        File b = newFile("b.csv", TestData.dataB);
+        String out = new File(folder.getRoot(), "out.csv").getPath();
+        String[][] cases = {
+            {"0", "--check", TestData.idColumn, a.getPath(), a.getPath(), out},
+            {"1", "--check", TestData.idColumn, a.getPath(), b.getPath(), out},
+            // A command line that cannot be parsed must not look identical
+            {"2", "--check", "-p", "abc", TestData.idColumn, a.getPath(), b.getPath(), out},
+            {"2", "--check", "--noSuchOption", TestData.idColumn, a.getPath(), b.getPath(), out},
+            {"2", "--check", TestData.idColumn, a.getPath(), new File(folder.getRoot(), "missing.csv").getPath(), out},
+        };
+        for (String[] c: cases) {
+            ParsedCommandLine cmd = new ParsedCommandLine();
+            boolean parsed = cmd.parseCommandLine(Arrays.copyOfRange(c, 1, c.length));
+            assertEquals(String.join(" ", c), Integer.parseInt(c[0]), Diff.check(cmd, parsed));
+        }
+        assertFalse(new File(out).exists());
+    }
+
+	@Test
+    public void testCompositeKey() throws IOException
+    {
+        String dataA = "acct,date,seq,v\n1,2024-01-01,1,a\n1,2024-01-01,2,b\n1,2024-01-02,1,c\n2,2024-01-01,1,d\n";
+        String dataB = "v,seq,date,acct\na,1,2024-01-01,1\nx,2,2024-01-01,1\nc,2,2024-01-02,1\nd,1,2024-01-01,2\n";
+        List<String> key = Arrays.asList("acct", "date", "seq");
+
+        String[] expected = null;
+        for (int mode = 0; mode < 4; mode++) {
+            Writer out = new StringWriter();
+            final StringBuilder sbOut = new StringBuilder();
+            Diff diff = newDiff(dataA, dataB, out, true, false, true, sbOut, sbOut);
+            diff.setKeyColumns(key);
+            diff.setThreads(mode == 1 ? 3 : 1);
+            diff.setSortedInput(mode == 2);
+            diff.setExternalSort(mode == 3);
+            diff.makeDiff();
+
+            if (expected == null) {
+                expected = new String[]{out.toString(), sbOut.toString()};
+                // Missing rows are marked in the first key column, and identical rows are left out
+                assertEquals("acct,date,seq,v\n"
+                        + "1,2024-01-01,2,b" + Diff.DIFF_MARKER_A + Diff.DIFF_MARKER_B + "x\n"
+                        + Diff.RECORD_DIFF_MARKER_A + ",,\n"
+                        + Diff.DIFF_MARKER_A + "1,2024-01-02,2,c\n"
+                        + Diff.RECORD_DIFF_MARKER_B + ",,\n"
+                        + Diff.DIFF_MARKER_B + "1,2024-01-02,1,c\n", expected[0]);
+                assertTrue(expected[1].contains("1,2024-01-02,1"));
+                assertTrue(expected[1].contains("1,2024-01-02,2"));
+            } else {
+                assertEquals("mode " + mode + " output", expected[0], out.toString());
+                assertEquals("mode " + mode + " stdOut", expected[1], sbOut.toString());
+            }
+        }
+    }
+
+	@Test
+    public void testCompositeKeyIdenticalFiles() throws IOException
+    {
+        String dataA = "acct,date,seq,v\n1,2024-01-01,1,a\n1,2024-01-01,2,b\n2,2024-01-01,1,d\n";
+        String dataB = "v,seq,date,acct\na,1,2024-01-01,1\nb,2,2024-01-01,1\nd,1,2024-01-01,2\n";
+        for (int mode = 0; mode < 4; mode++) {
+            Writer out = new StringWriter();
+            final StringBuilder sbOut = new StringBuilder();
+            Diff diff = newDiff(dataA, dataB, out, true, false, true, sbOut, sbOut);
+            diff.setKeyColumns(Arrays.asList("acct", "date", "seq"));
+            diff.setThreads(mode == 1 ? 3 : 1);
+            diff.setSortedInput(mode == 2);
+            diff.setExternalSort(mode == 3);
+            diff.makeDiff();
+
+            // The key cells alone do not make a diff row
+            assertEquals("mode " + mode, "", out.toString());
+            assertTrue("mode " + mode + ": " + sbOut, sbOut.toString().endsWith(Messages.getMessage("IdenticalFiles") + "\n"));
+        }
+    }
+
+	@Test
+    public void testParseFailureNamesOneInput() throws IOException
+    {
+        // B waits for more input until the failure of A stops it
+        Reader slowB = new Reader() {
+            private boolean headerRead;
+
+            @Override
+            public int read(char[] cbuf, int off, int len) throws IOException {
+                if (!headerRead) {
+                    headerRead = true;
+                    "a,v\n".getChars(0, 4, cbuf, off);
+                    return 4;
+                }
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                return -1;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        final StringBuilder sbErr = new StringBuilder();
+        Diff diff = new Diff(TestData.idColumn, TestData.nameA, TestData.nameB, new StringReader(""), slowB,
+                TestData.output, new StringWriter(), true, false, false, s -> { }, sbErr::append);
+        try {
+            diff.makeDiff();
+            fail();
+        } catch (IllegalArgumentException e) {
+            // An empty input has no id column
+        }
+        assertTrue(sbErr.toString(), sbErr.toString().contains(Messages.getMessage("ParseCSVFail", TestData.nameA)));
+        assertFalse(sbErr.toString(), sbErr.toString().contains(Messages.getMessage("ParseCSVFail", TestData.nameB)));
+    }
+
+	@Test
+    public void testStats() throws IOException
+    {
+        for (int mode = 0; mode < 3; mode++) {
+            Writer stats = new StringWriter();
+            Diff diff = newDiff(mode == 2 ? TestData.dataASorted : TestData.dataA, mode == 2 ? TestData.dataBSorted : TestData.dataB,
+                    new StringWriter(), false, true, true, new StringBuilder(), new StringBuilder());
+            diff.setThreads(mode == 1 ? 3 : 1);
+            diff.setSortedInput(mode == 2);
+            diff.setStatsWriter(stats);
+            diff.makeDiff();
+
+            String json = stats.toString();
+            String msg = "mode " + mode + ": " + json;
+            String phases = mode == 2 ? "open,headers,diff,missing,write" : "parse,headers,diff,missing,write";
+            assertEquals(msg, phases, String.join(",", values(json, "\"name\": \"([a-z]+)\"")));
+            assertEquals(msg, "8", counter(json, "rowsReadA"));
+            assertEquals(msg, "9", counter(json, "rowsReadB"));
+            assertEquals(msg, String.valueOf(TestData.dataA.length()), counter(json, "charsReadA"));
+            assertEquals(msg, "7", counter(json, "rowsMatched"));
+            assertEquals(msg, "2", counter(json, "rowsMissingA"));
+            assertEquals(msg, "1", counter(json, "rowsMissingB"));
+            assertEquals(msg, "7", counter(json, "cellsDiffering"));
+            assertEquals(msg, "12", counter(json, "rowsWritten"));
+            int compared = Integer.parseInt(counter(json, "cellsCompared"));
+            int same = Integer.parseInt(counter(json, "rowsSameFingerprint"));
+            assertEquals(msg, (7 - same) * 3, compared);
+        }
+    }
+
+    private static String counter(String json, String name)
+    {
+        List<String> values = values(json, "\"" + name + "\": (-?[0-9]+)");
+        assertEquals(name, 1, values.size());
+        return values.get(0);
+    }
+
+    private static List<String> values(String json, String regex)
+    {
+        List<String> values = new ArrayList<>();
+        Matcher m = Pattern.compile(regex).matcher(json);
+        while (m.find())
+            values.add(m.group(1));
+        return values;
+    }
+
+    /*
+     * A diff of two data sets read from strings, writing to out and appending its messages to sbOut and sbErr
+     */
+    private static Diff newDiff(String dataA, String dataB, Writer out, boolean zeroMatchesNull,
+            boolean displayMatchingData, boolean displayMissingRows, StringBuilder sbOut, StringBuilder sbErr) throws IOException
+    {
+        return new Diff(TestData.idColumn, TestData.nameA, TestData.nameB, new StringReader(dataA), new StringReader(dataB),
+                TestData.output, out, zeroMatchesNull, displayMatchingData, displayMissingRows, sbOut::append, sbErr::append);
+    }
+
+    /*
+     * A file in the temporary folder holding some data
+     */
+    private File newFile(String name, String data) throws IOException
+    {
+        File file = folder.newFile(name);
+        Files.write(file.toPath(), data.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /*
+     * Run a diff and return the output, stdOut and stdErr
+     */
+    private String[] runDiff(String dataA, String dataB, boolean zeroMatchesNull,
+            boolean displayMatchingData, boolean displayMissingRows, boolean sorted) throws IOException
+    {
+        Writer out = new StringWriter();
+        final StringBuilder sbOut = new StringBuilder();
+        final StringBuilder sbErr = new StringBuilder();
+
+        Diff diff = newDiff(dataA, dataB, out, zeroMatchesNull, displayMatchingData, displayMissingRows, sbOut, sbErr);
+        diff.setSortedInput(sorted);
+        diff.makeDiff();
+
+        return new String[]{out.toString(), sbOut.toString(), sbErr.toString()};
+    }
+}
@@ -14,6 +14,8 @@ public class TestData {
 
     public static String dataA;
     public static String dataB;
+    public static String dataASorted;
+    public static String dataBSorted;
     public static String dataOutDisplayMatchingDisplayMissing;
     public static String dataOutZeroMatchingNull;
     public static String dataOutZeroNotMatchingNullNoDisplay;
@@ -45,6 +47,28 @@ public class TestData {
                 "101,,,,0,\n" + 
                 "102,,,,,";
 
+        // The same records in id order
+        dataASorted = "col X,b,a,c,e\n" +
+                "one,2,1,3,0\n" +
+                ",,101,,\n" +
+                ",,102,,\n" +
+                "two,k,2,stuff,0\n" +
+                "\"three, three\",hi,3,there,0\n" +
+                "five,0,5,0,0\n" +
+                "six,999,6,111,0\n" +
+                "0,yo,7,,0";
+
+        dataBSorted = "a,c,b,d,col X,\"missing,col\"\n" +
+                "1,3,2,0,one,\",,,\"\n" +
+                "100,,,,,\"\"\"\"\n" +
+                "101,,,,0,\n" +
+                "102,,,,,\n" +
+                "2,stuff,k,0,two,x\n" +
+                "3,there,hello,0,\"three,three\", \n" +
+                "4,0,0,0,four,\"\"\"\"\"\"\n" +
+                "6,222,999,0,six,\n" +
+                "7,world,,0,,f";
+
         dataOutDisplayMatchingDisplayMissing = 
 				"a,b,c,col X\n" +
                 "7,yo" + Diff.DIFF_MARKER_A + "," + Diff.DIFF_MARKER_B + "world,0" + Diff.DIFF_MARKER_A + "\n" +
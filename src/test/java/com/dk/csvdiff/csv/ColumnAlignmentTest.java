@@ -0,0 +1,58 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class ColumnAlignmentTest {
+
+    @Test
+    public void testPositions() {
+        ColumnAlignment alignment = new ColumnAlignment(Arrays.asList("a", "b", "c"));
+        Row r1 = new Row(Arrays.asList("1", "x", "y", "extra"), Arrays.asList("a", "b", "c", "d"), "a");
+        Row r2 = new Row(Arrays.asList("z", "1", "x"), Arrays.asList("c", "a", "b"), "a");
+        ColumnAlignment.Positions pos = alignment.positions(r1, r2);
+        assertSame(pos, alignment.positions(r1, r2));
+        assertSame(pos, alignment.positions(new Row(Arrays.asList("2"), Arrays.asList("a", "b", "c", "d"), "a"), r2));
+
+        assertEquals("1", pos.valueA(r1, 0));
+        assertEquals("1", pos.valueB(r2, 0));
+        assertEquals("y", pos.valueA(r1, 2));
+        assertEquals("z", pos.valueB(r2, 2));
+        assertTrue(pos.same(r1, r2, 1));
+        assertFalse(pos.same(r1, r2, 2));
+
+        ColumnAlignment.Positions swapped = alignment.positions(r2, r1);
+        assertNotSame(pos, swapped);
+        assertEquals("z", swapped.valueA(r2, 2));
+
+        Row missing = new Row(Arrays.asList("1"), Arrays.asList("a"), "a");
+        ColumnAlignment.Positions partial = alignment.positions(r1, missing);
+        assertNull(partial.valueB(missing, 1));
+        assertFalse(partial.same(r1, missing, 1));
+
+        Row diff = alignment.row(new String[] {"1", "", "y"}, Collections.singletonList("a"));
+        assertEquals("y", diff.getValue("c"));
+        assertSame(diff.getSchema(), alignment.row(new String[] {"2", "", ""}, Collections.singletonList("a")).getSchema());
+    }
+
+    @Test
+    public void testSameContent() throws IOException {
+        Sheet a = new Sheet("id");
+        Sheet b = new Sheet("id");
+        a.parse(new StringReader("id,x,onlyA,y\n1,p,q,r\n2,p,q,r\n"));
+        b.parse(new StringReader("y,id,x\nr,1,p\nr,2,s\n"));
+        ColumnAlignment alignment = new ColumnAlignment(Arrays.asList("id", "x", "y"));
+        Row a1 = a.getRow("1");
+        Row b1 = b.getRow("1");
+        ColumnAlignment.Positions pos = alignment.positions(a1, b1);
+        assertTrue(pos.sameContent(a1, b1, false));
+        assertFalse(pos.sameContent(a.getRow("2"), b.getRow("2"), false));
+        assertTrue(a1.sameContent(b1, Arrays.asList("onlyA"), Collections.<String>emptyList(), false));
+    }
+}
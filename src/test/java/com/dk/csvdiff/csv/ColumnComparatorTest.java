@@ -0,0 +1,110 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ColumnComparatorTest {
+
+    @Test
+    public void testNumbers() {
+        ColumnComparator number = ColumnComparator.forName("number");
+        assertTrue(same(number, "1.0", "1.00", false));
+        assertTrue(same(number, "1e3", "1000", false));
+        assertTrue(same(number, " -0 ", "0.0", false));
+        assertFalse(same(number, "1.0", "1.01", false));
+        assertTrue(same(ColumnComparator.forName("number:0.05"), "1.0", "1.01", false));
+        assertFalse(same(number, "0x10", "16", false));
+        assertFalse(same(number, "1d", "1", false));
+        assertTrue(same(number, "n/a", "n/a", false));
+        assertTrue(same(number, "0.00", "", true));
+        assertFalse(same(number, "0.00", "", false));
+        assertFalse(same(number, "1", "", true));
+        assertEquals(ColumnComparator.EMPTY, number.parse(""));
+        assertEquals(ColumnComparator.UNPARSED, number.parse("NaN"));
+
+        // Integers past 2^53 round to the same double, so they are compared exactly as text
+        assertFalse(same(number, "9007199254740993", "9007199254740992", false));
+        assertTrue(same(number, "9007199254740993", "9007199254740993", false));
+        assertEquals(ColumnComparator.UNPARSED, number.parse("9007199254740993"));
+        assertEquals(ColumnComparator.UNPARSED, number.parse("0.10000000000000000001"));
+        assertEquals(ColumnComparator.UNPARSED, number.parse("1e999"));
+        assertTrue(same(number, "9007199254740992", "9.007199254740992e15", false));
+        assertTrue(same(number, "1000000000000000000000", "1e21", false));
+    }
+
+    @Test
+    public void testDates() {
+        ColumnComparator date = ColumnComparator.forName("date");
+        assertTrue(same(date, "2024-01-05", "05-Jan-2024", false));
+        assertTrue(same(date, "2024-01-05", "20240105", false));
+        assertTrue(same(date, "2024-01-05T10:00:00", "2024-01-05 10:00", false));
+        assertTrue(same(date, "2024-01-05T10:00:00Z", "2024-01-05T11:00:00+01:00", false));
+        assertFalse(same(date, "2024-01-05", "2024-01-06", false));
+        assertTrue(same(ColumnComparator.forName("date:d/M/yyyy"), "05/01/2024", "5/1/2024", false));
+        assertTrue(same(date, "0", "", true));
+    }
+
+    @Test
+    public void testText() {
+        assertTrue(same(ColumnComparator.IGNORE_CASE, "Smith", "SMITH", false));
+        assertFalse(same(ColumnComparator.TEXT, "Smith", "SMITH", false));
+        assertTrue(same(ColumnComparator.TEXT, "0", "", true));
+        assertFalse(same(ColumnComparator.TEXT, "0.0", "", true));
+        assertSame(ColumnComparator.IGNORE_CASE, ColumnComparator.forName("ignoreCase"));
+        for (String bad: new String[] {"numbr", "number:x", "number:-1", "date:qqqqqqq", "text:1"}) {
+            try {
+                ColumnComparator.forName(bad);
+                fail(bad);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(bad));
+            }
+        }
+    }
+
+    @Test
+    public void testInfer() {
+        assertEquals("number", ColumnComparator.infer(Arrays.asList("1", "", "2.5", "1e3")).toString());
+        assertEquals("date", ColumnComparator.infer(Arrays.asList("2024-01-05", "05-Jan-2024")).toString());
+        assertSame(ColumnComparator.TEXT, ColumnComparator.infer(Arrays.asList("007", "12")));
+        assertSame(ColumnComparator.TEXT, ColumnComparator.infer(Arrays.asList("1", "x")));
+        assertSame(ColumnComparator.TEXT, ColumnComparator.infer(Arrays.asList("", "")));
+        assertSame(ColumnComparator.TEXT, ColumnComparator.infer(Arrays.asList("9007199254740993", "12")));
+    }
+
+    @Test
+    public void testTypedSheet() throws IOException {
+        Sheet a = new Sheet("id");
+        Sheet b = new Sheet("id");
+        a.parse(new StringReader("id,n,d\n1,1.0,2024-01-05\n2,2,x\n"));
+        b.parse(new StringReader("d,n,id\n05-Jan-2024,1.00,1\nx,3,2\n"));
+        ColumnComparator number = ColumnComparator.number(0);
+        a.typeColumn("n", number);
+        b.typeColumn("n", number);
+        assertEquals(Double.doubleToLongBits(1.0), a.getRow("1").parsed(1, number));
+        assertEquals(a.sample("n", 10), Arrays.asList("1.0", "2"));
+
+        ColumnAlignment alignment = new ColumnAlignment(Arrays.asList("d", "n"),
+                new ColumnComparator[] {ColumnComparator.date(), number}, false);
+        ColumnAlignment.Positions pos = alignment.positions(a.getRow("1"), b.getRow("1"));
+        assertTrue(pos.same(a.getRow("1"), b.getRow("1"), 0));
+        assertTrue(pos.same(a.getRow("1"), b.getRow("1"), 1));
+        assertTrue(pos.same(a.getRow("2"), b.getRow("2"), 0));
+        assertFalse(pos.same(a.getRow("2"), b.getRow("2"), 1));
+
+        // A changed cell is parsed again
+        a.getRow("2").setId("2");
+        b.addRow(new Row(Arrays.asList("2", "2.0"), Arrays.asList("id", "n"), "id"));
+        assertTrue(number.same(a.getRow("2"), 1, b.getRow("2"), 1, false));
+    }
+
+    private static boolean same(ColumnComparator comparator, String v1, String v2, boolean zeroMatchesNull) {
+        Row a = new Row(Arrays.asList("1", v1), Arrays.asList("id", "v"), "id");
+        Row b = new Row(Arrays.asList("1", v2), Arrays.asList("id", "v"), "id");
+        return comparator.same(a, 1, b, 1, zeroMatchesNull) && comparator.same(b, 1, a, 1, zeroMatchesNull);
+    }
+}
@@ -0,0 +1,94 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ColumnDictionaryTest {
+
+    private static final String DATA = "id,status,text,zero\n1,A,\"x,y\",0\n2,B\n3,A,\"q\"\"\",,extra\n4,,,\n";
+
+    @Test
+    public void testCodes() {
+        ColumnDictionary d = new ColumnDictionary();
+        int a = d.code("A");
+        int empty = d.code("");
+        assertEquals(a, d.code("A"));
+        assertEquals("A", d.value(a));
+        assertEquals("", d.value(ColumnDictionary.ABSENT));
+        assertTrue(d.same(empty, ColumnDictionary.ABSENT));
+        assertFalse(d.same(a, ColumnDictionary.ABSENT));
+
+        for (int i = d.size(); i < ColumnDictionary.MAX_SIZE; i++)
+            assertTrue(d.code("v" + i) >= 0);
+        assertFalse(d.isFull());
+        assertEquals(-1, d.code("one too many"));
+        assertTrue(d.isFull());
+        assertEquals(a, d.code("A"));
+        assertEquals("", new ColumnDictionary(new String[] {"A", ""}).value(1));
+    }
+
+    @Test
+    public void testEncodedBlock() {
+        RecordBlock plain = tokenize(DATA);
+        RecordBlock block = tokenize(DATA);
+        ColumnDictionary status = new ColumnDictionary();
+        ColumnDictionary zero = new ColumnDictionary();
+        block.encode(new ColumnDictionary[] {null, status, full(), zero}, 1);
+        assertArrayEquals(new int[] {1, 3}, block.encodedPositions());
+
+        for (int r = 1; r < block.size(); r++) {
+            assertEquals(plain.fieldCount(r), block.fieldCount(r));
+            assertEquals(Arrays.asList(plain.values(r)), Arrays.asList(block.values(r)));
+            for (int field = 0; field < 6; field++) {
+                for (int other = 1; other < block.size(); other++) {
+                    assertEquals(r + "," + field + "," + other, plain.equal(r, field, plain, other, field), block.equal(r, field, plain, other, field));
+                    assertEquals(plain.equal(r, field, plain, other, field), block.equal(r, field, block, other, field));
+                }
+                for (boolean zeroMatchesNull: new boolean[] {false, true})
+                    assertEquals(plain.cell(r, field, 7, 1, zeroMatchesNull), block.cell(r, field, 7, 1, zeroMatchesNull));
+                Key.Builder k1 = new Key.Builder();
+                Key.Builder k2 = new Key.Builder();
+                plain.addTo(k1, r, field);
+                block.addTo(k2, r, field);
+                assertEquals(k1.build(), k2.build());
+            }
+        }
+        assertEquals(0, block.fieldCount(0));
+        assertEquals(3, status.size());
+        byte[] a = "A".getBytes(StandardCharsets.UTF_8);
+        assertTrue(block.equal(3, 1, a, 0, a.length));
+    }
+
+    @Test
+    public void testSharedDictionaries() throws IOException {
+        Sheet a = new Sheet("id");
+        Sheet b = new Sheet("id");
+        b.shareDictionaries(a);
+        a.parse(new StringReader("id,status,text,zero\n1,A,\"x,y\",0\n2,B\n"));
+        b.parse(new StringReader("id,zero,status\n1,,A\n2,0,C\n"));
+        assertTrue(a.getRow("1").sameValue("status", b.getRow("1")));
+        assertFalse(a.getRow("2").sameValue("status", b.getRow("2")));
+        assertTrue(a.getRow("2").sameValue("zero", b.getRow("1")));
+        assertEquals("C", b.getRow("2").getValue("status"));
+        assertEquals("0", b.getRow("2").getValue("zero"));
+    }
+
+    private static ColumnDictionary full() {
+        ColumnDictionary d = new ColumnDictionary();
+        for (int i = 0; i <= ColumnDictionary.MAX_SIZE; i++)
+            d.code(String.valueOf(i));
+        return d;
+    }
+
+    private static RecordBlock tokenize(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return CsvTokenizer.tokenize(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+}
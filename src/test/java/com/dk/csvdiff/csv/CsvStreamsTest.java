@@ -0,0 +1,98 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CsvStreamsTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testGzipInput() throws IOException {
+        StringBuilder data = new StringBuilder("id,text\n");
+        for (int i = 0; i < 50000; i++)
+            data.append(i).append(",café ").append(i * 7).append('\n');
+
+        File gz = folder.newFile("a.csv.gz");
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(gz))) {
+            out.write(data.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        File plain = folder.newFile("b.csv");
+        Files.write(plain.toPath(), data.toString().getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(CsvStreams.isStream(gz.getPath()));
+        assertFalse(CsvStreams.isStream(plain.getPath()));
+        assertFalse(CsvStreams.isStream(new File(folder.getRoot(), "none.csv").getPath()));
+        assertTrue(CsvStreams.isStream(CsvStreams.STANDARD));
+        assertEquals(data.toString(), read(CsvStreams.openReader(gz.getPath())));
+        assertEquals(data.toString(), read(CsvStreams.openReader(plain.getPath())));
+    }
+
+    @Test
+    public void testGzipOutput() throws IOException {
+        File gz = new File(folder.getRoot(), "out.csv.gz");
+        try (Writer w = CsvStreams.openWriter(gz.getPath(), false)) {
+            w.write("id,v\n1,é\n");
+        }
+        assertTrue(CsvStreams.isGzip(gz));
+        assertEquals("id,v\n1,é\n", read(new InputStreamReader(new GZIPInputStream(Files.newInputStream(gz.toPath())), StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void testReadAheadFailure() throws IOException {
+        InputStream failing = new InputStream() {
+            private int n;
+
+            @Override
+            public int read() throws IOException {
+                if (n++ < 100000)
+                    return 'x';
+                throw new IOException("broken");
+            }
+        };
+        try (InputStream in = new ReadAheadInputStream(failing, "test")) {
+            byte[] buf = new byte[1000];
+            long total = 0;
+            int n;
+            while ((n = in.read(buf)) >= 0)
+                total += n;
+            fail("read " + total);
+        } catch (IOException e) {
+            assertEquals("broken", e.getMessage());
+        }
+
+        try (InputStream in = new ReadAheadInputStream(new ByteArrayInputStream(new byte[0]), "test")) {
+            assertEquals(-1, in.read());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (BufferedReader r = new BufferedReader(reader)) {
+            char[] buf = new char[4096];
+            int n;
+            while ((n = r.read(buf)) >= 0)
+                sb.append(buf, 0, n);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,107 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.dk.csvdiff.TestData;
+import com.opencsv.CSVReader;
+import com.opencsv.RFC4180Parser;
+
+public class CsvTokenizerTest {
+
+    private static final String[] DATA = new String[] {
+        TestData.dataA,
+        TestData.dataB,
+        "id,text\r\n1,\"multi\r\nline, with \"\"quotes\"\"\"\r\n2,plain\r\n\r\n3,\"\"\r\n",
+        "id,text\n1,\"a\nb\nc\"\n2,\"\"\"\"\n3,x\"y\n4,café über\n",
+        "id,v\r1,a\r2,b",
+        "id,v\n1,\"x\"\"y\n,\"\n2,\n",
+        ""
+    };
+
+    @Test
+    public void testMatchesOpenCsv() throws IOException {
+        for (String data: DATA) {
+            List<String[]> expected = new CSVReader(new StringReader(data), 0, new RFC4180Parser()).readAll();
+            RecordBlock block = tokenize(data);
+            assertEquals(data, expected.size(), block.size());
+            for (int r = 0; r < block.size(); r++)
+                assertEquals(data + " / " + r, Arrays.asList(expected.get(r)), Arrays.asList(block.values(r)));
+        }
+    }
+
+    @Test
+    public void testDirectBuffer() {
+        byte[] bytes = "id,text\n1,\"a \"\"b\"\"\",café\n".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes);
+        RecordBlock block = CsvTokenizer.tokenize(buf, 0, bytes.length);
+        assertEquals(2, block.size());
+        assertEquals(Arrays.asList("1", "a \"b\"", "café"), Arrays.asList(block.values(1)));
+    }
+
+    @Test
+    public void testSheetRoundTrip() throws IOException {
+        String data = "id,text\n1,\"a,b\"\n2,\"say \"\"hi\"\"\"\n3,\"two\nlines\"\n";
+        Sheet s = new Sheet("id");
+        s.parse(new StringReader(data));
+        assertEquals("a,b", s.getRow("1").getValue("text"));
+        assertEquals("say \"hi\"", s.getRow("2").getValue("text"));
+        assertEquals("two\nlines", s.getRow("3").getValue("text"));
+
+        StringWriter out = new StringWriter();
+        s.write(out);
+        Sheet copy = new Sheet("id");
+        copy.parse(new StringReader(out.toString()));
+        for (Row r: s.getRows())
+            assertEquals(r.getValue("text"), copy.getRow(r.getId()).getValue("text"));
+    }
+
+    @Test
+    public void testProjection() throws IOException {
+        String data = "id,a,b,c\n1,\"x,y\",2,3\n2,\"p\nq\",5\n";
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        int start = CsvTokenizer.nextRecord(ByteBuffer.wrap(bytes), 0, bytes.length);
+        assertEquals("id,a,b,c\n".length(), start);
+        RecordBlock block = CsvTokenizer.tokenize(ByteBuffer.wrap(bytes), start, bytes.length, new boolean[] {true, false, true, false}, null);
+        assertEquals(Arrays.asList("1", "2"), Arrays.asList(block.values(0)));
+        assertEquals(Arrays.asList("2", "5"), Arrays.asList(block.values(1)));
+
+        Sheet s = new Sheet("id");
+        s.setColumns(Arrays.asList("b"), Arrays.asList("b"));
+        s.parse(new StringReader(data));
+        assertEquals(Arrays.asList("id"), new ArrayList<>(s.getHeaders()));
+        s = new Sheet("id");
+        s.setColumns(null, Arrays.asList("a", "id"));
+        s.parse(new StringReader(data));
+        assertEquals(Arrays.asList("id", "b", "c"), new ArrayList<>(s.getHeaders()));
+        assertEquals("", s.getRow("2").getValue("c"));
+        assertNull(s.getRow("1").getValue("a"));
+
+        // Extra fields are still found
+        s = new Sheet("id");
+        s.setColumns(Arrays.asList("a"), Collections.<String>emptyList());
+        try {
+            s.parse(new StringReader("id,a,b\n1,2,3,4\n"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static RecordBlock tokenize(String data) {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        return CsvTokenizer.tokenize(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
+}
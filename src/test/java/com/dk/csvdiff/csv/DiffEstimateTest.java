@@ -0,0 +1,117 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DiffEstimateTest {
+    private static final List<String> KEY = Collections.singletonList("id");
+
+    @Test
+    public void testExact() throws IOException {
+        String a = "id,x,onlyA\n1,a,p\n2,b,q\n3,0,r\n4,d,s\n";
+        String b = "x,id\na,1\nB,2\n,3\ne,5\nf,6\n";
+        DiffEstimate estimate = DiffEstimate.estimate(new RowReader(new StringReader(a), "id"),
+                new RowReader(new StringReader(b), "id"), KEY, true);
+        assertEquals("4", estimate.getRowsA().toString());
+        assertEquals(5, estimate.getRowsB().getValue());
+        assertEquals(2, estimate.getMissingA().getValue());
+        assertEquals(1, estimate.getMissingB().getValue());
+        assertEquals(1, estimate.getChanged().getValue());
+        assertEquals(0, estimate.getChanged().getError());
+        assertEquals(4, estimate.getRowsReadA());
+        assertEquals(5, estimate.getRowsReadB());
+
+        estimate = DiffEstimate.estimate(new RowReader(new StringReader(a), "id"),
+                new RowReader(new StringReader(b), "id"), KEY, false);
+        assertEquals(2, estimate.getChanged().getValue());
+    }
+
+    @Test
+    public void testSampled() throws IOException {
+        int rows = 400000;
+        long[] truth = new long[5];
+        Random random = new Random(42);
+        int[] kind = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            double r = random.nextDouble();
+            kind[i] = r < 0.01 ? 1 : r < 0.04 ? 2 : r < 0.14 ? 3 : 0;
+            truth[kind[i]]++;
+        }
+        DiffEstimate estimate = DiffEstimate.estimate(new Rows(kind, true), new Rows(kind, false), KEY, true);
+
+        assertWithin(rows - truth[2], estimate.getRowsA());
+        assertWithin(rows - truth[1], estimate.getRowsB());
+        assertWithin(truth[2], estimate.getMissingA());
+        assertWithin(truth[1], estimate.getMissingB());
+        assertWithin(truth[3], estimate.getChanged());
+        assertTrue(estimate.getChanged().getError() > 0);
+        assertEquals(rows - truth[2], estimate.getRowsReadA());
+        assertEquals(rows - truth[1], estimate.getRowsReadB());
+    }
+
+    @Test
+    public void testHyperLogLog() {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            long h = random.nextLong();
+            a.add(h);
+            a.add(h);
+            if (i % 2 == 0)
+                b.add(h);
+        }
+        assertEquals(100000, a.estimate(), 100000 * 4 * HyperLogLog.relativeError());
+        assertEquals(50000, b.estimate(), 50000 * 4 * HyperLogLog.relativeError());
+        assertEquals(0, new HyperLogLog().estimate());
+    }
+
+    private static void assertWithin(long expected, DiffEstimate.Count count) {
+        assertTrue(expected + " vs " + count, Math.abs(expected - count.getValue()) <= count.getError());
+    }
+
+    /*
+     * Rows 0 are in both data sets, 1 only in A, 2 only in B and 3 changed
+     */
+    private static class Rows implements RowSource {
+        private static final List<String> HEADERS = Arrays.asList("id", "x");
+        private final int[] kind;
+        private final boolean a;
+        private int i;
+
+        Rows(int[] kind, boolean a) {
+            this.kind = kind;
+            this.a = a;
+        }
+
+        @Override
+        public Collection<String> getHeaders() {
+            return HEADERS;
+        }
+
+        @Override
+        public Row next() {
+            while (i < kind.length && kind[i] == (a ? 2 : 1))
+                i++;
+            if (i == kind.length)
+                return null;
+            String x = kind[i] == 3 && !a ? "changed" : "x" + i;
+            Row row = new Row(Arrays.asList("id" + i, x), HEADERS, "id");
+            i++;
+            return row;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ExternalSorterTest {
+
+    @Test
+    public void testSortInMemory() throws IOException {
+        checkSort(Long.MAX_VALUE, 50);
+    }
+
+    @Test
+    public void testSortRuns() throws IOException {
+        // A tiny budget writes every row to its own run and needs several merge passes
+        checkSort(1, 300);
+    }
+
+    @Test
+    public void testHeaders() throws IOException {
+        RowSource sorted = new ExternalSorter("b", 1, null).sort(new RowReader(new StringReader("a,b\n1,2\n"), "b"));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(sorted.getHeaders()));
+        assertEquals("2", sorted.next().getId());
+        assertNull(sorted.next());
+        sorted.close();
+    }
+
+    private void checkSort(long budget, int count) throws IOException {
+        Random random = new Random(42);
+        StringBuilder csv = new StringBuilder("id,seq\n");
+        for (int i = 0; i < count; i++)
+            csv.append(random.nextInt(count / 2)).append(',').append(i).append('\n');
+
+        List<Row> rows = new ArrayList<>();
+        try (RowSource sorted = new ExternalSorter("id", budget, null).sort(new RowReader(new StringReader(csv.toString()), "id"))) {
+            Row r;
+            while ((r = sorted.next()) != null)
+                rows.add(r);
+        }
+
+        assertEquals(count, rows.size());
+        for (int i = 1; i < rows.size(); i++) {
+            Row prev = rows.get(i - 1);
+            Row r = rows.get(i);
+            int c = prev.getId().compareTo(r.getId());
+            assertTrue("order at " + i, c <= 0);
+            // Equal ids keep their input order
+            if (c == 0)
+                assertTrue("stable at " + i, Integer.parseInt(prev.getValue("seq")) < Integer.parseInt(r.getValue("seq")));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class FrontCodedIdIndexTest {
+
+    @Test
+    public void testFindsEveryIdAndNoOthers() {
+        Random random = new Random(7);
+        List<String> ids = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        String[] prefixes = {"CUST-EU-", "CUST-EU-0000", "CUST-US-", "C", "", "é\u0000", "CUST-EU-000000012"};
+        while (ids.size() < 3000) {
+            String id = prefixes[random.nextInt(prefixes.length)] + random.nextInt(100000);
+            if (seen.add(id))
+                ids.add(id);
+        }
+        Collections.shuffle(ids, random);
+
+        List<String> key = Collections.singletonList("id");
+        Schema schema = new Schema(Arrays.asList("id", "v"));
+        ColumnStore store = new ColumnStore();
+        for (String id: ids)
+            store.append(schema, new String[]{id, "v"});
+        FrontCodedIdIndex index = FrontCodedIdIndex.build(store, key);
+
+        for (int ordinal = 0; ordinal < ids.size(); ordinal++) {
+            String id = ids.get(ordinal);
+            assertEquals(id, ordinal, index.get(Key.of(id)));
+            for (String other: new String[]{id + "0", id + "\u0000", id.substring(0, id.length() - 1), id + "~", "~" + id}) {
+                if (!seen.contains(other))
+                    assertEquals(other, -1, index.get(Key.of(other)));
+            }
+        }
+        assertEquals(-1, index.get(Key.of("")));
+        assertEquals(-1, index.get(Key.of("￿")));
+        assertTrue(index.isReadOnly());
+        assertFalse(index.accepts(Key.of("x")));
+    }
+
+    @Test
+    public void testSheetWithCompactIds() throws IOException {
+        StringBuilder data = new StringBuilder("acct,seq,v\n");
+        for (int i = 0; i < 500; i++)
+            data.append("CUST-EU-").append(String.format("%012d", i % 50)).append(',').append(i / 50).append(",v").append(i).append('\n');
+        Sheet s = new Sheet(Arrays.asList("acct", "seq"));
+        s.setCompactIds(true);
+        s.parse(new StringReader(data.toString()));
+
+        assertEquals(500, s.size());
+        assertEquals("v123", s.getRow(Key.of("CUST-EU-000000000023", "2")).getValue("v"));
+        assertFalse(s.contains(Key.of("CUST-EU-000000000023", "10")));
+
+        // Adding a row after the index is compacted
+        s.addRow(new Row(Arrays.asList("CUST-EU-000000000023", "10", "new"), Arrays.asList("acct", "seq", "v"), Arrays.asList("acct", "seq")));
+        assertEquals("new", s.getRow(Key.of("CUST-EU-000000000023", "10")).getValue("v"));
+        assertEquals("v123", s.getRow(Key.of("CUST-EU-000000000023", "2")).getValue("v"));
+    }
+}
@@ -0,0 +1,61 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IdenticalCheckTest {
+    private static final List<String> KEY = Collections.singletonList("id");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameBytes() throws IOException {
+        StringBuilder data = new StringBuilder("id,v\n");
+        for (int i = 0; i < 300000; i++)
+            data.append(i).append(",v").append(i).append('\n');
+        File a = write("a.csv", data.toString());
+        File b = write("b.csv", data.toString());
+        File c = write("c.csv", data.substring(0, data.length() - 2) + "x\n");
+        assertTrue(IdenticalCheck.sameBytes(a, b));
+        assertFalse(IdenticalCheck.sameBytes(a, c));
+        assertFalse(IdenticalCheck.sameBytes(a, write("d.csv", data + "1,2\n")));
+        assertTrue(IdenticalCheck.sameBytes(write("e.csv", ""), write("f.csv", "")));
+    }
+
+    @Test
+    public void testSameRows() throws IOException {
+        String a = "id,x,y\n1,a,0\n2,b,\n2,b,\n3,c,d\n";
+        assertEquals(IdenticalCheck.Outcome.SAME_ROWS, check(a, "y,id,x\n,2,b\nd,3,c\n0,1,a\n,2,b\n", false));
+        assertEquals(IdenticalCheck.Outcome.SAME_ROWS, check(a, "id,x,y\n1,a,\n2,b,\n2,b,0\n3,c,d\n", true));
+        assertEquals(IdenticalCheck.Outcome.DIFFERENT_ROWS, check(a, "id,x,y\n1,a,\n2,b,\n2,b,0\n3,c,d\n", false));
+        assertEquals(IdenticalCheck.Outcome.DIFFERENT_ROWS, check(a, "id,x,y\n1,a,0\n2,b,\n3,c,d\n", false));
+        assertEquals(IdenticalCheck.Outcome.DIFFERENT_ROWS, check(a, a + "2,b,\n", false));
+        assertEquals(IdenticalCheck.Outcome.DIFFERENT_ROWS, check(a, "id,x,y\n1,a,0\n2,b,\n3,c,d\n3,c,d\n", false));
+        assertEquals(IdenticalCheck.Outcome.DIFFERENT_COLUMNS, check(a, "id,x\n1,a\n", false));
+        assertTrue(IdenticalCheck.Outcome.SAME_BYTES.isIdentical());
+        assertFalse(IdenticalCheck.Outcome.DIFFERENT_COLUMNS.isIdentical());
+    }
+
+    private static IdenticalCheck.Outcome check(String a, String b, boolean zeroMatchesNull) throws IOException {
+        return IdenticalCheck.sameRows(new RowReader(new StringReader(a), "id"),
+                new RowReader(new StringReader(b), "id"), KEY, zeroMatchesNull);
+    }
+
+    private File write(String name, String data) throws IOException {
+        File f = folder.newFile(name);
+        Files.write(f.toPath(), data.getBytes(StandardCharsets.UTF_8));
+        return f;
+    }
+}
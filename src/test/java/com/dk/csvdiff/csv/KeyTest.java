@@ -0,0 +1,46 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class KeyTest {
+
+    private static final List<String> VALUES = Arrays.asList(
+            "", "a", "a\u0000", "a\u0000b", "a\u0001", "ab", "b", "é", "퟿", "", "￿",
+            "𐀀", "􏿿", "😀x", "😁");
+
+    @Test
+    public void testOrderMatchesStrings() {
+        for (String v1: VALUES) {
+            for (String v2: VALUES) {
+                int expected = Integer.signum(v1.compareTo(v2));
+                assertEquals(v1 + " " + v2, expected, Integer.signum(Key.of(v1).compareTo(Key.of(v2))));
+                assertEquals(v1 + " " + v2, expected == 0, Key.of(v1).equals(Key.of(v2)));
+            }
+        }
+    }
+
+    @Test
+    public void testPartsOrderedInTurn() {
+        // Part by part, not as the values joined together
+        assertTrue(Key.of("a", "z").compareTo(Key.of("ab", "a")) < 0);
+        assertTrue(Key.of("a", "b").compareTo(Key.of("a", "c")) < 0);
+        assertTrue(Key.of("b", "").compareTo(Key.of("a", "zz")) > 0);
+        assertNotEquals(Key.of("ab", "c"), Key.of("a", "bc"));
+        assertEquals(Key.of("a", "b"), Key.of(Arrays.asList("a", "b")));
+        assertEquals(Key.of("a", "b").hashCode(), Key.of(Arrays.asList("a", "b")).hashCode());
+    }
+
+    @Test
+    public void testParts() {
+        Key k = Key.of("1", "", "a\u0000b", "é");
+        assertEquals(4, k.size());
+        assertArrayEquals(new String[]{"1", "", "a\u0000b", "é"}, k.parts());
+        assertEquals("7", Key.of("7").toString());
+        assertEquals("1,2024-01-01", Key.of("1", "2024-01-01").toString());
+    }
+}
@@ -0,0 +1,90 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIdIndexTest {
+
+    @Test
+    public void testAscendingIdsStayInBitmap() {
+        LongIdIndex index = new LongIdIndex();
+        for (int i = 0; i < 10000; i++)
+            index.put(Key.of(String.valueOf(1000 + i * 3)), i);
+        assertTrue(index.isBitmap());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, index.get(Key.of(String.valueOf(1000 + i * 3))));
+            assertEquals(-1, index.get(Key.of(String.valueOf(1001 + i * 3))));
+        }
+        assertEquals(-1, index.get(Key.of("999")));
+        assertEquals(-1, index.get(Key.of("1000000")));
+        // Far smaller than a table of the same ids
+        assertTrue(index.footprint() < 10000);
+    }
+
+    @Test
+    public void testShuffledIds() {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 0; i < 5000; i++)
+            ids.add(i * 1000003 - 2500000000L);
+        Collections.shuffle(ids, new Random(42));
+        LongIdIndex index = new LongIdIndex();
+        for (int i = 0; i < ids.size(); i++)
+            index.put(Key.of(String.valueOf(ids.get(i))), i);
+        assertFalse(index.isBitmap());
+        for (int i = 0; i < ids.size(); i++)
+            assertEquals(i, index.get(ids.get(i)));
+        assertEquals(-1, index.get(1));
+    }
+
+    @Test
+    public void testBitmapMovedToTable() {
+        LongIdIndex index = new LongIdIndex();
+        for (int i = 0; i < 200; i++)
+            index.put(i, i);
+        assertTrue(index.isBitmap());
+
+        // Out of order
+        index.put(-5, 200);
+        assertFalse(index.isBitmap());
+        for (int i = 0; i < 200; i++)
+            assertEquals(i, index.get(i));
+        assertEquals(200, index.get(-5));
+
+        // An id moved to another row
+        index.put(7, 3);
+        assertEquals(3, index.get(7));
+
+        // Too sparse
+        index = new LongIdIndex();
+        index.put(1, 0);
+        index.put(Long.MAX_VALUE, 1);
+        assertFalse(index.isBitmap());
+        assertEquals(0, index.get(1));
+        assertEquals(1, index.get(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testOnlyWholeNumbers() {
+        for (String id: new String[]{"0", "7", "-7", "9223372036854775807", "-9223372036854775808"}) {
+            assertTrue(id, Key.of(id).isLong());
+            assertEquals(id, Long.parseLong(id), Key.of(id).toLong());
+        }
+        for (String id: new String[]{"", "-", "007", "-0", "+1", " 1", "1.0", "1e3", "x",
+                "9223372036854775808", "-9223372036854775809", "99999999999999999999"}) {
+            assertFalse(id, Key.of(id).isLong());
+        }
+        assertFalse(Key.of("1", "2").isLong());
+
+        LongIdIndex index = new LongIdIndex();
+        index.put(Key.of("7"), 0);
+        assertEquals(0, index.get(Key.of("7")));
+        assertEquals(-1, index.get(Key.of("007")));
+        assertFalse(index.accepts(Key.of("007")));
+    }
+}
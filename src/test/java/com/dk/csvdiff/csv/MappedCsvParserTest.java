@@ -0,0 +1,126 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dk.csvdiff.TestData;
+import com.opencsv.CSVReader;
+import com.opencsv.RFC4180Parser;
+
+public class MappedCsvParserTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService pool;
+
+    private static final String[] DATA = new String[] {
+        TestData.dataA,
+        TestData.dataB,
+        "id,text\r\n1,\"multi\r\nline, with \"\"quotes\"\"\"\r\n2,plain\r\n\r\n3,\"\"\r\n",
+        "id,text\n1,\"a\nb\nc\"\n2,\"\"\"\"\n3,x\"y\n4,café über\n",
+        "id,v\r1,a\r2,b",
+        "id,v\n1,\"x\"\"y\n,\"\n2,\n"
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        pool = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testMatchesOpenCsv() throws IOException {
+        for (String data: DATA) {
+            File file = write(data);
+            List<String[]> expected = new CSVReader(new StringReader(data), 0, new RFC4180Parser()).readAll();
+            // Tiny chunks put boundaries inside quotes, line breaks and multi-byte characters
+            for (long chunkSize: new long[]{1, 2, 3, 5, 7, 16, 1 << 20}) {
+                List<String[]> actual = parse(file, chunkSize);
+                assertEquals(data + " / " + chunkSize, toString(expected), toString(actual));
+            }
+        }
+    }
+
+    @Test
+    public void testSheetParse() throws IOException {
+        Sheet fromFile = new Sheet(TestData.idColumn);
+        fromFile.parse(write(TestData.dataB), pool);
+        Sheet fromReader = new Sheet(TestData.idColumn);
+        fromReader.parse(new StringReader(TestData.dataB));
+
+        assertEquals(new ArrayList<>(fromReader.getHeaders()), new ArrayList<>(fromFile.getHeaders()));
+        assertEquals(fromReader.size(), fromFile.size());
+        for (Row r: fromReader.getRows())
+            assertArrayEquals(r.toArray(new String[0]), fromFile.getRow(r.getId()).toArray(new String[0]));
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        assertEquals(0, parse(write(""), 4).size());
+        assertEquals(1, parse(write("id,v"), 4).size());
+    }
+
+    private List<String[]> parse(File file, long chunkSize) throws IOException {
+        final List<String[]> records = new ArrayList<>();
+        new MappedCsvParser(pool, chunkSize).parse(file, new MappedCsvParser.Handler() {
+            @Override
+            public boolean[] header(String[] headers) {
+                if (headers.length > 0)
+                    records.add(headers);
+                return null;
+            }
+
+            @Override
+            public RowFilter.Bound filter() {
+                return null;
+            }
+
+            @Override
+            public void tokenized(RecordBlock block) {
+            }
+
+            @Override
+            public void records(RecordBlock block) {
+                for (int r = 0; r < block.size(); r++)
+                    records.add(block.values(r));
+            }
+        });
+        return records;
+    }
+
+    private File write(String data) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static String toString(List<String[]> records) {
+        StringBuilder sb = new StringBuilder();
+        for (String[] r: records)
+            sb.append(Arrays.toString(r)).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,62 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import org.junit.Test;
+
+public class OffHeapArenaTest {
+
+    @Test
+    public void testAllocate() {
+        try (OffHeapArena arena = new OffHeapArena(1024)) {
+            ByteBuffer a = arena.allocate(10);
+            ByteBuffer b = arena.allocate(16);
+            assertTrue(a.isDirect());
+            assertEquals(10, a.capacity());
+            assertEquals(16, b.capacity());
+            // Rounded up to keep later buffers aligned
+            assertEquals(32, arena.used());
+            a.put(9, (byte) 1);
+            assertEquals(0, b.get(0));
+            assertNull(arena.allocate(1000));
+            assertNotNull(arena.allocate(992));
+            assertNull(arena.allocate(1));
+        }
+    }
+
+    @Test
+    public void testCopy() {
+        try (OffHeapArena arena = new OffHeapArena(64)) {
+            IntBuffer ints = arena.copy(IntBuffer.wrap(new int[] {1, 2, 3}));
+            assertTrue(ints.isDirect());
+            assertEquals(3, ints.limit());
+            assertEquals(3, ints.get(2));
+            ByteBuffer bytes = arena.copy(ByteBuffer.wrap(new byte[] {7, 8, 9}, 1, 2));
+            assertEquals(2, bytes.limit());
+            assertEquals(8, bytes.get(0));
+            assertSame(bytes, arena.copy(bytes));
+
+            // Data that does not fit stays on the heap
+            LongBuffer longs = LongBuffer.wrap(new long[8]);
+            assertSame(longs, arena.copy(longs));
+        }
+    }
+
+    @Test
+    public void testClose() {
+        OffHeapArena arena = new OffHeapArena(1 << 20);
+        arena.allocate(100);
+        arena.close();
+        arena.close();
+        try {
+            arena.allocate(1);
+            fail("Expected a closed arena to fail");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+}
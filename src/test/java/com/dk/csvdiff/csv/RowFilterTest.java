@@ -0,0 +1,86 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class RowFilterTest {
+
+    private static final String DATA = "id,region,day,n\n"
+            + "1,North,2024-01-05,10\n"
+            + "2,South,2024-02-01,9\n"
+            + "3,\"North\",2024-03-01,100\n"
+            + "4,\"No\"\"rth\",2024-01-01,x\n"
+            + "5,North\n";
+
+    @Test
+    public void testConditions() {
+        assertEquals(Arrays.asList("1", "3", "5"), ids("region=North"));
+        assertEquals(Arrays.asList("2", "4"), ids("region != North"));
+        assertEquals(Arrays.asList("1", "4", "5"), ids("day<2024-02-01"));
+        assertEquals(Arrays.asList("1", "3"), ids("n>=10"));
+        assertEquals(Arrays.asList("2"), ids("n<10"));
+        assertEquals(Arrays.asList("2", "3", "4"), ids("id>1", "id<=4"));
+        assertEquals(Arrays.asList("5"), ids("day="));
+        assertEquals(Arrays.asList("1", "3"), ids("region=North", "day>2024-01"));
+    }
+
+    @Test
+    public void testBadConditions() {
+        for (String bad: new String[] {"region", "=North", ""}) {
+            try {
+                new RowFilter(Collections.singletonList(bad));
+                fail(bad);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(bad));
+            }
+        }
+        try {
+            new RowFilter(Arrays.asList("zone=North")).bind(Arrays.asList("id", "region"));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("zone"));
+        }
+    }
+
+    @Test
+    public void testFilteredSheet() throws IOException {
+        Sheet s = new Sheet("id");
+        s.setFilter(new RowFilter(Arrays.asList("region=North")));
+        s.setColumns(Arrays.asList("n"), Collections.<String>emptyList());
+        s.parse(new StringReader(DATA));
+        assertEquals(3, s.size());
+        assertEquals(Arrays.asList("id", "n"), new ArrayList<>(s.getHeaders()));
+        assertEquals("100", s.getRow("3").getValue("n"));
+
+        RowReader reader = new RowReader(new StringReader(DATA), null, Collections.singletonList("id"),
+                Arrays.asList("n"), Collections.<String>emptyList(), new RowFilter(Arrays.asList("region=North")));
+        List<String> ids = new ArrayList<>();
+        for (Row r = reader.next(); r != null; r = reader.next())
+            ids.add(r.getId());
+        reader.close();
+        assertEquals(Arrays.asList("1", "3", "5"), ids);
+    }
+
+    private static List<String> ids(String... conditions) {
+        byte[] bytes = DATA.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        int start = CsvTokenizer.nextRecord(buf, 0, bytes.length);
+        RowFilter filter = new RowFilter(Arrays.asList(conditions));
+        RecordBlock block = CsvTokenizer.tokenize(buf, start, bytes.length, null,
+                filter.bind(Arrays.asList("id", "region", "day", "n")));
+        List<String> ids = new ArrayList<>();
+        for (int r = 0; r < block.size(); r++)
+            ids.add(block.value(r, 0));
+        return ids;
+    }
+}
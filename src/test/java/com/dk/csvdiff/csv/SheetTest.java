@@ -184,6 +184,78 @@ public class SheetTest {
         assertEquals("c", s.getIdColumn());
     }
 
+    @Test
+    public void testReplaceRow() {
+        String[] headers1 = new String[]{"a","b","c"};
+        String[] headers2 = new String[]{"a","x","c","d"};
+        String[] values1 = new String[]{"1","2","3"};
+        String[] values2 = new String[]{"2","100","3","102"};
+        String[] values3 = new String[]{"4","5","6"};
+        String idColumn = "c";
+
+        Sheet s = new Sheet(idColumn);
+        s.addRow(new Row(values1, headers1, idColumn));
+        s.addRow(new Row(values3, headers1, idColumn));
+        s.addRow(new Row(values2, headers2, idColumn));
+
+        // The replaced row keeps its position and takes the new headers
+        assertEquals(2, s.getRows().size());
+        Iterator<Row> iterRow = s.getRows().iterator();
+        RowTest.checkRow(iterRow.next(), headers2, values2, idColumn, "3", "Row 1");
+        RowTest.checkRow(iterRow.next(), headers1, values3, idColumn, "6", "Row 2");
+        assertNull(s.getRow("3").getValue("b"));
+    }
+
+    @Test
+    public void testParsedValues() throws IOException {
+        Sheet a = new Sheet("id");
+        a.parse(new StringReader("id,x,y\n1,plain,\"q\"\n2,\"a\"\"b\",\n3,\"two\r\nlines\"\n"));
+        Sheet b = new Sheet("id");
+        b.parse(new StringReader("y,id,x\nq,1,plain\n,2,\"a\"\"b\"\n,3,\"two\nlines\"\n"));
+
+        // Quoted, escaped and missing cells compare by value
+        for (Row r: a.getRows()) {
+            Row other = b.getRow(r.getId());
+            assertTrue(r.getId(), r.sameValue("x", other));
+            assertTrue(r.getId(), r.sameValue("y", other));
+            assertFalse(r.getId(), r.sameValue("x", new Row(new String[]{r.getId(), "other"}, new String[]{"id", "x"}, "id")));
+        }
+        assertEquals("a\"b", a.getRow("2").getValue("x"));
+        assertEquals("", a.getRow("3").getValue("y"));
+
+        // Changing a parsed row keeps its other values
+        Row r = a.getRow("1");
+        r.setId("9");
+        assertEquals("9", a.getRowAt(0).getId());
+        assertEquals("plain", a.getRowAt(0).getValue("x"));
+        assertEquals("q", a.getRowAt(0).getValue("y"));
+        assertEquals("2", a.getRowAt(1).getId());
+    }
+
+    @Test
+    public void testFingerprints() throws IOException {
+        List<String> onlyA = Arrays.asList("onlyA");
+        List<String> onlyB = Arrays.asList("onlyB");
+        String dataA = "id,x,y,onlyA\n1,a,\"b\",p\n2,a,b,q\n3,0,b,r\n";
+        String dataB = "onlyB,y,x,id\ns,b,a,1\nt,c,a,2\nu,b,,3\n";
+
+        for (boolean zeroMatchesNull: new boolean[]{true, false}) {
+            Sheet a = new Sheet("id");
+            a.setZeroMatchesNull(zeroMatchesNull);
+            a.parse(new StringReader(dataA));
+            Sheet b = new Sheet("id");
+            b.setZeroMatchesNull(zeroMatchesNull);
+            b.parse(new StringReader(dataB));
+
+            assertTrue(a.getRow("1").sameContent(b.getRow("1"), onlyA, onlyB, zeroMatchesNull));
+            assertFalse(a.getRow("1").sameContent(b.getRow("1"), Arrays.<String>asList(), onlyB, zeroMatchesNull));
+            assertFalse(a.getRow("2").sameContent(b.getRow("2"), onlyA, onlyB, zeroMatchesNull));
+            assertEquals(zeroMatchesNull, a.getRow("3").sameContent(b.getRow("3"), onlyA, onlyB, zeroMatchesNull));
+            // Fingerprints taken with the other normalization are not used
+            assertFalse(a.getRow("1").sameContent(b.getRow("1"), onlyA, onlyB, !zeroMatchesNull));
+        }
+    }
+
     @Test
     public void testParseAndWrite() throws IOException {
         parseAndWrite(new Sheet(TestData.idColumn), TestData.dataA);
@@ -199,4 +271,87 @@ public class SheetTest {
     		testData = testData + "\n";
     	assertEquals(testData, writer.toString());
     }
+
+    @Test
+    public void testCompositeKey() throws IOException {
+        List<String> key = Arrays.asList("acct", "date");
+        Sheet s = new Sheet(key);
+        s.parse(new StringReader("acct,date,v\n1,d1,a\n1,d2,b\n\"2,\"\"x\"\"\",d1,c\n1,d1,replaced\n"));
+
+        assertEquals(key, s.getKeyColumns());
+        assertEquals("acct", s.getIdColumn());
+        assertEquals(3, s.size());
+        assertTrue(s.contains(Key.of("1", "d2")));
+        assertFalse(s.contains(Key.of("1", "d3")));
+        assertFalse(s.contains(Key.of("d1", "1")));
+        assertEquals("replaced", s.getRow(Key.of("1", "d1")).getValue("v"));
+        assertEquals("c", s.getRow(Key.of("2,\"x\"", "d1")).getValue("v"));
+        Row r = s.getRow(Key.of("1", "d2"));
+        assertEquals("1,d2", r.getId());
+        assertEquals(Key.of("1", "d2"), r.getKey());
+
+        // Added Rows are found by the same Key as parsed ones
+        s.addRow(new Row(Arrays.asList("b", "d3", "1"), Arrays.asList("v", "date", "acct"), key));
+        assertEquals("b", s.getRow(Key.of("1", "d3")).getValue("v"));
+        assertEquals(r, new Row(Arrays.asList("1", "d2"), Arrays.asList("acct", "date"), key));
+
+        try {
+            new Sheet(key).parse(new StringReader("acct,v\n1,a\n"));
+            fail("Expected a missing key column to fail");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testNumericIdsThenOthers() throws IOException {
+        StringBuilder data = new StringBuilder("id,v\n");
+        for (int i = 0; i < 300; i++)
+            data.append(i).append(",v").append(i).append("\n");
+        data.append("007,seven\n-3,minus\n");
+        for (int i = 1000; i > 900; i--)
+            data.append(i).append(",v").append(i).append("\n");
+        data.append("x1,x\n5,five\n");
+
+        Sheet s = new Sheet("id");
+        s.parse(new StringReader(data.toString()));
+        assertEquals(403, s.size());
+        assertEquals("five", s.getRow("5").getValue("v"));
+        assertEquals("v299", s.getRow("299").getValue("v"));
+        assertEquals("v7", s.getRow("7").getValue("v"));
+        assertEquals("seven", s.getRow("007").getValue("v"));
+        assertEquals("minus", s.getRow("-3").getValue("v"));
+        assertEquals("v950", s.getRow("950").getValue("v"));
+        assertEquals("x", s.getRow("x1").getValue("v"));
+        assertFalse(s.contains("300"));
+        assertFalse(s.contains("07"));
+
+        s.addRow(new Row(new String[]{"y", "z"}, new String[]{"id", "v"}, "id"));
+        assertEquals("z", s.getRow("y").getValue("v"));
+        assertEquals("v950", s.getRow("950").getValue("v"));
+    }
+
+    @Test
+    public void testOffHeap() throws IOException {
+        StringBuilder data = new StringBuilder("id,v\n");
+        for (int i = 0; i < 500; i++)
+            data.append("id").append(i).append(",\"v,").append(i).append("\"\n");
+        for (long capacity: new long[] {1 << 20, 4096}) {
+            try (OffHeapArena arena = new OffHeapArena(capacity)) {
+                Sheet s = new Sheet("id");
+                s.setOffHeap(arena);
+                s.parse(new StringReader(data.toString()));
+                assertTrue(arena.used() > 0);
+                assertEquals(500, s.size());
+                assertEquals("v,42", s.getRow("id42").getValue("v"));
+                assertEquals("v,499", s.getRowAt(499).getValue("v"));
+                assertFalse(s.contains("id500"));
+
+                // Rows added later go into an index on the heap
+                s.addRow(new Row(new String[]{"x", "y"}, new String[]{"id", "v"}, "id"));
+                assertEquals("y", s.getRow("x").getValue("v"));
+                assertEquals("v,7", s.getRow("id7").getValue("v"));
+            }
+        }
+    }
 }
@@ -0,0 +1,184 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.dk.csvdiff.TestData;
+
+public class SnapshotCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testLoadMatchesParse() throws IOException {
+        File csv = write(TestData.dataB + "\n5,,dup,,,\n102,,,,,x\n");
+        SnapshotCache cache = new SnapshotCache(null);
+        Sheet parsed = new Sheet(TestData.idColumn);
+        cache.parse(parsed, csv, pool);
+        File snapshot = cache.snapshotFile(csv);
+        assertTrue(snapshot.isFile());
+        assertEquals(new File(csv.getParentFile(), csv.getName() + ".csvdiff"), snapshot);
+
+        Sheet loaded = new Sheet(TestData.idColumn);
+        assertTrue(loaded.load(csv, snapshot, pool));
+        assertEquals(toString(parsed), toString(loaded));
+        for (Row r: parsed.getRows()) {
+            assertTrue(loaded.contains(r.getId()));
+            assertArrayEquals(r.toArray(new String[0]), loaded.getRow(r.getId()).toArray(new String[0]));
+            List<String> none = Arrays.asList();
+            assertTrue(r.sameContent(loaded.getRow(r.getId()), none, none, false));
+        }
+        assertFalse(loaded.contains("no such id"));
+        assertNull(loaded.getRow("no such id"));
+        assertEquals("dup", loaded.getRow("5").getValue("b"));
+        assertEquals("x", loaded.getRow("102").getValue("missing,col"));
+    }
+
+    @Test
+    public void testChangedFile() throws IOException {
+        File csv = write("id,v\n1,a\n2,b\n");
+        SnapshotCache cache = new SnapshotCache(folder.newFolder());
+        cache.parse(new Sheet("id"), csv, pool);
+        File snapshot = cache.snapshotFile(csv);
+        assertTrue(snapshot.isFile());
+
+        // Same size and modification time but different content
+        long modified = csv.lastModified();
+        try (OutputStream out = new FileOutputStream(csv)) {
+            out.write("id,v\n1,a\n2,c\n".getBytes(StandardCharsets.UTF_8));
+        }
+        csv.setLastModified(modified);
+        assertFalse(new Sheet("id").load(csv, snapshot, pool));
+        assertFalse(new Sheet("v").load(csv, snapshot, pool));
+
+        Sheet s = new Sheet("id");
+        cache.parse(s, csv, pool);
+        assertEquals("c", s.getRow("2").getValue("v"));
+        Sheet loaded = new Sheet("id");
+        assertTrue(loaded.load(csv, snapshot, pool));
+        assertEquals("c", loaded.getRow("2").getValue("v"));
+    }
+
+    @Test
+    public void testChangedUnsampledPage() throws IOException {
+        // Hundreds of pages, so an edit early on falls between pages a sample would read
+        StringBuilder data = new StringBuilder("id,v\n");
+        for (int i = 0; i < 100000; i++)
+            data.append(String.format("%06d,abcdef\n", i));
+        File csv = write(data.toString());
+        SnapshotCache cache = new SnapshotCache(null);
+        cache.parse(new Sheet("id"), csv, pool);
+
+        long modified = csv.lastModified();
+        int row = (2 * 4096 + 100) / 14;
+        try (RandomAccessFile out = new RandomAccessFile(csv, "rw")) {
+            out.seek(5 + row * 14 + 7);
+            out.write('z');
+        }
+        csv.setLastModified(modified);
+        assertFalse(new Sheet("id").load(csv, cache.snapshotFile(csv), pool));
+
+        Sheet s = new Sheet("id");
+        cache.parse(s, csv, pool);
+        assertEquals("zbcdef", s.getRow(String.format("%06d", row)).getValue("v"));
+    }
+
+    @Test
+    public void testFingerprintsTakenAgain() throws IOException {
+        File csv = write("id,v\n1,0\n");
+        File other = write("id,v\n1,\n");
+        SnapshotCache cache = new SnapshotCache(null);
+        cache.parse(new Sheet("id"), csv, pool);
+
+        Sheet loaded = new Sheet("id");
+        loaded.setZeroMatchesNull(true);
+        assertTrue(loaded.load(csv, cache.snapshotFile(csv), pool));
+        Sheet parsed = new Sheet("id");
+        parsed.setZeroMatchesNull(true);
+        parsed.parse(other, pool);
+        List<String> none = Arrays.asList();
+        assertTrue(loaded.getRow("1").sameContent(parsed.getRow("1"), none, none, true));
+    }
+
+    @Test
+    public void testChangeLoadedSheet() throws IOException {
+        File csv = write("id,v\n1,a\n2,b\n");
+        SnapshotCache cache = new SnapshotCache(null);
+        Sheet s = new Sheet("id");
+        cache.parse(s, csv, pool);
+        s.addRow(new Row(new String[]{"3", "c"}, new String[]{"id", "v"}, "id"));
+        // Not only parsed from the file any more
+        assertFalse(s.save(csv, folder.newFile()));
+
+        Sheet loaded = new Sheet("id");
+        assertTrue(loaded.load(csv, cache.snapshotFile(csv), pool));
+        loaded.addRow(new Row(new String[]{"2", "x"}, new String[]{"id", "v"}, "id"));
+        loaded.addRow(new Row(new String[]{"3", "c"}, new String[]{"id", "v"}, "id"));
+        assertEquals(3, loaded.size());
+        assertEquals("x", loaded.getRow("2").getValue("v"));
+        assertEquals("a", loaded.getRow("1").getValue("v"));
+        assertEquals("c", loaded.getRow("3").getValue("v"));
+    }
+
+    @Test
+    public void testCompositeKey() throws IOException {
+        File csv = write("acct,date,v\n1,d1,a\n1,d2,b\n2,d1,c\n");
+        List<String> key = Arrays.asList("acct", "date");
+        SnapshotCache cache = new SnapshotCache(null);
+        cache.parse(new Sheet(key), csv, pool);
+
+        Sheet loaded = new Sheet(key);
+        assertTrue(loaded.load(csv, cache.snapshotFile(csv), pool));
+        assertEquals("b", loaded.getRow(Key.of("1", "d2")).getValue("v"));
+        assertEquals("c", loaded.getRow(Key.of("2", "d1")).getValue("v"));
+        assertFalse(loaded.contains(Key.of("2", "d2")));
+        assertFalse(loaded.contains("1"));
+
+        // Saved for other key columns
+        assertFalse(new Sheet("acct").load(csv, cache.snapshotFile(csv), pool));
+        assertFalse(new Sheet(Arrays.asList("date", "acct")).load(csv, cache.snapshotFile(csv), pool));
+    }
+
+    private File write(String data) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+
+    private static String toString(Sheet s) throws IOException {
+        StringWriter out = new StringWriter();
+        s.write(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.dk.csvdiff.csv;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.dk.csvdiff.TestData;
+import com.opencsv.CSVReader;
+import com.opencsv.RFC4180Parser;
+
+public class StreamCsvParserTest {
+    private ExecutorService pool;
+
+    private static final String[] DATA = new String[] {
+        TestData.dataA,
+        TestData.dataB,
+        "id,text\r\n1,\"multi\r\nline, with \"\"quotes\"\"\"\r\n2,plain\r\n\r\n3,\"\"\r\n",
+        "id,text\n1,\"a\nb\nc\"\n2,\"\"\"\"\n3,x\"y\n4,café über\n",
+        "id,v\r1,a\r2,b",
+        "id,v\n1,\"x\"\"y\n,\"\n2,\n"
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        pool = Executors.newFixedThreadPool(3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testMatchesOpenCsv() throws IOException {
+        for (String data: DATA) {
+            List<String[]> expected = new CSVReader(new StringReader(data), 0, new RFC4180Parser()).readAll();
+            // Tiny chunks are cut inside quotes, line breaks and multi-byte characters, and grow for long records
+            for (int chunkSize: new int[]{1, 2, 3, 5, 7, 16, 1 << 20}) {
+                assertEquals(data + " / " + chunkSize, toString(expected), toString(parse(data, pool, chunkSize)));
+                assertEquals(data + " / " + chunkSize, toString(expected), toString(parse(data, null, chunkSize)));
+            }
+        }
+    }
+
+    @Test
+    public void testSheetParse() throws IOException {
+        StringBuilder data = new StringBuilder("id,v,w\n");
+        for (int i = 0; i < 200000; i++)
+            data.append(i).append(",\"value ").append(i % 7).append("\",").append(i * 3).append('\n');
+        Sheet onPool = new Sheet("id");
+        onPool.parse(new StringReader(data.toString()), pool);
+        Sheet onCaller = new Sheet("id");
+        onCaller.parse(new StringReader(data.toString()));
+
+        assertEquals(200000, onPool.size());
+        assertEquals(onCaller.size(), onPool.size());
+        for (Row r: onCaller.getRows())
+            assertArrayEquals(r.toArray(new String[0]), onPool.getRow(r.getId()).toArray(new String[0]));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        assertEquals(0, parse("", pool, 4).size());
+        assertEquals(1, parse("id,v", pool, 4).size());
+    }
+
+    private List<String[]> parse(String data, ExecutorService pool, int chunkSize) throws IOException {
+        final List<String[]> records = new ArrayList<>();
+        new StreamCsvParser(pool, null, chunkSize).parse(new StringReader(data), new MappedCsvParser.Handler() {
+            @Override
+            public boolean[] header(String[] headers) {
+                if (headers.length > 0)
+                    records.add(headers);
+                return null;
+            }
+
+            @Override
+            public RowFilter.Bound filter() {
+                return null;
+            }
+
+            @Override
+            public void tokenized(RecordBlock block) {
+            }
+
+            @Override
+            public void records(RecordBlock block) {
+                for (int r = 0; r < block.size(); r++)
+                    records.add(block.values(r));
+            }
+        });
+        return records;
+    }
+
+    private static String toString(List<String[]> records) {
+        StringBuilder sb = new StringBuilder();
+        for (String[] r: records)
+            sb.append(Arrays.toString(r)).append('\n');
+        return sb.toString();
+    }
+}